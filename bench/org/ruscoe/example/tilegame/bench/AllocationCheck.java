@@ -0,0 +1,202 @@
+package org.ruscoe.example.tilegame.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ruscoe.example.tilegame.GameCollision;
+import org.ruscoe.example.tilegame.GameSimulation;
+import org.ruscoe.example.tilegame.TileLayer;
+import org.ruscoe.example.tilegame.TileTemplateRegistry;
+import org.ruscoe.example.tilegame.data.LevelFormat;
+
+/**
+ * The AllocationCheck class checks that the collision paths run every
+ * game tick don't allocate:
+ * - GameCollision rectangle and point tests.
+ * - Collision queries through the tile grid.
+ * - A tick of the game simulation.
+ *
+ * Each path is measured as a benchmark. Any object allocated by an
+ * operation takes at least 16 bytes, so an operation that allocates
+ * nothing measures below one byte per operation; the fraction left over
+ * is allocation by the measurement itself, spread over all operations.
+ *
+ * Usage: AllocationCheck
+ * Exits with status 1 if any path allocates, or 2 if the JVM does not
+ * count allocated bytes. See run.sh for how to build and run the check.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class AllocationCheck
+{
+	private static final long WARM_UP_MILLIS = 500;
+	private static final int ITERATIONS = 3;
+	private static final long ITERATION_MILLIS = 200;
+
+	/**
+	 * The highest allocation per operation measured for a path that
+	 * allocates nothing.
+	 */
+	private static final double MAX_ALLOCATED_BYTES_PER_OPERATION = 1;
+
+	private static final int LEVEL_SIZE = 256;
+	private static final int TILE_SIZE = 30;
+	private static final int PLAYER_SPEED = 3;
+
+	/**
+	 * The number of calls made by each operation, at positions spread
+	 * across the level.
+	 */
+	private static final int CALLS_PER_OPERATION = 1024;
+
+	private AllocationCheck()
+	{
+	}
+
+	public static void main(String[] args)
+	{
+		if (!Benchmark.isAllocationCounted())
+		{
+			System.out.println("This JVM does not count allocated bytes.");
+			System.exit(2);
+		}
+
+		TileTemplateRegistry tileTemplates = EngineBenchmarks.createTileTemplates();
+		TileLayer tileLayer = EngineBenchmarks.createTileLayer(
+				LevelFormat.fromTileData(1, 1, 0, 0, EngineBenchmarks.createTileData(LEVEL_SIZE, LEVEL_SIZE)),
+				tileTemplates);
+
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		addBenchmarks(benchmarks, tileLayer);
+
+		int failures = 0;
+
+		System.out.println(Benchmark.Result.getHeader());
+
+		for (Benchmark benchmark : benchmarks)
+		{
+			Benchmark.Result result = benchmark.measure(WARM_UP_MILLIS, ITERATIONS, ITERATION_MILLIS);
+			boolean allocates = (result.getAllocatedBytesPerOperation() >= MAX_ALLOCATED_BYTES_PER_OPERATION);
+
+			System.out.println(result + (allocates ? "  ALLOCATES" : "  ok"));
+
+			if (allocates)
+			{
+				failures++;
+			}
+		}
+
+		if (failures > 0)
+		{
+			System.out.println(failures + " of " + benchmarks.size() + " paths allocate.");
+			System.exit(1);
+		}
+
+		System.out.println("No path allocates.");
+	}
+
+	/**
+	 * Adds a benchmark for each checked path.
+	 * @param List<Benchmark> benchmarks
+	 * @param TileLayer tileLayer - The level the paths are run on.
+	 */
+	private static void addBenchmarks(List<Benchmark> benchmarks, final TileLayer tileLayer)
+	{
+		final int levelWidth = (tileLayer.getColumns() * TILE_SIZE);
+		final int levelHeight = (tileLayer.getRows() * TILE_SIZE);
+
+		benchmarks.add(new Benchmark("GameCollision.intersects", "")
+		{
+			protected long run()
+			{
+				long result = 0;
+
+				for (int i = 0; i < CALLS_PER_OPERATION; i++)
+				{
+					if (GameCollision.intersects(i, i, TILE_SIZE, TILE_SIZE, 512, 512, TILE_SIZE, TILE_SIZE))
+					{
+						result++;
+					}
+				}
+
+				return result;
+			}
+		});
+
+		benchmarks.add(new Benchmark("GameCollision.contains", "")
+		{
+			protected long run()
+			{
+				long result = 0;
+
+				for (int i = 0; i < CALLS_PER_OPERATION; i++)
+				{
+					if (GameCollision.contains(512, 512, TILE_SIZE, TILE_SIZE, i, i))
+					{
+						result++;
+					}
+				}
+
+				return result;
+			}
+		});
+
+		benchmarks.add(new Benchmark("TileLayer.getCollisionCells", (LEVEL_SIZE + "x" + LEVEL_SIZE))
+		{
+			private final int[] mCollisionCells = new int[tileLayer.getMaxCellCount(TILE_SIZE, TILE_SIZE)];
+
+			protected long run()
+			{
+				long result = 0;
+
+				for (int i = 0; i < CALLS_PER_OPERATION; i++)
+				{
+					result += tileLayer.getCollisionCells(((i * 7919) % levelWidth), ((i * 104729) % levelHeight),
+							TILE_SIZE, TILE_SIZE, this.mCollisionCells);
+				}
+
+				return result;
+			}
+		});
+
+		benchmarks.add(new Benchmark("GameSimulation.tick", (LEVEL_SIZE + "x" + LEVEL_SIZE))
+		{
+			private final GameSimulation mSimulation = createSimulation(tileLayer);
+			private int mDirection = 0;
+
+			protected long run()
+			{
+				// Turn each operation, so the player unit keeps colliding with tiles.
+				this.mDirection = ((this.mDirection + 1) % 4);
+				this.mSimulation.setInput(true,
+						((this.mDirection < 2) ? GameSimulation.DIRECTION_DOWN : GameSimulation.DIRECTION_UP),
+						(((this.mDirection % 2) == 0) ? GameSimulation.DIRECTION_RIGHT : GameSimulation.DIRECTION_LEFT));
+
+				long result = 0;
+
+				for (int i = 0; i < CALLS_PER_OPERATION; i++)
+				{
+					this.mSimulation.tick();
+					result += this.mSimulation.getCollisionType();
+				}
+
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Creates a simulation of the player unit at the top left of a level.
+	 * @param TileLayer tileLayer
+	 * @return GameSimulation
+	 */
+	private static GameSimulation createSimulation(TileLayer tileLayer)
+	{
+		GameSimulation simulation = new GameSimulation(TILE_SIZE, TILE_SIZE, PLAYER_SPEED);
+		simulation.setTileMap(tileLayer);
+		simulation.setPlayerPosition(TILE_SIZE, TILE_SIZE);
+
+		return simulation;
+	}
+}
@@ -0,0 +1,235 @@
+package org.ruscoe.example.tilegame.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The Benchmark class measures the throughput and allocation rate of a
+ * single operation.
+ *
+ * The operation is run repeatedly for a warm-up period, so the JVM can
+ * compile it, and then for a number of measured iterations of fixed
+ * duration. Each result of the operation is folded into a sink, so the
+ * JVM can't remove the work as unused.
+ *
+ * Allocation is measured with the allocated bytes counter of the current
+ * thread, where the JVM provides one (HotSpot and OpenJDK do).
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public abstract class Benchmark
+{
+	private static volatile long sSink = 0;
+
+	private final String mName;
+	private final String mParameter;
+
+	/**
+	 * @param String name - The name of the operation.
+	 * @param String parameter - The parameter the operation is measured with, such as the level size.
+	 */
+	protected Benchmark(String name, String parameter)
+	{
+		this.mName = name;
+		this.mParameter = parameter;
+	}
+
+	public String getName()
+	{
+		return this.mName;
+	}
+
+	public String getParameter()
+	{
+		return this.mParameter;
+	}
+
+	/**
+	 * Runs the operation once.
+	 * @return long - Any value derived from the result of the operation.
+	 */
+	protected abstract long run();
+
+	/**
+	 * Measures the operation.
+	 * @param long warmUpMillis - The duration of the warm-up period.
+	 * @param int iterations - The number of measured iterations.
+	 * @param long iterationMillis - The duration of each measured iteration.
+	 * @return Result
+	 */
+	public Result measure(long warmUpMillis, int iterations, long iterationMillis)
+	{
+		runFor(warmUpMillis * 1000000L, null);
+
+		long operations = 0;
+		long nanos = 0;
+		long allocatedBytes = 0;
+		double minOperationsPerSecond = Double.MAX_VALUE;
+		double maxOperationsPerSecond = 0;
+
+		long[] iteration = new long[3];
+
+		for (int i = 0; i < iterations; i++)
+		{
+			runFor(iterationMillis * 1000000L, iteration);
+
+			operations += iteration[0];
+			nanos += iteration[1];
+			allocatedBytes += iteration[2];
+
+			double operationsPerSecond = ((iteration[0] * 1e9) / iteration[1]);
+			minOperationsPerSecond = Math.min(minOperationsPerSecond, operationsPerSecond);
+			maxOperationsPerSecond = Math.max(maxOperationsPerSecond, operationsPerSecond);
+		}
+
+		return new Result(this, operations, nanos, allocatedBytes, minOperationsPerSecond, maxOperationsPerSecond);
+	}
+
+	/**
+	 * Runs the operation repeatedly for a given time.
+	 * @param long durationNanos
+	 * @param long[] iteration - Receives the number of operations run, the time
+	 * 		taken and the bytes allocated; may be null.
+	 */
+	private void runFor(long durationNanos, long[] iteration)
+	{
+		long sink = 0;
+		long operations = 0;
+		long batchSize = 1;
+
+		long startAllocatedBytes = getAllocatedBytes();
+		long startTime = System.nanoTime();
+		long elapsedNanos = 0;
+
+		// Check the time once per batch, growing batches until each takes
+		// about a millisecond so timing does not dominate fast operations.
+		while (elapsedNanos < durationNanos)
+		{
+			long batchStartTime = System.nanoTime();
+
+			for (long i = 0; i < batchSize; i++)
+			{
+				sink += run();
+			}
+
+			operations += batchSize;
+
+			long now = System.nanoTime();
+			elapsedNanos = (now - startTime);
+
+			if ((now - batchStartTime) < 1000000L)
+			{
+				batchSize *= 2;
+			}
+		}
+
+		long allocatedBytes = (getAllocatedBytes() - startAllocatedBytes);
+
+		sSink += sink;
+
+		if (iteration != null)
+		{
+			iteration[0] = operations;
+			iteration[1] = elapsedNanos;
+			iteration[2] = allocatedBytes;
+		}
+	}
+
+	/**
+	 * Detects whether the JVM counts the bytes allocated by each thread,
+	 * so allocation per operation can be measured.
+	 * @return boolean
+	 */
+	public static boolean isAllocationCounted()
+	{
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+		return ((threadBean instanceof com.sun.management.ThreadMXBean)
+				&& ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemoryEnabled());
+	}
+
+	/**
+	 * Gets the number of bytes allocated by the current thread.
+	 * @return long - The allocated bytes, or 0 if the JVM does not count them.
+	 */
+	private static long getAllocatedBytes()
+	{
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+		if (threadBean instanceof com.sun.management.ThreadMXBean)
+		{
+			return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+
+		return 0;
+	}
+
+	/**
+	 * The measurements of a benchmark.
+	 */
+	public static class Result
+	{
+		private final Benchmark mBenchmark;
+		private final long mOperations;
+		private final long mNanos;
+		private final long mAllocatedBytes;
+		private final double mMinOperationsPerSecond;
+		private final double mMaxOperationsPerSecond;
+
+		Result(Benchmark benchmark, long operations, long nanos, long allocatedBytes,
+				double minOperationsPerSecond, double maxOperationsPerSecond)
+		{
+			this.mBenchmark = benchmark;
+			this.mOperations = operations;
+			this.mNanos = nanos;
+			this.mAllocatedBytes = allocatedBytes;
+			this.mMinOperationsPerSecond = minOperationsPerSecond;
+			this.mMaxOperationsPerSecond = maxOperationsPerSecond;
+		}
+
+		public double getOperationsPerSecond()
+		{
+			return ((this.mOperations * 1e9) / this.mNanos);
+		}
+
+		public double getNanosPerOperation()
+		{
+			return ((double) this.mNanos / this.mOperations);
+		}
+
+		public double getAllocatedBytesPerOperation()
+		{
+			return ((double) this.mAllocatedBytes / this.mOperations);
+		}
+
+		/**
+		 * Gets the allocation rate, in megabytes per second.
+		 * @return double
+		 */
+		public double getAllocationRate()
+		{
+			return ((this.mAllocatedBytes * 1e9) / this.mNanos / (1024 * 1024));
+		}
+
+		public static String getHeader()
+		{
+			return String.format("%-32s %-10s %14s %14s %12s %14s %10s",
+					"Benchmark", "Size", "ops/s", "spread %", "ns/op", "B/op", "MB/s");
+		}
+
+		@Override
+		public String toString()
+		{
+			double operationsPerSecond = getOperationsPerSecond();
+			double spread = (operationsPerSecond > 0)
+					? (((this.mMaxOperationsPerSecond - this.mMinOperationsPerSecond) * 100) / operationsPerSecond)
+					: 0;
+
+			return String.format("%-32s %-10s %14.1f %14s %12.1f %14.1f %10.1f",
+					this.mBenchmark.getName(), this.mBenchmark.getParameter(),
+					operationsPerSecond, String.format("+-%.1f", (spread / 2)),
+					getNanosPerOperation(), getAllocatedBytesPerOperation(), getAllocationRate());
+		}
+	}
+}
@@ -0,0 +1,430 @@
+package org.ruscoe.example.tilegame.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.ruscoe.example.tilegame.bench.LegacyEngine.Tile;
+
+import org.ruscoe.example.tilegame.TileLayer;
+import org.ruscoe.example.tilegame.TileMap;
+import org.ruscoe.example.tilegame.TileTemplateRegistry;
+import org.ruscoe.example.tilegame.data.LevelData;
+import org.ruscoe.example.tilegame.data.LevelFormat;
+
+/**
+ * The EngineBenchmarks class measures the hot paths of the game engine
+ * on a plain JVM:
+ * - Level parsing, from the text format levels are defined in and from
+ * 		the compiled format levels are loaded from, and by the split-based
+ * 		parser levels were previously loaded with.
+ * - Tile template lookups, by TileTemplateRegistry and by the map of
+ * 		boxed lists the templates were previously held in.
+ * - Collision queries for a player-sized area, as made every game tick,
+ * 		through the tile grid and by the scan of every tile previously made.
+ * - Culling of the tiles visible on screen, as done every frame.
+ *
+ * Each is measured on the 15x17 level bundled with the game and on
+ * generated levels of up to 2048x2048 tiles, reporting throughput and
+ * allocation per operation.
+ *
+ * Usage: EngineBenchmarks [filter] [iteration milliseconds]
+ * Only benchmarks whose name contains the filter are run. See run.sh
+ * for how to build and run the benchmarks.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class EngineBenchmarks
+{
+	private static final long WARM_UP_MILLIS = 1000;
+	private static final int ITERATIONS = 5;
+	private static final long DEFAULT_ITERATION_MILLIS = 1000;
+
+	private static final int[] GENERATED_LEVEL_SIZES = { 256, 1024, 2048 };
+
+	/**
+	 * The size of tiles and of the player unit, and the screen size, as
+	 * on a medium density screen.
+	 */
+	private static final int TILE_SIZE = 30;
+	private static final int SCREEN_WIDTH = 480;
+	private static final int SCREEN_HEIGHT = 320;
+
+	/**
+	 * The number of queries made by each collision and template lookup
+	 * operation, at precomputed random positions.
+	 */
+	private static final int QUERIES_PER_OPERATION = 1024;
+
+	/**
+	 * The first level bundled with the game, as defined in GameDAO.
+	 */
+	private static final String BUNDLED_LEVEL_TILE_DATA =
+			  "01,01,01,01,01,01,01,01,01,01,01,01,01,01,01//"
+			+ "01,03,03,03,03,03,03,03,03,03,03,03,03,03,01//"
+			+ "01,03,00,00,00,00,00,00,00,00,00,00,00,03,01//"
+			+ "01,03,00,00,00,00,00,00,00,00,00,07,07,03,01//"
+			+ "01,03,07,00,00,00,00,00,00,00,07,07,07,03,01//"
+			+ "01,03,05,05,06,05,00,00,00,05,06,05,05,03,01//"
+			+ "01,03,03,00,08,00,00,00,00,00,08,00,03,03,01//"
+			+ "01,03,00,00,00,00,00,00,00,00,00,00,00,03,01//"
+			+ "01,03,00,00,00,00,00,00,00,00,00,00,00,03,01//"
+			+ "01,03,00,00,00,00,04,04,04,00,00,00,00,03,01//"
+			+ "01,03,00,00,04,04,03,03,03,04,04,00,00,03,01//"
+			+ "01,03,00,00,03,00,00,00,00,00,03,00,00,03,01//"
+			+ "01,03,00,00,00,00,00,00,00,00,00,00,00,03,01//"
+			+ "01,03,00,00,00,00,00,09,00,00,00,00,07,03,01//"
+			+ "01,03,03,00,00,00,02,02,02,00,00,00,03,03,01//"
+			+ "01,03,03,04,04,04,02,02,02,04,04,04,03,03,01//"
+			+ "01,01,01,01,01,01,01,01,01,01,01,01,01,01,01//";
+
+	private EngineBenchmarks()
+	{
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		String filter = (args.length > 0) ? args[0] : "";
+		long iterationMillis = (args.length > 1) ? Long.parseLong(args[1]) : DEFAULT_ITERATION_MILLIS;
+
+		TileTemplateRegistry tileTemplates = createTileTemplates();
+
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		addBenchmarks(benchmarks, "15x17", BUNDLED_LEVEL_TILE_DATA, tileTemplates);
+
+		for (int levelSize : GENERATED_LEVEL_SIZES)
+		{
+			addBenchmarks(benchmarks, (levelSize + "x" + levelSize), createTileData(levelSize, levelSize), tileTemplates);
+		}
+
+		System.out.println(Benchmark.Result.getHeader());
+
+		for (Benchmark benchmark : benchmarks)
+		{
+			if (!benchmark.getName().contains(filter))
+			{
+				continue;
+			}
+
+			System.out.println(benchmark.measure(WARM_UP_MILLIS, ITERATIONS, iterationMillis));
+		}
+	}
+
+	/**
+	 * Adds the benchmarks for a level.
+	 * @param List<Benchmark> benchmarks
+	 * @param String size - The level size, as reported.
+	 * @param String tileData - The level, in the text format.
+	 * @param TileTemplateRegistry tileTemplates
+	 * @throws IOException
+	 */
+	private static void addBenchmarks(List<Benchmark> benchmarks, String size, final String tileData,
+			final TileTemplateRegistry tileTemplates) throws IOException
+	{
+		final LevelData levelData = LevelFormat.fromTileData(1, 1, 0, 0, tileData);
+		final TileLayer tileLayer = createTileLayer(levelData, tileTemplates);
+		final HashMap<Integer, ArrayList<Integer>> tileTemplateMap = createTileTemplateMap(tileTemplates);
+		final List<Tile> legacyTiles = LegacyEngine.parseTileData(tileData, tileTemplateMap, TILE_SIZE, TILE_SIZE);
+
+		ByteArrayOutputStream compiledLevel = new ByteArrayOutputStream();
+		LevelFormat.write(levelData, compiledLevel);
+		final ByteBuffer compiledLevelBuffer = ByteBuffer.wrap(compiledLevel.toByteArray());
+
+		Random random = new Random(levelData.getColumns());
+
+		final int[] queryTileIds = new int[QUERIES_PER_OPERATION];
+		final int[] queryX = new int[QUERIES_PER_OPERATION];
+		final int[] queryY = new int[QUERIES_PER_OPERATION];
+
+		int levelWidth = (levelData.getColumns() * TILE_SIZE);
+		int levelHeight = (levelData.getRows() * TILE_SIZE);
+
+		for (int i = 0; i < QUERIES_PER_OPERATION; i++)
+		{
+			queryTileIds[i] = levelData.getTileIds()[random.nextInt(levelData.getTileIds().length)];
+			queryX[i] = random.nextInt(levelWidth);
+			queryY[i] = random.nextInt(levelHeight);
+		}
+
+		benchmarks.add(new Benchmark("parse.text", size)
+		{
+			protected long run()
+			{
+				return LevelFormat.fromTileData(1, 1, 0, 0, tileData).getTileIds().length;
+			}
+		});
+
+		benchmarks.add(new Benchmark("parse.split", size)
+		{
+			protected long run()
+			{
+				return LegacyEngine.parseTileData(tileData, tileTemplateMap, TILE_SIZE, TILE_SIZE).size();
+			}
+		});
+
+		benchmarks.add(new Benchmark("parse.compiled", size)
+		{
+			protected long run()
+			{
+				try
+				{
+					return LevelFormat.read(compiledLevelBuffer.duplicate()).getTileIds().length;
+				} catch (IOException e)
+				{
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+
+		benchmarks.add(new Benchmark("templates.registry", size)
+		{
+			protected long run()
+			{
+				long result = 0;
+
+				for (int i = 0; i < QUERIES_PER_OPERATION; i++)
+				{
+					int tileId = queryTileIds[i];
+					result += (tileTemplates.getDrawable(tileId) + tileTemplates.getType(tileId)
+							+ tileTemplates.getFlags(tileId));
+				}
+
+				return result;
+			}
+		});
+
+		benchmarks.add(new Benchmark("templates.boxedMap", size)
+		{
+			protected long run()
+			{
+				long result = 0;
+
+				for (int i = 0; i < QUERIES_PER_OPERATION; i++)
+				{
+					ArrayList<Integer> tileData = tileTemplateMap.get(queryTileIds[i]);
+
+					if (tileData != null)
+					{
+						result += (tileData.get(3) + tileData.get(2) + tileData.get(4));
+					}
+				}
+
+				return result;
+			}
+		});
+
+		benchmarks.add(new Benchmark("collision.playerArea", size)
+		{
+			private final int[] mCollisionCells = new int[tileLayer.getMaxCellCount(TILE_SIZE, TILE_SIZE)];
+
+			protected long run()
+			{
+				long result = 0;
+
+				for (int i = 0; i < QUERIES_PER_OPERATION; i++)
+				{
+					result += tileLayer.getCollisionCells(queryX[i], queryY[i], TILE_SIZE, TILE_SIZE, this.mCollisionCells);
+				}
+
+				return result;
+			}
+		});
+
+		benchmarks.add(new Benchmark("collision.linearScan", size)
+		{
+			protected long run()
+			{
+				long result = 0;
+
+				for (int i = 0; i < QUERIES_PER_OPERATION; i++)
+				{
+					Tile collisionTile = LegacyEngine.getCollisionTile(legacyTiles, queryX[i], queryY[i], TILE_SIZE, TILE_SIZE);
+
+					if (collisionTile != null)
+					{
+						result += collisionTile.getType();
+					}
+				}
+
+				return result;
+			}
+		});
+
+		benchmarks.add(new Benchmark("culling.screen", size)
+		{
+			private int mQuery = 0;
+
+			protected long run()
+			{
+				this.mQuery = ((this.mQuery + 1) % QUERIES_PER_OPERATION);
+
+				return countVisibleTiles(tileLayer, (queryX[this.mQuery] - (SCREEN_WIDTH / 2)),
+						(queryY[this.mQuery] - (SCREEN_HEIGHT / 2)), SCREEN_WIDTH, SCREEN_HEIGHT);
+			}
+		});
+	}
+
+	/**
+	 * Counts the visible tiles on screen, visiting the cells as
+	 * GameView.drawGameTiles does.
+	 * @param TileMap tileMap
+	 * @param int cameraX
+	 * @param int cameraY
+	 * @param int cameraWidth
+	 * @param int cameraHeight
+	 * @return int
+	 */
+	private static int countVisibleTiles(TileMap tileMap, int cameraX, int cameraY, int cameraWidth, int cameraHeight)
+	{
+		int firstColumn = tileMap.getColumnAt(cameraX);
+		int lastColumn = tileMap.getColumnAt(cameraX + cameraWidth - 1);
+		int firstRow = tileMap.getRowAt(cameraY);
+		int lastRow = tileMap.getRowAt(cameraY + cameraHeight - 1);
+
+		int visibleTiles = 0;
+
+		for (int row = firstRow; row <= lastRow; row++)
+		{
+			int cell = tileMap.getCell(firstColumn, row);
+
+			for (int column = firstColumn; column <= lastColumn; column++, cell++)
+			{
+				if ((tileMap.getFlags(cell) & TileMap.FLAG_VISIBLE) != 0)
+				{
+					visibleTiles += tileMap.getTileId(cell);
+				}
+			}
+		}
+
+		return visibleTiles;
+	}
+
+	/**
+	 * Creates templates matching the game tiles bundled with the game.
+	 * @return TileTemplateRegistry
+	 */
+	static TileTemplateRegistry createTileTemplates()
+	{
+		int[] tileIds = { 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+		String[] names = new String[tileIds.length];
+		int[] types = new int[tileIds.length];
+		int[] drawables = new int[tileIds.length];
+		boolean[] visible = new boolean[tileIds.length];
+
+		for (int i = 0; i < tileIds.length; i++)
+		{
+			names[i] = ("Tile " + tileIds[i]);
+			types[i] = TileMap.TYPE_OBSTACLE;
+			drawables[i] = (0x7f020000 + tileIds[i]);
+			visible[i] = true;
+		}
+
+		types[7] = TileMap.TYPE_DANGEROUS;
+		types[8] = TileMap.TYPE_EXIT;
+
+		return new TileTemplateRegistry(tileIds, names, types, drawables, visible);
+	}
+
+	/**
+	 * Creates the map of boxed lists the game tile templates were held in
+	 * before TileTemplateRegistry, for comparison.
+	 * @param TileTemplateRegistry tileTemplates
+	 * @return HashMap
+	 */
+	private static HashMap<Integer, ArrayList<Integer>> createTileTemplateMap(TileTemplateRegistry tileTemplates)
+	{
+		HashMap<Integer, ArrayList<Integer>> tiles = new HashMap<Integer, ArrayList<Integer>>();
+
+		for (int tileId = 0; tileId <= tileTemplates.getMaxTileId(); tileId++)
+		{
+			if (!tileTemplates.isDefined(tileId))
+			{
+				continue;
+			}
+
+			ArrayList<Integer> arrayList = new ArrayList<Integer>();
+
+			arrayList.add(tileId);
+			arrayList.add(0);
+			arrayList.add(tileTemplates.getType(tileId));
+			arrayList.add(tileTemplates.getDrawable(tileId));
+			arrayList.add(tileTemplates.isVisible(tileId) ? 1 : 0);
+
+			tiles.put(tileId, arrayList);
+		}
+
+		return tiles;
+	}
+
+	/**
+	 * Generates a level in the text format: a border of walls around
+	 * randomly placed tiles, with most cells empty.
+	 * @param int columns
+	 * @param int rows
+	 * @return String
+	 */
+	static String createTileData(int columns, int rows)
+	{
+		Random random = new Random(columns * rows);
+		StringBuilder tileData = new StringBuilder(columns * rows * 3);
+
+		for (int row = 0; row < rows; row++)
+		{
+			for (int column = 0; column < columns; column++)
+			{
+				int tileId = 0;
+
+				if ((row == 0) || (column == 0) || (row == (rows - 1)) || (column == (columns - 1)))
+				{
+					tileId = 1;
+				}
+				else if (random.nextInt(100) < 15)
+				{
+					tileId = (1 + random.nextInt(9));
+				}
+
+				if (column > 0)
+				{
+					tileData.append(',');
+				}
+
+				tileData.append((char) ('0' + (tileId / 10))).append((char) ('0' + (tileId % 10)));
+			}
+
+			tileData.append(LevelFormat.TILE_DATA_LINE_BREAK);
+		}
+
+		return tileData.toString();
+	}
+
+	/**
+	 * Creates the tile layer of a level, as GameLevelLoader does.
+	 * @param LevelData levelData
+	 * @param TileTemplateRegistry tileTemplates
+	 * @return TileLayer
+	 */
+	static TileLayer createTileLayer(LevelData levelData, TileTemplateRegistry tileTemplates)
+	{
+		TileLayer tileLayer = new TileLayer(levelData.getColumns(), levelData.getRows(), TILE_SIZE, TILE_SIZE);
+		int[] tileIds = levelData.getTileIds();
+
+		for (int cell = 0; cell < tileIds.length; cell++)
+		{
+			int tileId = tileIds[cell];
+
+			if (tileTemplates.getDrawable(tileId) > 0)
+			{
+				tileLayer.setTile(tileLayer.getCellColumn(cell), tileLayer.getCellRow(cell), tileId,
+						tileTemplates.getType(tileId), tileTemplates.getFlags(tileId));
+			}
+		}
+
+		return tileLayer;
+	}
+}
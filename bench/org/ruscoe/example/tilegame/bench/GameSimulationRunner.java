@@ -0,0 +1,195 @@
+package org.ruscoe.example.tilegame.bench;
+
+import java.util.Random;
+
+import org.ruscoe.example.tilegame.GameSimulation;
+import org.ruscoe.example.tilegame.TileLayer;
+import org.ruscoe.example.tilegame.TileMap;
+
+/**
+ * The GameSimulationRunner class plays the game headless on a plain JVM,
+ * to profile and regression-test the game rules without a device.
+ *
+ * It generates a level, drives a GameSimulation with scripted random
+ * input for a number of ticks and reports the tick rate along with a
+ * checksum of the player position after every tick. The level and input
+ * depend only on the seed, so a change to the game rules that alters
+ * gameplay changes the checksum.
+ *
+ * Usage: GameSimulationRunner [ticks] [level size] [seed]
+ * See run.sh for how to build and run the simulation.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class GameSimulationRunner
+{
+	private static final long DEFAULT_TICKS = 10000000;
+	private static final int DEFAULT_LEVEL_SIZE = 256;
+	private static final long DEFAULT_SEED = 1;
+
+	/**
+	 * The size of tiles and of the player unit, as drawn on medium density screens.
+	 */
+	private static final int TILE_SIZE = 30;
+	private static final int PLAYER_SPEED = 3;
+
+	/**
+	 * The number of input changes scripted before the script repeats.
+	 */
+	private static final int INPUT_SCRIPT_LENGTH = 4096;
+	private static final int MAX_INPUT_TICKS = 120;
+
+	private GameSimulationRunner()
+	{
+	}
+
+	public static void main(String[] args)
+	{
+		long ticks = (args.length > 0) ? Long.parseLong(args[0]) : DEFAULT_TICKS;
+		int levelSize = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_LEVEL_SIZE;
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : DEFAULT_SEED;
+
+		TileLayer tileLayer = createLevel(levelSize, seed);
+
+		// Let the JVM compile the simulation before measuring.
+		run(tileLayer, Math.min(ticks, 1000000), seed, null);
+
+		long[] result = new long[4];
+		long startTime = System.nanoTime();
+
+		run(tileLayer, ticks, seed, result);
+
+		long elapsedNanos = Math.max(1, (System.nanoTime() - startTime));
+
+		System.out.println("Level: " + levelSize + "x" + levelSize + ", seed: " + seed);
+		System.out.println("Ticks: " + ticks + " in " + (elapsedNanos / 1000000) + "ms ("
+				+ ((ticks * 1000000000L) / elapsedNanos) + " ticks/s)");
+		System.out.println("Player position: " + result[0] + ", " + result[1]);
+		System.out.println("Blocked moves: " + result[2]);
+		System.out.println("Checksum: " + Long.toHexString(result[3]));
+	}
+
+	/**
+	 * Generates a square level enclosed by obstacles, with randomly
+	 * placed obstacle, dangerous and exit tiles inside.
+	 * @param int levelSize - The number of columns and rows.
+	 * @param long seed
+	 * @return TileLayer
+	 */
+	private static TileLayer createLevel(int levelSize, long seed)
+	{
+		Random random = new Random(seed);
+		TileLayer tileLayer = new TileLayer(levelSize, levelSize, TILE_SIZE, TILE_SIZE);
+
+		for (int row = 0; row < levelSize; row++)
+		{
+			for (int column = 0; column < levelSize; column++)
+			{
+				int type = TileMap.TYPE_EMPTY;
+
+				if ((row == 0) || (column == 0) || (row == (levelSize - 1)) || (column == (levelSize - 1)))
+				{
+					type = TileMap.TYPE_OBSTACLE;
+				}
+				else if ((row > 1) || (column > 1))
+				{
+					int roll = random.nextInt(100);
+
+					if (roll < 8)
+					{
+						type = TileMap.TYPE_OBSTACLE;
+					}
+					else if (roll < 10)
+					{
+						type = TileMap.TYPE_DANGEROUS;
+					}
+					else if (roll < 11)
+					{
+						type = TileMap.TYPE_EXIT;
+					}
+				}
+
+				if (type != TileMap.TYPE_EMPTY)
+				{
+					tileLayer.setTile(column, row, (type + 1), type, TileMap.getTileFlags(type, true));
+				}
+			}
+		}
+
+		return tileLayer;
+	}
+
+	/**
+	 * Runs a simulation from the top left of a level.
+	 * @param TileMap tileMap
+	 * @param long ticks - The number of ticks to simulate.
+	 * @param long seed - The seed of the scripted input.
+	 * @param long[] result - Receives the final player position, the number
+	 * 		of blocked moves and the checksum; may be null.
+	 */
+	private static void run(TileMap tileMap, long ticks, long seed, long[] result)
+	{
+		Random random = new Random(seed);
+
+		// Script the input in advance, so only the simulation is measured.
+		int[] inputTicks = new int[INPUT_SCRIPT_LENGTH];
+		boolean[] inputMoving = new boolean[INPUT_SCRIPT_LENGTH];
+		int[] inputVerticalDirections = new int[INPUT_SCRIPT_LENGTH];
+		int[] inputHorizontalDirections = new int[INPUT_SCRIPT_LENGTH];
+
+		for (int i = 0; i < INPUT_SCRIPT_LENGTH; i++)
+		{
+			inputTicks[i] = (1 + random.nextInt(MAX_INPUT_TICKS));
+			inputMoving[i] = (random.nextInt(4) != 0);
+
+			int verticalDirection = random.nextInt(3);
+			inputVerticalDirections[i] = (verticalDirection == 0) ? GameSimulation.DIRECTION_NONE
+					: ((verticalDirection == 1) ? GameSimulation.DIRECTION_UP : GameSimulation.DIRECTION_DOWN);
+
+			int horizontalDirection = random.nextInt(3);
+			inputHorizontalDirections[i] = (horizontalDirection == 0) ? GameSimulation.DIRECTION_NONE
+					: ((horizontalDirection == 1) ? GameSimulation.DIRECTION_LEFT : GameSimulation.DIRECTION_RIGHT);
+		}
+
+		GameSimulation simulation = new GameSimulation(TILE_SIZE, TILE_SIZE, PLAYER_SPEED);
+		simulation.setTileMap(tileMap);
+		simulation.setPlayerPosition(TILE_SIZE, TILE_SIZE);
+
+		int input = -1;
+		int inputTicksLeft = 0;
+		long blockedMoves = 0;
+		long checksum = 0;
+
+		for (long tick = 0; tick < ticks; tick++)
+		{
+			if (inputTicksLeft == 0)
+			{
+				input = ((input + 1) % INPUT_SCRIPT_LENGTH);
+				inputTicksLeft = inputTicks[input];
+
+				simulation.setInput(inputMoving[input], inputVerticalDirections[input],
+						inputHorizontalDirections[input]);
+			}
+
+			inputTicksLeft--;
+
+			simulation.tick();
+
+			if (simulation.getCollisionType() != GameSimulation.NO_COLLISION)
+			{
+				blockedMoves++;
+			}
+
+			checksum = ((checksum * 31) + ((simulation.getPlayerX() * 65599L) ^ simulation.getPlayerY()));
+		}
+
+		if (result != null)
+		{
+			result[0] = simulation.getPlayerX();
+			result[1] = simulation.getPlayerY();
+			result[2] = blockedMoves;
+			result[3] = checksum;
+		}
+	}
+}
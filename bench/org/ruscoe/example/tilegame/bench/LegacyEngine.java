@@ -0,0 +1,155 @@
+package org.ruscoe.example.tilegame.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.ruscoe.example.tilegame.GameCollision;
+import org.ruscoe.example.tilegame.TileMap;
+import org.ruscoe.example.tilegame.data.LevelFormat;
+
+/**
+ * The LegacyEngine class reproduces the level parsing and collision
+ * detection the game used before tiles were held in a tile grid, so the
+ * benchmarks can compare the engine against them.
+ *
+ * Each game tile was an object of its own, held in a list in the order
+ * the level defined it. GameTile used Android classes, so tiles are
+ * reproduced here by the Tile class, which holds the same fields.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public final class LegacyEngine
+{
+	/**
+	 * The fields of a boxed game tile template, as defined in GameTileData.
+	 */
+	private static final int FIELD_ID_DRAWABLE = 3;
+	private static final int FIELD_ID_TYPE = 2;
+	private static final int FIELD_ID_VISIBLE = 4;
+
+	private LegacyEngine()
+	{
+	}
+
+	/**
+	 * A game tile, as held by the game before the tile grid.
+	 */
+	public static final class Tile
+	{
+		private final int mX;
+		private final int mY;
+		private final int mWidth;
+		private final int mHeight;
+		private final int mType;
+		private final boolean mVisible;
+
+		public Tile(int x, int y, int width, int height, int type, boolean visible)
+		{
+			this.mX = x;
+			this.mY = y;
+			this.mWidth = width;
+			this.mHeight = height;
+			this.mType = type;
+			this.mVisible = visible;
+		}
+
+		public int getType()
+		{
+			return this.mType;
+		}
+
+		public boolean isCollisionTile()
+		{
+			return ((this.mType != TileMap.TYPE_EMPTY) && this.mVisible);
+		}
+
+		public boolean getCollision(int x, int y, int width, int height)
+		{
+			return GameCollision.intersects(x, y, width, height, this.mX, this.mY, this.mWidth, this.mHeight);
+		}
+	}
+
+	/**
+	 * Parses level tile data into a list of game tiles, splitting the
+	 * data into lines and tile IDs and looking up each tile's template in
+	 * a map of boxed lists, as GameView.parseGameLevelData did.
+	 * @param String levelTileData - The level, in the text format.
+	 * @param HashMap<Integer, ArrayList<Integer>> tileTemplates - The boxed game tile templates, by tile ID.
+	 * @param int tileWidth
+	 * @param int tileHeight
+	 * @return List<Tile>
+	 */
+	public static List<Tile> parseTileData(String levelTileData, HashMap<Integer, ArrayList<Integer>> tileTemplates,
+			int tileWidth, int tileHeight)
+	{
+		List<Tile> gameTiles = new ArrayList<Tile>();
+
+		String[] tileLines = levelTileData.split(LevelFormat.TILE_DATA_LINE_BREAK);
+
+		int tileX = 0;
+		int tileY = 0;
+
+		for (String tileLine : tileLines)
+		{
+			tileX = 0;
+
+			String[] tiles = tileLine.split(",");
+
+			for (String tile : tiles)
+			{
+				ArrayList<Integer> tileData = tileTemplates.get(Integer.parseInt(tile));
+
+				if ((tileData != null)
+						&& (tileData.size() > 0)
+						&& (tileData.get(FIELD_ID_DRAWABLE) > 0))
+				{
+					gameTiles.add(new Tile(tileX, tileY, tileWidth, tileHeight, tileData.get(FIELD_ID_TYPE),
+							(tileData.get(FIELD_ID_VISIBLE) != 0)));
+				}
+
+				tileX += tileWidth;
+			}
+
+			tileY += tileHeight;
+		}
+
+		return gameTiles;
+	}
+
+	/**
+	 * Detects a collision between an area and the game tiles by testing
+	 * every tile in turn, as GameView.getCollisionTile did.
+	 * @param List<Tile> gameTiles
+	 * @param int x - The X (horizontal) position of the area.
+	 * @param int y - The Y (vertical) position of the area.
+	 * @param int width - The width of the area.
+	 * @param int height - The height of the area.
+	 * @return Tile - The first collision game tile, if any.
+	 */
+	public static Tile getCollisionTile(List<Tile> gameTiles, int x, int y, int width, int height)
+	{
+		Tile gameTile = null;
+
+		int gameTilesSize = gameTiles.size();
+		for (int i = 0; i < gameTilesSize; i++)
+		{
+			gameTile = gameTiles.get(i);
+			if ((gameTile != null) && gameTile.isCollisionTile())
+			{
+				// Make sure tiles don't collide with themselves
+				if ((gameTile.mX == x) && (gameTile.mY == y))
+				{
+					continue;
+				}
+
+				if (gameTile.getCollision(x, y, width, height))
+				{
+					return gameTile;
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,47 @@
+#!/bin/sh
+# Builds and runs the engine benchmarks on a plain JVM.
+# Usage: bench/run.sh [filter] [iteration milliseconds]
+#        bench/run.sh check
+#        bench/run.sh simulate [ticks] [level size] [seed]
+#
+# "check" runs AllocationCheck instead, which fails if a collision path
+# run every game tick allocates. "simulate" runs GameSimulationRunner,
+# which plays the game headless and reports the tick rate and a checksum
+# of the gameplay.
+#
+# Only the engine classes that use no Android classes are built, so no
+# Android SDK is needed.
+
+set -e
+
+cd "$(dirname "$0")/.."
+
+SRC=src/org/ruscoe/example/tilegame
+OUT=bin/bench
+
+MAIN=org.ruscoe.example.tilegame.bench.EngineBenchmarks
+
+if [ "$1" = "check" ]; then
+	MAIN=org.ruscoe.example.tilegame.bench.AllocationCheck
+	shift
+elif [ "$1" = "simulate" ]; then
+	MAIN=org.ruscoe.example.tilegame.bench.GameSimulationRunner
+	shift
+fi
+
+rm -rf "$OUT"
+mkdir -p "$OUT"
+
+javac -d "$OUT" \
+	$SRC/GameCollision.java \
+	$SRC/GameSimulation.java \
+	$SRC/TileMap.java \
+	$SRC/TileLayer.java \
+	$SRC/TileTemplateRegistry.java \
+	$SRC/data/LevelData.java \
+	$SRC/data/LevelFormat.java \
+	$SRC/data/LevelReader.java \
+	$SRC/data/TileRunLength.java \
+	bench/org/ruscoe/example/tilegame/bench/*.java
+
+java -Xmx1g -cp "$OUT" "$MAIN" "$@"
@@ -0,0 +1,199 @@
+package org.ruscoe.example.tilegame;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * The BitmapCache class decodes drawable resources into bitmaps and keeps
+ * them for reuse, within a memory budget.
+ *
+ * Bitmaps are reference counted. A bitmap is acquired before use and
+ * released once no longer needed; while acquired it is never evicted.
+ * Released bitmaps stay cached until the total size of the cache exceeds
+ * its budget, at which point the least recently used released bitmaps are
+ * evicted and recycled. Acquired bitmaps may take the cache over budget.
+ *
+ * All methods are synchronized, so a cache may be shared between threads.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class BitmapCache
+{
+	private final Resources mResources;
+	private final BitmapFactory.Options mDecodeOptions;
+	private final int mMaxBytes;
+
+	/**
+	 * Cached bitmaps by resource ID, in least recently used order.
+	 */
+	private final LinkedHashMap<Integer, Entry> mEntries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+
+	private int mSizeBytes = 0;
+
+	private int mHitCount = 0;
+	private int mMissCount = 0;
+	private int mEvictionCount = 0;
+
+	private static class Entry
+	{
+		Bitmap bitmap;
+		int bytes;
+		int references;
+	}
+
+	/**
+	 * Creates an empty cache.
+	 * @param Resources resources - The resources to decode bitmaps from.
+	 * @param int maxBytes - The memory budget for released bitmaps, in bytes.
+	 * @param Bitmap.Config config - The preferred pixel format of decoded bitmaps.
+	 * @param int sampleSize - The factor to scale down decoded bitmaps by, 1 for full size.
+	 */
+	public BitmapCache(Resources resources, int maxBytes, Bitmap.Config config, int sampleSize)
+	{
+		this.mResources = resources;
+		this.mMaxBytes = maxBytes;
+
+		this.mDecodeOptions = new BitmapFactory.Options();
+		this.mDecodeOptions.inPreferredConfig = config;
+		this.mDecodeOptions.inSampleSize = Math.max(1, sampleSize);
+	}
+
+	/**
+	 * Gets the bitmap for a drawable resource, decoding it if not cached,
+	 * and holds a reference to it until released.
+	 * @param int resourceId - The drawable resource ID.
+	 * @return Bitmap - The bitmap, or null if the resource can't be decoded.
+	 */
+	public synchronized Bitmap acquire(int resourceId)
+	{
+		Entry entry = this.mEntries.get(resourceId);
+
+		if (entry != null)
+		{
+			this.mHitCount++;
+		}
+		else
+		{
+			this.mMissCount++;
+
+			Bitmap bitmap = BitmapFactory.decodeResource(this.mResources, resourceId, this.mDecodeOptions);
+
+			if (bitmap == null)
+			{
+				return null;
+			}
+
+			entry = new Entry();
+			entry.bitmap = bitmap;
+			entry.bytes = (bitmap.getRowBytes() * bitmap.getHeight());
+
+			this.mEntries.put(resourceId, entry);
+			this.mSizeBytes += entry.bytes;
+		}
+
+		entry.references++;
+
+		return entry.bitmap;
+	}
+
+	/**
+	 * Releases a reference to a bitmap acquired from the cache. Once all
+	 * references are released, the bitmap may be evicted.
+	 * @param int resourceId - The drawable resource ID.
+	 */
+	public synchronized void release(int resourceId)
+	{
+		Entry entry = this.mEntries.get(resourceId);
+
+		if ((entry == null) || (entry.references == 0))
+		{
+			return;
+		}
+
+		entry.references--;
+
+		if (entry.references == 0)
+		{
+			trimToBudget();
+		}
+	}
+
+	/**
+	 * Evicts all released bitmaps.
+	 */
+	public synchronized void evictAll()
+	{
+		trimToSize(0);
+	}
+
+	/**
+	 * Evicts least recently used released bitmaps until the cache
+	 * is within its budget.
+	 */
+	private void trimToBudget()
+	{
+		trimToSize(this.mMaxBytes);
+	}
+
+	private void trimToSize(int maxBytes)
+	{
+		Iterator<Map.Entry<Integer, Entry>> iterator = this.mEntries.entrySet().iterator();
+
+		while ((this.mSizeBytes > maxBytes) && iterator.hasNext())
+		{
+			Entry entry = iterator.next().getValue();
+
+			if (entry.references > 0)
+			{
+				continue;
+			}
+
+			iterator.remove();
+
+			this.mSizeBytes -= entry.bytes;
+			this.mEvictionCount++;
+
+			entry.bitmap.recycle();
+		}
+	}
+
+	/**
+	 * Gets the total size of all cached bitmaps, in bytes.
+	 * @return int
+	 */
+	public synchronized int getSizeBytes()
+	{
+		return this.mSizeBytes;
+	}
+
+	public synchronized int getHitCount()
+	{
+		return this.mHitCount;
+	}
+
+	public synchronized int getMissCount()
+	{
+		return this.mMissCount;
+	}
+
+	public synchronized int getEvictionCount()
+	{
+		return this.mEvictionCount;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "BitmapCache[bitmaps=" + this.mEntries.size()
+				+ ", size=" + this.mSizeBytes + "/" + this.mMaxBytes
+				+ ", hits=" + this.mHitCount
+				+ ", misses=" + this.mMissCount
+				+ ", evictions=" + this.mEvictionCount + "]";
+	}
+}
@@ -0,0 +1,448 @@
+package org.ruscoe.example.tilegame;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * ChunkedTileMap stores the game tiles of levels far larger than the
+ * screen, keeping only the area around the player in memory.
+ *
+ * The level is divided into square chunks of cells, identified by chunk
+ * column and row. Chunks covering the active area of the level, plus a
+ * margin of one chunk, are loaded in the background from a ChunkSource.
+ * Once more chunks are resident than the map allows, the chunks furthest
+ * from the active area are evicted.
+ *
+ * Cells of chunks not yet loaded read as empty; isAreaAvailable tells
+ * whether all cells covering an area have been loaded.
+ *
+ * The active area is set, and the cells read, by the game thread only.
+ * Chunks are loaded on the thread of the given executor.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class ChunkedTileMap extends TileMap
+{
+	public static final int DEFAULT_CHUNK_SIZE = 32;
+	public static final int DEFAULT_MAX_RESIDENT_CHUNKS = 256;
+
+	private static final int CHUNK_EMPTY = 0;
+	private static final int CHUNK_LOADING = 1;
+	private static final int CHUNK_RESIDENT = 2;
+
+	/**
+	 * Loads the tiles of a chunk.
+	 */
+	public interface ChunkSource
+	{
+		/**
+		 * Loads the tiles of a region of the level. Called on the loader thread.
+		 * @param int column - The first column of the region.
+		 * @param int row - The first row of the region.
+		 * @param int columns - The number of columns in the region.
+		 * @param int rows - The number of rows in the region.
+		 * @return TileLayer - The tiles of the region, positioned relative to its
+		 * 		first column and row, or null if the region can't be loaded.
+		 */
+		TileLayer loadChunk(int column, int row, int columns, int rows);
+	}
+
+	private final int mChunkSize;
+	private final int mChunkColumns;
+	private final int mChunkRows;
+	private final int mMaxResidentChunks;
+
+	private final ChunkSource mChunkSource;
+	private final Executor mExecutor;
+
+	/**
+	 * The tiles of each resident chunk, by chunk index.
+	 */
+	private final AtomicReferenceArray<TileLayer> mChunks;
+
+	/**
+	 * The state of each chunk, by chunk index: one of the CHUNK_ values.
+	 */
+	private final AtomicIntegerArray mChunkStates;
+
+	/**
+	 * The number of times each chunk was loaded or evicted, by chunk index.
+	 */
+	private final AtomicIntegerArray mChunkVersions;
+
+	private final AtomicInteger mResidentChunkCount = new AtomicInteger();
+
+	private volatile boolean mReleased = false;
+
+	// The following fields are only used by the game thread.
+
+	private int mFirstActiveChunkColumn = 0;
+	private int mLastActiveChunkColumn = -1;
+	private int mFirstActiveChunkRow = 0;
+	private int mLastActiveChunkRow = -1;
+
+	private int mEvictionCount = 0;
+
+	// The following fields are only written by the loader thread.
+
+	private volatile int mLoadCount = 0;
+	private volatile long mTotalLoadNanos = 0;
+	private volatile long mMaxLoadNanos = 0;
+
+	/**
+	 * Creates a map with no resident chunks.
+	 * @param int columns - The number of tile columns in the level.
+	 * @param int rows - The number of tile rows in the level.
+	 * @param int tileWidth - The width of every tile in the level.
+	 * @param int tileHeight - The height of every tile in the level.
+	 * @param int chunkSize - The number of columns and rows in each chunk.
+	 * @param int maxResidentChunks - The number of chunks to keep in memory.
+	 * 		Chunks covering the active area are kept even beyond this number.
+	 * @param ChunkSource chunkSource - Loads the tiles of each chunk.
+	 * @param Executor executor - Runs chunk loads in the background.
+	 */
+	public ChunkedTileMap(int columns, int rows, int tileWidth, int tileHeight, int chunkSize,
+			int maxResidentChunks, ChunkSource chunkSource, Executor executor)
+	{
+		super(columns, rows, tileWidth, tileHeight);
+
+		if (chunkSize <= 0)
+		{
+			throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+		}
+
+		this.mChunkSize = chunkSize;
+		this.mChunkColumns = (((columns + chunkSize) - 1) / chunkSize);
+		this.mChunkRows = (((rows + chunkSize) - 1) / chunkSize);
+		this.mMaxResidentChunks = maxResidentChunks;
+
+		this.mChunkSource = chunkSource;
+		this.mExecutor = executor;
+
+		this.mChunks = new AtomicReferenceArray<TileLayer>(this.mChunkColumns * this.mChunkRows);
+		this.mChunkStates = new AtomicIntegerArray(this.mChunkColumns * this.mChunkRows);
+		this.mChunkVersions = new AtomicIntegerArray(this.mChunkColumns * this.mChunkRows);
+	}
+
+	public int getChunkSize()
+	{
+		return this.mChunkSize;
+	}
+
+	@Override
+	public int getTileId(int cell)
+	{
+		TileLayer chunk = getChunkForCell(cell);
+
+		return (chunk != null) ? chunk.getTileId(getChunkCell(chunk, cell)) : 0;
+	}
+
+	@Override
+	public int getType(int cell)
+	{
+		TileLayer chunk = getChunkForCell(cell);
+
+		return (chunk != null) ? chunk.getType(getChunkCell(chunk, cell)) : TYPE_EMPTY;
+	}
+
+	@Override
+	public int getFlags(int cell)
+	{
+		TileLayer chunk = getChunkForCell(cell);
+
+		return (chunk != null) ? chunk.getFlags(getChunkCell(chunk, cell)) : 0;
+	}
+
+	private TileLayer getChunkForCell(int cell)
+	{
+		int column = (cell % this.mColumns);
+		int row = (cell / this.mColumns);
+
+		return this.mChunks.get(((row / this.mChunkSize) * this.mChunkColumns) + (column / this.mChunkSize));
+	}
+
+	private int getChunkCell(TileLayer chunk, int cell)
+	{
+		return chunk.getCell(((cell % this.mColumns) % this.mChunkSize), ((cell / this.mColumns) % this.mChunkSize));
+	}
+
+	/**
+	 * Loads the chunks covering the active area and a margin of one chunk
+	 * around it, and evicts distant chunks once over the resident limit.
+	 */
+	@Override
+	public void setActiveArea(int x, int y, int width, int height)
+	{
+		if (this.mReleased || (this.mChunkColumns == 0) || (this.mChunkRows == 0))
+		{
+			return;
+		}
+
+		this.mFirstActiveChunkColumn = clamp((getChunkColumnAt(x) - 1), this.mChunkColumns);
+		this.mLastActiveChunkColumn = clamp((getChunkColumnAt(x + width - 1) + 1), this.mChunkColumns);
+		this.mFirstActiveChunkRow = clamp((getChunkRowAt(y) - 1), this.mChunkRows);
+		this.mLastActiveChunkRow = clamp((getChunkRowAt(y + height - 1) + 1), this.mChunkRows);
+
+		for (int chunkRow = this.mFirstActiveChunkRow; chunkRow <= this.mLastActiveChunkRow; chunkRow++)
+		{
+			for (int chunkColumn = this.mFirstActiveChunkColumn; chunkColumn <= this.mLastActiveChunkColumn; chunkColumn++)
+			{
+				int chunk = ((chunkRow * this.mChunkColumns) + chunkColumn);
+
+				if (this.mChunkStates.compareAndSet(chunk, CHUNK_EMPTY, CHUNK_LOADING))
+				{
+					requestChunk(chunk);
+				}
+			}
+		}
+
+		evictChunks();
+	}
+
+	@Override
+	public boolean isAreaAvailable(int x, int y, int width, int height)
+	{
+		if ((this.mChunkColumns == 0) || (this.mChunkRows == 0))
+		{
+			return true;
+		}
+
+		int firstChunkColumn = clamp(getChunkColumnAt(x), this.mChunkColumns);
+		int lastChunkColumn = clamp(getChunkColumnAt(x + width - 1), this.mChunkColumns);
+		int firstChunkRow = clamp(getChunkRowAt(y), this.mChunkRows);
+		int lastChunkRow = clamp(getChunkRowAt(y + height - 1), this.mChunkRows);
+
+		for (int chunkRow = firstChunkRow; chunkRow <= lastChunkRow; chunkRow++)
+		{
+			for (int chunkColumn = firstChunkColumn; chunkColumn <= lastChunkColumn; chunkColumn++)
+			{
+				if (this.mChunks.get((chunkRow * this.mChunkColumns) + chunkColumn) == null)
+				{
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * The tiles of a chunk only change as it is loaded or evicted.
+	 */
+	@Override
+	public int getVersion(int column, int row, int columns, int rows)
+	{
+		if ((columns <= 0) || (rows <= 0) || (this.mChunkColumns == 0) || (this.mChunkRows == 0))
+		{
+			return 0;
+		}
+
+		int firstChunkColumn = (clamp(column, this.mColumns) / this.mChunkSize);
+		int lastChunkColumn = (clamp((column + columns - 1), this.mColumns) / this.mChunkSize);
+		int firstChunkRow = (clamp(row, this.mRows) / this.mChunkSize);
+		int lastChunkRow = (clamp((row + rows - 1), this.mRows) / this.mChunkSize);
+
+		int version = 0;
+
+		for (int chunkRow = firstChunkRow; chunkRow <= lastChunkRow; chunkRow++)
+		{
+			for (int chunkColumn = firstChunkColumn; chunkColumn <= lastChunkColumn; chunkColumn++)
+			{
+				version += this.mChunkVersions.get((chunkRow * this.mChunkColumns) + chunkColumn);
+			}
+		}
+
+		return version;
+	}
+
+	/**
+	 * Discards all chunks. Chunks still loading are discarded once loaded.
+	 */
+	@Override
+	public void release()
+	{
+		this.mReleased = true;
+
+		for (int chunk = 0; chunk < this.mChunks.length(); chunk++)
+		{
+			if (this.mChunks.getAndSet(chunk, null) != null)
+			{
+				this.mChunkVersions.incrementAndGet(chunk);
+			}
+		}
+	}
+
+	private int getChunkColumnAt(int x)
+	{
+		return floorDiv(floorDiv(x, this.mTileWidth), this.mChunkSize);
+	}
+
+	private int getChunkRowAt(int y)
+	{
+		return floorDiv(floorDiv(y, this.mTileHeight), this.mChunkSize);
+	}
+
+	/**
+	 * Starts loading a chunk on the loader thread.
+	 * @param int chunk - The chunk index.
+	 */
+	private void requestChunk(final int chunk)
+	{
+		final int column = ((chunk % this.mChunkColumns) * this.mChunkSize);
+		final int row = ((chunk / this.mChunkColumns) * this.mChunkSize);
+		final int columns = Math.min(this.mChunkSize, (this.mColumns - column));
+		final int rows = Math.min(this.mChunkSize, (this.mRows - row));
+
+		try
+		{
+			this.mExecutor.execute(new Runnable()
+			{
+				public void run()
+				{
+					if (mReleased)
+					{
+						return;
+					}
+
+					long startTime = System.nanoTime();
+
+					TileLayer tiles = mChunkSource.loadChunk(column, row, columns, rows);
+
+					long loadNanos = (System.nanoTime() - startTime);
+
+					mLoadCount++;
+					mTotalLoadNanos += loadNanos;
+					mMaxLoadNanos = Math.max(mMaxLoadNanos, loadNanos);
+
+					if ((tiles == null) || mReleased)
+					{
+						mChunkStates.set(chunk, CHUNK_EMPTY);
+						return;
+					}
+
+					mChunks.set(chunk, tiles);
+					mChunkVersions.incrementAndGet(chunk);
+					mChunkStates.set(chunk, CHUNK_RESIDENT);
+					mResidentChunkCount.incrementAndGet();
+				}
+			});
+		} catch (RejectedExecutionException e)
+		{
+			// The loader has stopped; the chunk is requested again later.
+			this.mChunkStates.set(chunk, CHUNK_EMPTY);
+		}
+	}
+
+	/**
+	 * Evicts the resident chunks furthest from the active area until no more
+	 * than the resident limit remain, never evicting chunks covering it.
+	 */
+	private void evictChunks()
+	{
+		while (this.mResidentChunkCount.get() > this.mMaxResidentChunks)
+		{
+			int furthestChunk = -1;
+			int furthestDistance = 0;
+
+			for (int chunk = 0; chunk < this.mChunkStates.length(); chunk++)
+			{
+				if (this.mChunkStates.get(chunk) != CHUNK_RESIDENT)
+				{
+					continue;
+				}
+
+				int distance = getDistanceFromActiveArea(chunk);
+
+				if (distance > furthestDistance)
+				{
+					furthestChunk = chunk;
+					furthestDistance = distance;
+				}
+			}
+
+			if (furthestChunk < 0)
+			{
+				break;
+			}
+
+			this.mChunks.set(furthestChunk, null);
+			this.mChunkVersions.incrementAndGet(furthestChunk);
+			this.mChunkStates.set(furthestChunk, CHUNK_EMPTY);
+
+			this.mResidentChunkCount.decrementAndGet();
+			this.mEvictionCount++;
+		}
+	}
+
+	/**
+	 * Gets the distance of a chunk from the active area, in chunks.
+	 * @param int chunk - The chunk index.
+	 * @return int - The distance, or 0 if the chunk covers the active area.
+	 */
+	private int getDistanceFromActiveArea(int chunk)
+	{
+		int chunkColumn = (chunk % this.mChunkColumns);
+		int chunkRow = (chunk / this.mChunkColumns);
+
+		int distanceX = Math.max(0, Math.max((this.mFirstActiveChunkColumn - chunkColumn),
+				(chunkColumn - this.mLastActiveChunkColumn)));
+		int distanceY = Math.max(0, Math.max((this.mFirstActiveChunkRow - chunkRow),
+				(chunkRow - this.mLastActiveChunkRow)));
+
+		return Math.max(distanceX, distanceY);
+	}
+
+	/**
+	 * Gets the number of chunks in memory.
+	 * @return int
+	 */
+	public int getResidentChunkCount()
+	{
+		return this.mResidentChunkCount.get();
+	}
+
+	public int getEvictionCount()
+	{
+		return this.mEvictionCount;
+	}
+
+	public int getLoadCount()
+	{
+		return this.mLoadCount;
+	}
+
+	/**
+	 * Gets the average time taken to load a chunk, in nanoseconds.
+	 * @return long
+	 */
+	public long getAverageLoadNanos()
+	{
+		int loadCount = this.mLoadCount;
+
+		return (loadCount > 0) ? (this.mTotalLoadNanos / loadCount) : 0;
+	}
+
+	/**
+	 * Gets the longest time taken to load a chunk, in nanoseconds.
+	 * @return long
+	 */
+	public long getMaxLoadNanos()
+	{
+		return this.mMaxLoadNanos;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ChunkedTileMap[chunks=" + this.mChunkColumns + "x" + this.mChunkRows
+				+ ", resident=" + this.mResidentChunkCount.get() + "/" + this.mMaxResidentChunks
+				+ ", loads=" + this.mLoadCount
+				+ ", average load=" + (getAverageLoadNanos() / 1000) + "us"
+				+ ", max load=" + (this.mMaxLoadNanos / 1000) + "us"
+				+ ", evictions=" + this.mEvictionCount + "]";
+	}
+}
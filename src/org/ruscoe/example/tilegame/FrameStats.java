@@ -0,0 +1,468 @@
+package org.ruscoe.example.tilegame;
+
+import java.io.PrintWriter;
+
+/**
+ * The FrameStats class records how long each phase of the game loop
+ * takes, to diagnose dropped and uneven frames without a profiler.
+ *
+ * The render thread adds the time of each phase as the frame runs, then
+ * ends the frame, recording the phase times into one histogram per
+ * phase. The game thread records the time taken to update the game
+ * separately, as it runs alongside drawing. Histograms have a fixed
+ * number of buckets, each about 3% wide, so recording allocates nothing
+ * and percentiles are accurate to within a bucket.
+ *
+ * The delay between input events and the game ticks handling them, and
+ * the age of the game state each frame is drawn from, are recorded into
+ * histograms as well, along with how many new game states each frame
+ * found waiting (the render queue depth).
+ *
+ * Ending a frame and reading the histograms are synchronized, so the
+ * stats may be read from any thread while the game runs.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class FrameStats
+{
+	/**
+	 * The phases of a frame.
+	 * PHASE_FRAME is the time between the start of a frame and the start
+	 * of the next, as seen on screen.
+	 * PHASE_UPDATE is the time taken by the game thread to run the game
+	 * ticks and build the render commands for each published game state.
+	 */
+	public static final int PHASE_FRAME = 0;
+	public static final int PHASE_LOCK_CANVAS = 1;
+	public static final int PHASE_UPDATE = 2;
+	public static final int PHASE_DRAW_BACKGROUND = 3;
+	public static final int PHASE_DRAW_TILES = 4;
+	public static final int PHASE_DRAW_PLAYER = 5;
+	public static final int PHASE_DRAW_UI = 6;
+	public static final int PHASE_POST = 7;
+
+	public static final int PHASE_COUNT = 8;
+
+	private static final String[] PHASE_NAMES = {
+		"frame", "lock canvas", "update", "draw background",
+		"draw tiles", "draw player", "draw ui", "post"
+	};
+
+	private static final long NANOS_PER_MICROSECOND = 1000;
+
+	private final Histogram[] mHistograms = new Histogram[PHASE_COUNT];
+	private final Histogram mInputLatency = new Histogram();
+	private final Histogram mStateAge = new Histogram();
+
+	/**
+	 * The number of frames finding no new game state, one new game state,
+	 * and so on, up to the last count which includes any greater number.
+	 */
+	private final long[] mQueueDepthCounts = new long[4];
+
+	/**
+	 * Game states published but never drawn, as a newer one was published
+	 * before the next frame.
+	 */
+	private long mDroppedStateCount = 0;
+
+	/**
+	 * Totals of the sprites drawn, draw calls made and changes of the
+	 * bitmap drawn from, over all drawn frames.
+	 */
+	private long mDrawnFrameCount = 0;
+	private long mSpriteTotal = 0;
+	private long mDrawCallTotal = 0;
+	private long mBitmapSwitchTotal = 0;
+
+	private int mLastDrawCallCount = 0;
+
+	/**
+	 * The phase times of the frame in progress, in nanoseconds.
+	 */
+	private final long[] mPhaseNanos = new long[PHASE_COUNT];
+
+	/**
+	 * Frames taking longer than this are counted as slow.
+	 */
+	private final long mSlowFrameNanos;
+
+	private long mFrameCount = 0;
+	private long mSlowFrameCount = 0;
+
+	/**
+	 * @param long slowFrameNanos - The frame time above which a frame is slow.
+	 */
+	public FrameStats(long slowFrameNanos)
+	{
+		this.mSlowFrameNanos = slowFrameNanos;
+
+		for (int i = 0; i < PHASE_COUNT; i++)
+		{
+			this.mHistograms[i] = new Histogram();
+		}
+	}
+
+	/**
+	 * Adds time spent in a phase of the frame in progress.
+	 * Only called by the render thread.
+	 * @param int phase - One of the PHASE_ values.
+	 * @param long nanos
+	 */
+	public void addPhaseTime(int phase, long nanos)
+	{
+		this.mPhaseNanos[phase] += nanos;
+	}
+
+	/**
+	 * Ends the frame in progress, recording its phase times.
+	 * Only called by the render thread.
+	 * @param long frameNanos - The time since the start of the previous frame.
+	 */
+	public synchronized void endFrame(long frameNanos)
+	{
+		this.mPhaseNanos[PHASE_FRAME] = frameNanos;
+
+		for (int i = 0; i < PHASE_COUNT; i++)
+		{
+			// Updates are recorded as they happen, by recordUpdate.
+			if (i != PHASE_UPDATE)
+			{
+				this.mHistograms[i].record(this.mPhaseNanos[i] / NANOS_PER_MICROSECOND);
+			}
+
+			this.mPhaseNanos[i] = 0;
+		}
+
+		this.mFrameCount++;
+
+		if (frameNanos > this.mSlowFrameNanos)
+		{
+			this.mSlowFrameCount++;
+		}
+	}
+
+	/**
+	 * Records the time taken to update the game for a published game state.
+	 * @param long nanos
+	 */
+	public synchronized void recordUpdate(long nanos)
+	{
+		this.mHistograms[PHASE_UPDATE].record(nanos / NANOS_PER_MICROSECOND);
+	}
+
+	/**
+	 * Records the game state a frame is drawn from.
+	 * @param long newStateCount - The number of game states published since
+	 * 		the previous frame; 0 if the frame draws the same state again.
+	 * @param long stateAgeNanos - The time since the state was published.
+	 */
+	public synchronized void recordState(long newStateCount, long stateAgeNanos)
+	{
+		this.mQueueDepthCounts[(int) Math.min(newStateCount, (this.mQueueDepthCounts.length - 1))]++;
+
+		if (newStateCount > 1)
+		{
+			this.mDroppedStateCount += (newStateCount - 1);
+		}
+
+		this.mStateAge.record(stateAgeNanos / NANOS_PER_MICROSECOND);
+	}
+
+	/**
+	 * Records the drawing work of a frame.
+	 * @param int spriteCount - The number of sprites drawn.
+	 * @param int drawCallCount - The number of draw calls made.
+	 * @param int bitmapSwitchCount - The number of times the bitmap drawn from changed.
+	 */
+	public synchronized void addDrawCounts(int spriteCount, int drawCallCount, int bitmapSwitchCount)
+	{
+		this.mDrawnFrameCount++;
+		this.mSpriteTotal += spriteCount;
+		this.mDrawCallTotal += drawCallCount;
+		this.mBitmapSwitchTotal += bitmapSwitchCount;
+
+		this.mLastDrawCallCount = drawCallCount;
+	}
+
+	/**
+	 * Gets the number of draw calls made by the last frame drawn.
+	 * @return int
+	 */
+	public synchronized int getLastDrawCallCount()
+	{
+		return this.mLastDrawCallCount;
+	}
+
+	/**
+	 * Gets the number of frames drawn with no new game state, because the
+	 * game update fell behind drawing.
+	 * @return long
+	 */
+	public synchronized long getStalledFrameCount()
+	{
+		return this.mQueueDepthCounts[0];
+	}
+
+	/**
+	 * Records the delay between an input event and the game tick handling it.
+	 * @param long nanos
+	 */
+	public synchronized void recordInputLatency(long nanos)
+	{
+		this.mInputLatency.record(nanos / NANOS_PER_MICROSECOND);
+	}
+
+	public synchronized long getFrameCount()
+	{
+		return this.mFrameCount;
+	}
+
+	public synchronized long getSlowFrameCount()
+	{
+		return this.mSlowFrameCount;
+	}
+
+	/**
+	 * Gets a percentile of the time taken by a phase.
+	 * @param int phase - One of the PHASE_ values.
+	 * @param double percentile - From 0 to 100.
+	 * @return long - The time, in microseconds.
+	 */
+	public synchronized long getPercentileMicros(int phase, double percentile)
+	{
+		return this.mHistograms[phase].getPercentile(percentile);
+	}
+
+	/**
+	 * Discards all recorded frames.
+	 */
+	public synchronized void reset()
+	{
+		for (int i = 0; i < PHASE_COUNT; i++)
+		{
+			this.mHistograms[i].reset();
+		}
+
+		this.mInputLatency.reset();
+		this.mStateAge.reset();
+
+		for (int i = 0; i < this.mQueueDepthCounts.length; i++)
+		{
+			this.mQueueDepthCounts[i] = 0;
+		}
+
+		this.mDroppedStateCount = 0;
+
+		this.mDrawnFrameCount = 0;
+		this.mSpriteTotal = 0;
+		this.mDrawCallTotal = 0;
+		this.mBitmapSwitchTotal = 0;
+		this.mLastDrawCallCount = 0;
+
+		this.mFrameCount = 0;
+		this.mSlowFrameCount = 0;
+	}
+
+	/**
+	 * Writes a report of the time taken by each phase.
+	 * @param PrintWriter writer
+	 */
+	public synchronized void writeReport(PrintWriter writer)
+	{
+		writer.println("Frames: " + this.mFrameCount + ", slow frames (over "
+				+ formatMillis(this.mSlowFrameNanos / NANOS_PER_MICROSECOND) + "ms): " + this.mSlowFrameCount);
+		writer.println();
+		writer.println(String.format("%-16s %10s %10s %10s %10s %10s", "phase (ms)", "mean", "p50", "p90", "p99", "max"));
+
+		for (int i = 0; i < PHASE_COUNT; i++)
+		{
+			writeHistogram(writer, PHASE_NAMES[i], this.mHistograms[i]);
+		}
+
+		writeHistogram(writer, "input latency", this.mInputLatency);
+		writeHistogram(writer, "state age", this.mStateAge);
+
+		writer.println();
+		writer.println("Render queue depth (new game states per frame): 0: " + this.mQueueDepthCounts[0]
+				+ ", 1: " + this.mQueueDepthCounts[1] + ", 2: " + this.mQueueDepthCounts[2]
+				+ ", 3+: " + this.mQueueDepthCounts[3]);
+		writer.println("Stalled frames (no new game state): " + this.mQueueDepthCounts[0]
+				+ ", dropped game states: " + this.mDroppedStateCount);
+
+		if (this.mDrawnFrameCount > 0)
+		{
+			writer.println(String.format("Per frame: sprites: %.1f, draw calls: %.1f, bitmap switches: %.1f",
+					((double) this.mSpriteTotal / this.mDrawnFrameCount),
+					((double) this.mDrawCallTotal / this.mDrawnFrameCount),
+					((double) this.mBitmapSwitchTotal / this.mDrawnFrameCount)));
+		}
+
+		writer.println();
+		writer.println("Frame time distribution (ms: frames)");
+
+		this.mHistograms[PHASE_FRAME].writeBuckets(writer);
+	}
+
+	/**
+	 * Writes a line of the report for a histogram.
+	 * @param PrintWriter writer
+	 * @param String name
+	 * @param Histogram histogram
+	 */
+	private static void writeHistogram(PrintWriter writer, String name, Histogram histogram)
+	{
+		writer.println(String.format("%-16s %10s %10s %10s %10s %10s", name,
+				formatMillis(histogram.getMean()), formatMillis(histogram.getPercentile(50)),
+				formatMillis(histogram.getPercentile(90)), formatMillis(histogram.getPercentile(99)),
+				formatMillis(histogram.getMax())));
+	}
+
+	/**
+	 * Formats a time in microseconds as milliseconds.
+	 * @param long micros
+	 * @return String
+	 */
+	public static String formatMillis(long micros)
+	{
+		return String.format("%.2f", (micros / 1000.0));
+	}
+
+	/**
+	 * A histogram of times in microseconds, with buckets growing
+	 * exponentially in size. Times below 64us have a bucket each; above
+	 * that, every doubling of time is split into 32 buckets.
+	 */
+	private static class Histogram
+	{
+		private static final int SUB_BUCKET_BITS = 5;
+		private static final int SUB_BUCKET_COUNT = (1 << SUB_BUCKET_BITS);
+
+		/**
+		 * Times are recorded up to about 30 seconds; longer times are
+		 * counted in the last bucket.
+		 */
+		private static final int MAX_MAGNITUDE = 24;
+		private static final int BUCKET_COUNT = ((MAX_MAGNITUDE - SUB_BUCKET_BITS) + 2) * SUB_BUCKET_COUNT;
+
+		private final long[] mCounts = new long[BUCKET_COUNT];
+		private long mCount = 0;
+		private long mTotal = 0;
+		private long mMax = 0;
+
+		public void record(long value)
+		{
+			int bucket = getBucket(value);
+
+			this.mCounts[bucket]++;
+			this.mCount++;
+			this.mTotal += value;
+
+			if (value > this.mMax)
+			{
+				this.mMax = value;
+			}
+		}
+
+		public void reset()
+		{
+			for (int i = 0; i < BUCKET_COUNT; i++)
+			{
+				this.mCounts[i] = 0;
+			}
+
+			this.mCount = 0;
+			this.mTotal = 0;
+			this.mMax = 0;
+		}
+
+		public long getMean()
+		{
+			return (this.mCount > 0) ? (this.mTotal / this.mCount) : 0;
+		}
+
+		public long getMax()
+		{
+			return this.mMax;
+		}
+
+		/**
+		 * Gets the value at a percentile of recorded values.
+		 * @param double percentile - From 0 to 100.
+		 * @return long - The upper bound of the bucket holding the value,
+		 * 		or 0 if nothing has been recorded.
+		 */
+		public long getPercentile(double percentile)
+		{
+			if (this.mCount == 0)
+			{
+				return 0;
+			}
+
+			long rank = (long) Math.ceil((percentile / 100) * this.mCount);
+			long seen = 0;
+
+			for (int i = 0; i < BUCKET_COUNT; i++)
+			{
+				seen += this.mCounts[i];
+
+				if ((seen >= rank) && (seen > 0))
+				{
+					return Math.min(getBucketUpperBound(i), this.mMax);
+				}
+			}
+
+			return this.mMax;
+		}
+
+		/**
+		 * Writes the count of every bucket holding values.
+		 * @param PrintWriter writer
+		 */
+		public void writeBuckets(PrintWriter writer)
+		{
+			for (int i = 0; i < BUCKET_COUNT; i++)
+			{
+				if (this.mCounts[i] > 0)
+				{
+					writer.println(formatMillis(getBucketLowerBound(i)) + "-" + formatMillis(getBucketUpperBound(i))
+							+ ": " + this.mCounts[i]);
+				}
+			}
+		}
+
+		private static int getBucket(long value)
+		{
+			if (value < (SUB_BUCKET_COUNT * 2))
+			{
+				return (int) Math.max(0, value);
+			}
+
+			int magnitude = (63 - Long.numberOfLeadingZeros(value));
+
+			if (magnitude > MAX_MAGNITUDE)
+			{
+				return (BUCKET_COUNT - 1);
+			}
+
+			int shift = (magnitude - SUB_BUCKET_BITS);
+
+			return (int) ((shift * SUB_BUCKET_COUNT) + (value >> shift));
+		}
+
+		private static long getBucketLowerBound(int bucket)
+		{
+			int shift = Math.max(0, ((bucket / SUB_BUCKET_COUNT) - 1));
+
+			return ((long) (bucket - (shift * SUB_BUCKET_COUNT)) << shift);
+		}
+
+		private static long getBucketUpperBound(int bucket)
+		{
+			int shift = Math.max(0, ((bucket / SUB_BUCKET_COUNT) - 1));
+
+			return (getBucketLowerBound(bucket) + (1L << shift) - 1);
+		}
+	}
+}
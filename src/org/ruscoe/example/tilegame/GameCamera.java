@@ -0,0 +1,75 @@
+package org.ruscoe.example.tilegame;
+
+/**
+ * The GameCamera class represents the area of the level shown on screen.
+ *
+ * Game tiles and units keep their level (world) positions at all times.
+ * The camera stores the level position shown at the top left of the
+ * screen, which is applied as a single translation when drawing.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class GameCamera
+{
+	private int mX = 0;
+	private int mY = 0;
+	private int mScreenWidth = 0;
+	private int mScreenHeight = 0;
+
+	public GameCamera(int screenWidth, int screenHeight)
+	{
+		this.setScreenSize(screenWidth, screenHeight);
+	}
+
+	/**
+	 * Sets the size of the area the camera draws to.
+	 * @param int screenWidth
+	 * @param int screenHeight
+	 */
+	public void setScreenSize(int screenWidth, int screenHeight)
+	{
+		this.mScreenWidth = screenWidth;
+		this.mScreenHeight = screenHeight;
+	}
+
+	/**
+	 * Moves the camera so the given level position is at the center
+	 * of the screen.
+	 * @param int x - The X (horizontal) level position.
+	 * @param int y - The Y (vertical) level position.
+	 */
+	public void centerOn(int x, int y)
+	{
+		this.mX = (x - (this.mScreenWidth / 2));
+		this.mY = (y - (this.mScreenHeight / 2));
+	}
+
+	/**
+	 * Gets the X (horizontal) level position shown at the left of the screen.
+	 * @return int
+	 */
+	public int getX()
+	{
+		return this.mX;
+	}
+
+	/**
+	 * Gets the Y (vertical) level position shown at the top of the screen.
+	 * @return int
+	 */
+	public int getY()
+	{
+		return this.mY;
+	}
+
+	public int getScreenWidth()
+	{
+		return this.mScreenWidth;
+	}
+
+	public int getScreenHeight()
+	{
+		return this.mScreenHeight;
+	}
+}
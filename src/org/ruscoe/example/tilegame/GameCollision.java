@@ -0,0 +1,56 @@
+package org.ruscoe.example.tilegame;
+
+/**
+ * The GameCollision class provides integer intersection tests between
+ * axis-aligned rectangles and points.
+ * 
+ * Rectangles are given as a position and size rather than as Rect
+ * instances, so collision and touch tests performed every game tick
+ * don't create any objects.
+ * 
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public final class GameCollision
+{
+	private GameCollision()
+	{
+	}
+
+	/**
+	 * Detects an intersection between two rectangles. Rectangles that only
+	 * share an edge do not intersect, matching Rect.intersects.
+	 * @param int ax - The X (horizontal) position of the first rectangle.
+	 * @param int ay - The Y (vertical) position of the first rectangle.
+	 * @param int aWidth - The width of the first rectangle.
+	 * @param int aHeight - The height of the first rectangle.
+	 * @param int bx - The X (horizontal) position of the second rectangle.
+	 * @param int by - The Y (vertical) position of the second rectangle.
+	 * @param int bWidth - The width of the second rectangle.
+	 * @param int bHeight - The height of the second rectangle.
+	 * @return boolean - true when the rectangles intersect.
+	 */
+	public static boolean intersects(int ax, int ay, int aWidth, int aHeight,
+			int bx, int by, int bWidth, int bHeight)
+	{
+		return ((ax < (bx + bWidth)) && (bx < (ax + aWidth))
+				&& (ay < (by + bHeight)) && (by < (ay + aHeight)));
+	}
+
+	/**
+	 * Detects whether a point lies within a rectangle, including its edges.
+	 * @param int x - The X (horizontal) position of the rectangle.
+	 * @param int y - The Y (vertical) position of the rectangle.
+	 * @param int width - The width of the rectangle.
+	 * @param int height - The height of the rectangle.
+	 * @param int pointX - The X (horizontal) position of the point.
+	 * @param int pointY - The Y (vertical) position of the point.
+	 * @return boolean - true when the point is within the rectangle.
+	 */
+	public static boolean contains(int x, int y, int width, int height,
+			int pointX, int pointY)
+	{
+		return ((pointX >= x) && (pointX <= (x + width))
+				&& (pointY >= y) && (pointY <= (y + height)));
+	}
+}
@@ -32,8 +32,6 @@ public class GameImage
 
 	public void setDrawable(Context context, int drawable)
 	{
-		BitmapFactory.Options opts = new BitmapFactory.Options();
-		opts.inJustDecodeBounds = true;
 		this.mImg = BitmapFactory.decodeResource(context.getResources(), drawable);
 
 		mWidth = this.mImg.getWidth();
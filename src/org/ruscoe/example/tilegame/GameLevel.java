@@ -0,0 +1,94 @@
+package org.ruscoe.example.tilegame;
+
+/**
+ * The GameLevel class represents a loaded, playable game level.
+ * 
+ * A GameLevel is created by GameLevelLoader and is not modified once
+ * loaded, so it can be handed from the loader thread to the game
+ * thread without further synchronization. The tiles of very large
+ * levels are held by a ChunkedTileMap, which loads them as needed
+ * and handles its own synchronization. The tile animator is only used
+ * by the game thread.
+ * 
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class GameLevel
+{
+	private final int mStage;
+	private final int mLevel;
+	private final int mPlayerStartTileX;
+	private final int mPlayerStartTileY;
+	private final TileMap mTileMap;
+	private final TileAtlas mTileAtlas;
+	private final TileAnimator mTileAnimator;
+
+	public GameLevel(int stage, int level, int playerStartTileX, int playerStartTileY,
+			TileMap tileMap, TileAtlas tileAtlas, TileAnimator tileAnimator)
+	{
+		this.mStage = stage;
+		this.mLevel = level;
+		this.mPlayerStartTileX = playerStartTileX;
+		this.mPlayerStartTileY = playerStartTileY;
+		this.mTileMap = tileMap;
+		this.mTileAtlas = tileAtlas;
+		this.mTileAnimator = tileAnimator;
+	}
+
+	public int getStage()
+	{
+		return this.mStage;
+	}
+
+	public int getLevel()
+	{
+		return this.mLevel;
+	}
+
+	public int getPlayerStartTileX()
+	{
+		return this.mPlayerStartTileX;
+	}
+
+	public int getPlayerStartTileY()
+	{
+		return this.mPlayerStartTileY;
+	}
+
+	/**
+	 * Gets the game tiles of the level.
+	 * @return TileMap
+	 */
+	public TileMap getTileMap()
+	{
+		return this.mTileMap;
+	}
+
+	/**
+	 * Gets the atlas used to draw the game tiles of the level.
+	 * @return TileAtlas
+	 */
+	public TileAtlas getTileAtlas()
+	{
+		return this.mTileAtlas;
+	}
+
+	/**
+	 * Gets the animator picking the frames drawn for the animated game
+	 * tiles of the level.
+	 * @return TileAnimator
+	 */
+	public TileAnimator getTileAnimator()
+	{
+		return this.mTileAnimator;
+	}
+
+	/**
+	 * Frees the tiles and bitmaps used by the level, once it is no longer played.
+	 */
+	public void release()
+	{
+		this.mTileMap.release();
+		this.mTileAtlas.recycle();
+	}
+}
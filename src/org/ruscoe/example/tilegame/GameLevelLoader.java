@@ -0,0 +1,545 @@
+package org.ruscoe.example.tilegame;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.ruscoe.example.tilegame.data.GameDAO;
+import org.ruscoe.example.tilegame.data.GameLevelCache;
+import org.ruscoe.example.tilegame.data.GameLevelTileData;
+import org.ruscoe.example.tilegame.data.GameTileData;
+import org.ruscoe.example.tilegame.data.LevelData;
+import org.ruscoe.example.tilegame.data.LevelReader;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * The GameLevelLoader class loads game levels on a background thread.
+ * 
+ * Loading a level queries the database, reads the level data, decodes
+ * the bitmaps of its game tiles and packs them into a TileAtlas, none of which should happen on the UI
+ * thread or the game thread. Each finished GameLevel is published through
+ * an atomic reference, which the game thread checks at the start of each
+ * game tick and swaps in as a whole.
+ * 
+ * To see how game level data is turned into a playable, tile level,
+ * see the function GameLevelLoader.parseGameLevelData.
+ * 
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class GameLevelLoader
+{
+	/**
+	 * The memory budget for cached game tile bitmaps not used by a level being loaded.
+	 */
+	private static final int TILE_BITMAP_CACHE_BYTES = (4 * 1024 * 1024);
+
+	/**
+	 * The number of cells from which levels are streamed in chunks
+	 * rather than loaded whole.
+	 */
+	private static final int STREAMING_MIN_CELLS = (256 * 256);
+
+	private Context mContext = null;
+
+	private ExecutorService mExecutor = null;
+
+	/**
+	 * The most recently loaded level, waiting to be taken by the game thread.
+	 */
+	private final AtomicReference<GameLevel> mLoadedLevel = new AtomicReference<GameLevel>();
+
+	/**
+	 * Identifies the latest load request, so levels requested earlier
+	 * are discarded if they finish loading late.
+	 */
+	private final AtomicInteger mLoadRequest = new AtomicInteger();
+
+	// The following fields are only used by the loader thread.
+
+	private GameTileData mGameTileData = null;
+	private GameLevelTileData mGameLevelTileData = null;
+	private GameLevelCache mGameLevelCache = null;
+
+	/**
+	 * Templates defining all available game tiles.
+	 */
+	private TileTemplateRegistry mGameTileTemplates = null;
+
+	/**
+	 * Bitmap instances for each game tile drawable, kept across levels.
+	 */
+	private BitmapCache mGameTileBitmaps = null;
+
+	private int mTileWidth = 0;
+	private int mTileHeight = 0;
+
+	public GameLevelLoader(Context context)
+	{
+		this.mContext = context;
+
+		this.mGameTileBitmaps = new BitmapCache(context.getResources(), TILE_BITMAP_CACHE_BYTES,
+				Bitmap.Config.ARGB_8888, 1);
+
+		this.mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			public Thread newThread(final Runnable runnable)
+			{
+				Thread thread = new Thread(new Runnable()
+				{
+					public void run()
+					{
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						runnable.run();
+					}
+				}, "GameLevelLoader");
+
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Starts loading a level on the loader thread. Any level loaded by
+	 * an earlier request and not yet taken is discarded.
+	 * @param int stage - The stage to load.
+	 * @param int level - The level to load.
+	 */
+	public void load(final int stage, final int level)
+	{
+		final int loadRequest = this.mLoadRequest.incrementAndGet();
+
+		releaseLevel(this.mLoadedLevel.getAndSet(null));
+
+		this.mExecutor.execute(new Runnable()
+		{
+			public void run()
+			{
+				if (loadRequest != mLoadRequest.get())
+				{
+					return;
+				}
+
+				try
+				{
+					long startTime = System.currentTimeMillis();
+
+					GameLevel gameLevel = parseGameLevelData(stage, level);
+
+					Log.d("Tile Game Example", "Loaded stage: " + stage + ", level: " + level
+							+ " in " + (System.currentTimeMillis() - startTime) + "ms");
+
+					if ((gameLevel != null) && (loadRequest == mLoadRequest.get()))
+					{
+						releaseLevel(mLoadedLevel.getAndSet(gameLevel));
+					}
+					else
+					{
+						releaseLevel(gameLevel);
+					}
+				} catch (RuntimeException e)
+				{
+					Log.e("Tile Game Example", "Unable to load stage: " + stage + ", level: " + level, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Takes the most recently loaded level, if a level has finished loading
+	 * since the last call.
+	 * @return GameLevel - The loaded level, or null.
+	 */
+	public GameLevel takeLoadedLevel()
+	{
+		return this.mLoadedLevel.getAndSet(null);
+	}
+
+	/**
+	 * Stops the loader thread and frees cached bitmaps, along with any
+	 * loaded level not yet taken.
+	 * No further levels can be loaded.
+	 */
+	public void release()
+	{
+		this.mLoadRequest.incrementAndGet();
+		this.mExecutor.execute(new Runnable()
+		{
+			public void run()
+			{
+				releaseLevel(mLoadedLevel.getAndSet(null));
+				mGameTileBitmaps.evictAll();
+			}
+		});
+		this.mExecutor.shutdown();
+	}
+
+	/**
+	 * Releases a loaded level that will never be taken.
+	 * @param GameLevel gameLevel - The level; may be null.
+	 */
+	private static void releaseLevel(GameLevel gameLevel)
+	{
+		if (gameLevel != null)
+		{
+			gameLevel.release();
+		}
+	}
+
+	/**
+	 * Parses game level data to create a tile-based level.
+	 * Tile positioning logic expects all game tiles to
+	 * maintain a consistent width and height.
+	 * 
+	 * Level data is loaded in compiled form by GameLevelCache, which
+	 * reads it from a memory-mapped level pack built from the level
+	 * data in the database. Levels of STREAMING_MIN_CELLS cells or more
+	 * are not loaded whole, but streamed from the level pack in chunks
+	 * by a ChunkedTileMap.
+	 * @param int stage - The stage to load.
+	 * @param int level - The level to load.
+	 * @return GameLevel - The loaded level, or null if the level does not exist.
+	 */
+	private GameLevel parseGameLevelData(int stage, int level)
+	{
+		if (this.mGameTileTemplates == null)
+		{
+			this.mGameTileData = new GameTileData(this.mContext);
+			this.mGameLevelTileData = new GameLevelTileData(this.mContext);
+			this.mGameLevelCache = new GameLevelCache(this.mContext, this.mGameLevelTileData);
+
+			this.mGameTileTemplates = this.mGameTileData.getTileTemplates();
+		}
+
+		LevelReader levelReader = this.mGameLevelCache.getLevelReader(stage, level);
+
+		if ((levelReader != null)
+				&& (((long) levelReader.getColumns() * levelReader.getRows()) >= STREAMING_MIN_CELLS))
+		{
+			return createStreamingLevel(levelReader);
+		}
+
+		LevelData levelData = this.mGameLevelCache.getLevelData(stage, level);
+
+		if (levelData == null)
+		{
+			return null;
+		}
+
+		int tileColumns = levelData.getColumns();
+		int tileRows = levelData.getRows();
+
+		int[] levelTileIds = levelData.getTileIds();
+		boolean[] usedTileIds = new boolean[this.mGameTileTemplates.getMaxTileId() + 1];
+
+		// Find each valid tile used by the level.
+		for (int cell = 0; cell < levelTileIds.length; cell++)
+		{
+			int tileId = levelTileIds[cell];
+
+			if (this.mGameTileTemplates.getDrawable(tileId) > 0)
+			{
+				usedTileIds[tileId] = true;
+			}
+		}
+
+		int[][] frameSprites = getFrameSprites(usedTileIds);
+		TileAtlas tileAtlas = buildTileAtlas(usedTileIds, frameSprites);
+
+		// Store the type and flags of each tile in a new tile layer.
+		// Tiles whose bitmap could not be decoded are left out.
+		TileLayer tileLayer = new TileLayer(tileColumns, tileRows, this.mTileWidth, this.mTileHeight);
+
+		for (int cell = 0; cell < levelTileIds.length; cell++)
+		{
+			int tileId = levelTileIds[cell];
+
+			if (!tileAtlas.hasTile(tileId))
+			{
+				continue;
+			}
+
+			tileLayer.setTile(tileLayer.getCellColumn(cell), tileLayer.getCellRow(cell), tileId,
+					this.mGameTileTemplates.getType(tileId), this.mGameTileTemplates.getFlags(tileId));
+		}
+
+		return new GameLevel(stage, level, levelData.getPlayerStartTileX(), levelData.getPlayerStartTileY(),
+				tileLayer, tileAtlas, createTileAnimator(frameSprites, tileAtlas));
+	}
+
+	/**
+	 * Creates a level whose tiles are loaded in chunks around the player
+	 * as the level is played, on the loader thread.
+	 * @param LevelReader levelReader - Reads the level from the level pack.
+	 * @return GameLevel
+	 */
+	private GameLevel createStreamingLevel(final LevelReader levelReader)
+	{
+		// Any valid tile may appear in the level, so the atlas holds them all.
+		boolean[] usedTileIds = new boolean[this.mGameTileTemplates.getMaxTileId() + 1];
+
+		for (int tileId = 0; tileId < usedTileIds.length; tileId++)
+		{
+			usedTileIds[tileId] = (this.mGameTileTemplates.getDrawable(tileId) > 0);
+		}
+
+		int[][] frameSprites = getFrameSprites(usedTileIds);
+
+		final TileAtlas tileAtlas = buildTileAtlas(usedTileIds, frameSprites);
+		final TileTemplateRegistry tileTemplates = this.mGameTileTemplates;
+		final int tileWidth = this.mTileWidth;
+		final int tileHeight = this.mTileHeight;
+
+		ChunkedTileMap tileMap = new ChunkedTileMap(levelReader.getColumns(), levelReader.getRows(),
+				tileWidth, tileHeight, ChunkedTileMap.DEFAULT_CHUNK_SIZE, ChunkedTileMap.DEFAULT_MAX_RESIDENT_CHUNKS,
+				new ChunkedTileMap.ChunkSource()
+		{
+			// Reused for every chunk; only used by the loader thread.
+			private int[] mChunkTileIds = new int[0];
+
+			public TileLayer loadChunk(int column, int row, int columns, int rows)
+			{
+				if (this.mChunkTileIds.length < (columns * rows))
+				{
+					this.mChunkTileIds = new int[columns * rows];
+				}
+
+				try
+				{
+					levelReader.readTiles(column, row, columns, rows, this.mChunkTileIds);
+				} catch (IOException e)
+				{
+					Log.e("Tile Game Example", "Unable to load chunk at " + column + ", " + row + ": " + e.getMessage());
+					return null;
+				}
+
+				TileLayer chunk = new TileLayer(columns, rows, tileWidth, tileHeight);
+
+				for (int cell = 0; cell < (columns * rows); cell++)
+				{
+					int tileId = this.mChunkTileIds[cell];
+
+					if (tileAtlas.hasTile(tileId))
+					{
+						chunk.setTile(chunk.getCellColumn(cell), chunk.getCellRow(cell), tileId,
+								tileTemplates.getType(tileId), tileTemplates.getFlags(tileId));
+					}
+				}
+
+				return chunk;
+			}
+		}, this.mExecutor);
+
+		Log.d("Tile Game Example", "Streaming " + levelReader.getColumns() + "x" + levelReader.getRows() + " level");
+
+		return new GameLevel(levelReader.getStage(), levelReader.getLevel(),
+				levelReader.getPlayerStartTileX(), levelReader.getPlayerStartTileY(), tileMap, tileAtlas,
+				createTileAnimator(frameSprites, tileAtlas));
+	}
+
+	/**
+	 * Assigns sprite IDs in the tile atlas to the animation frames of a
+	 * set of game tiles. The first frame of a tile is drawn by its tile ID;
+	 * later frames are given sprite IDs above the highest tile ID.
+	 * @param boolean[] usedTileIds - Whether each tile ID is used, by tile ID.
+	 * @return int[][] - The sprite ID of each frame, by tile ID; null for tiles
+	 * 		not used or not animated.
+	 */
+	private int[][] getFrameSprites(boolean[] usedTileIds)
+	{
+		int[][] frameSprites = new int[usedTileIds.length][];
+		int nextSprite = usedTileIds.length;
+
+		for (int tileId = 0; tileId < usedTileIds.length; tileId++)
+		{
+			if (!usedTileIds[tileId] || !this.mGameTileTemplates.isAnimated(tileId))
+			{
+				continue;
+			}
+
+			frameSprites[tileId] = new int[this.mGameTileTemplates.getFrameCount(tileId)];
+			frameSprites[tileId][0] = tileId;
+
+			for (int frame = 1; frame < frameSprites[tileId].length; frame++)
+			{
+				frameSprites[tileId][frame] = nextSprite++;
+			}
+		}
+
+		return frameSprites;
+	}
+
+	/**
+	 * Packs the bitmaps of a set of game tiles, and the animation frames of
+	 * animated tiles, into an atlas, setting the global tile width / height
+	 * values if undefined.
+	 * 
+	 * Bitmaps of another size are scaled to the tile size, as a drawable
+	 * missing from the density of the device is decoded from another
+	 * density, at a size that does not fit the tile grid.
+	 * @param boolean[] usedTileIds - Whether each tile ID should be included, by tile ID.
+	 * @param int[][] frameSprites - The sprite ID of each animation frame, by tile ID,
+	 * 		as given by getFrameSprites.
+	 * @return TileAtlas - The atlas. Tiles whose bitmap can't be decoded are left out.
+	 */
+	private TileAtlas buildTileAtlas(boolean[] usedTileIds, int[][] frameSprites)
+	{
+		int spriteCount = usedTileIds.length;
+
+		for (int[] sprites : frameSprites)
+		{
+			if (sprites != null)
+			{
+				spriteCount = Math.max(spriteCount, (sprites[sprites.length - 1] + 1));
+			}
+		}
+
+		Bitmap[] tileBitmaps = new Bitmap[spriteCount];
+		int[] tileDrawables = new int[spriteCount];
+
+		for (int tileId = 0; tileId < usedTileIds.length; tileId++)
+		{
+			if (!usedTileIds[tileId])
+			{
+				continue;
+			}
+
+			tileDrawables[tileId] = this.mGameTileTemplates.getDrawable(tileId);
+			tileBitmaps[tileId] = this.mGameTileBitmaps.acquire(tileDrawables[tileId]);
+
+			if (tileBitmaps[tileId] == null)
+			{
+				Log.e("Tile Game Example", "Unable to decode drawable for tile ID: " + tileId);
+				tileDrawables[tileId] = 0;
+				continue;
+			}
+
+			// If undefined, set global tile width / height values.
+			if (this.mTileWidth == 0)
+			{
+				this.mTileWidth = tileBitmaps[tileId].getWidth();
+			}
+			if (this.mTileHeight == 0)
+			{
+				this.mTileHeight = tileBitmaps[tileId].getHeight();
+			}
+
+			if (frameSprites[tileId] == null)
+			{
+				continue;
+			}
+
+			// The first frame is drawn by the tile ID.
+			for (int frame = 1; frame < frameSprites[tileId].length; frame++)
+			{
+				int sprite = frameSprites[tileId][frame];
+
+				tileDrawables[sprite] = this.mGameTileTemplates.getFrameDrawable(tileId, frame);
+				tileBitmaps[sprite] = this.mGameTileBitmaps.acquire(tileDrawables[sprite]);
+
+				if (tileBitmaps[sprite] == null)
+				{
+					Log.e("Tile Game Example", "Unable to decode frame " + frame + " for tile ID: " + tileId);
+					tileDrawables[sprite] = 0;
+				}
+			}
+		}
+
+		boolean[] scaledBitmaps = new boolean[spriteCount];
+
+		for (int sprite = 0; sprite < spriteCount; sprite++)
+		{
+			Bitmap bitmap = tileBitmaps[sprite];
+
+			if ((bitmap != null) && ((bitmap.getWidth() != this.mTileWidth) || (bitmap.getHeight() != this.mTileHeight)))
+			{
+				Log.d("Tile Game Example", "Scaling drawable " + tileDrawables[sprite] + " from "
+						+ bitmap.getWidth() + "x" + bitmap.getHeight() + " to the tile size");
+
+				tileBitmaps[sprite] = Bitmap.createScaledBitmap(bitmap, this.mTileWidth, this.mTileHeight, true);
+				scaledBitmaps[sprite] = true;
+			}
+		}
+
+		TileAtlas tileAtlas = TileAtlas.build(tileBitmaps, TileAtlas.DEFAULT_MAX_PAGE_SIZE);
+
+		// The atlas holds copies of the tile bitmaps, which remain cached
+		// for later levels until evicted.
+		for (int sprite = 0; sprite < tileDrawables.length; sprite++)
+		{
+			if (scaledBitmaps[sprite])
+			{
+				tileBitmaps[sprite].recycle();
+			}
+
+			if (tileDrawables[sprite] > 0)
+			{
+				this.mGameTileBitmaps.release(tileDrawables[sprite]);
+			}
+		}
+
+		Log.d("Tile Game Example", this.mGameTileBitmaps.toString()
+				+ ", database queries: " + GameDAO.getQueryCount());
+
+		return tileAtlas;
+	}
+
+	/**
+	 * Creates the animator of the animated game tiles of a level.
+	 * Frames missing from the atlas show the first frame instead.
+	 * @param int[][] frameSprites - The sprite ID of each animation frame, by tile ID,
+	 * 		as given by getFrameSprites.
+	 * @param TileAtlas tileAtlas - The atlas holding the frames.
+	 * @return TileAnimator
+	 */
+	private TileAnimator createTileAnimator(int[][] frameSprites, TileAtlas tileAtlas)
+	{
+		int animationCount = 0;
+
+		for (int tileId = 0; tileId < frameSprites.length; tileId++)
+		{
+			if ((frameSprites[tileId] != null) && tileAtlas.hasTile(tileId))
+			{
+				animationCount++;
+			}
+		}
+
+		int[] tileIds = new int[animationCount];
+		int[][] animationFrameSprites = new int[animationCount][];
+		int[] frameDurations = new int[animationCount];
+
+		int i = 0;
+		for (int tileId = 0; tileId < frameSprites.length; tileId++)
+		{
+			if ((frameSprites[tileId] == null) || !tileAtlas.hasTile(tileId))
+			{
+				continue;
+			}
+
+			int[] sprites = frameSprites[tileId].clone();
+
+			for (int frame = 1; frame < sprites.length; frame++)
+			{
+				if (!tileAtlas.hasTile(sprites[frame]))
+				{
+					sprites[frame] = tileId;
+				}
+			}
+
+			tileIds[i] = tileId;
+			animationFrameSprites[i] = sprites;
+			frameDurations[i] = this.mGameTileTemplates.getFrameDuration(tileId);
+			i++;
+		}
+
+		return new TileAnimator(tileIds, animationFrameSprites, frameDurations, (frameSprites.length - 1));
+	}
+}
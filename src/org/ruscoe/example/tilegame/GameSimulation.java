@@ -0,0 +1,243 @@
+package org.ruscoe.example.tilegame;
+
+/**
+ * The GameSimulation class holds the rules of the game: the movement of
+ * the player unit and its collisions with game tiles, advanced one game
+ * tick at a time.
+ *
+ * The simulation works on plain Java data only: a TileMap, the position
+ * and size of the player unit and the current input. It uses no Android
+ * classes, so GameView and headless tools such as GameSimulationRunner,
+ * in the benchmarks, play the game by exactly the same rules. Given the
+ * same level, input and number of ticks, a simulation always produces
+ * the same result.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class GameSimulation
+{
+	public static final int DIRECTION_NONE = 0;
+	public static final int DIRECTION_UP = 1;
+	public static final int DIRECTION_DOWN = 2;
+	public static final int DIRECTION_LEFT = 3;
+	public static final int DIRECTION_RIGHT = 4;
+
+	/**
+	 * The collision type reported when the player unit collided with
+	 * no blocking tile during the last tick.
+	 */
+	public static final int NO_COLLISION = -1;
+
+	private TileMap mTileMap = null;
+
+	private int mPlayerX = 0;
+	private int mPlayerY = 0;
+	private final int mPlayerWidth;
+	private final int mPlayerHeight;
+	private final int mPlayerSpeed;
+
+	private boolean mPlayerMoving = false;
+	private int mPlayerVerticalDirection = DIRECTION_NONE;
+	private int mPlayerHorizontalDirection = DIRECTION_NONE;
+
+	private int mCollisionType = NO_COLLISION;
+	private long mTickCount = 0;
+
+	/**
+	 * The cells of the tiles colliding with the player unit, reused every tick.
+	 */
+	private int[] mCollisionCells = new int[0];
+
+	/**
+	 * @param int playerWidth - The width of the player unit.
+	 * @param int playerHeight - The height of the player unit.
+	 * @param int playerSpeed - The distance the player unit moves each tick.
+	 */
+	public GameSimulation(int playerWidth, int playerHeight, int playerSpeed)
+	{
+		this.mPlayerWidth = playerWidth;
+		this.mPlayerHeight = playerHeight;
+		this.mPlayerSpeed = playerSpeed;
+	}
+
+	/**
+	 * Sets the game tiles of the level being played.
+	 * @param TileMap tileMap
+	 */
+	public void setTileMap(TileMap tileMap)
+	{
+		this.mTileMap = tileMap;
+	}
+
+	public TileMap getTileMap()
+	{
+		return this.mTileMap;
+	}
+
+	/**
+	 * Moves the player unit to a given level position.
+	 * @param int x
+	 * @param int y
+	 */
+	public void setPlayerPosition(int x, int y)
+	{
+		this.mPlayerX = x;
+		this.mPlayerY = y;
+	}
+
+	public int getPlayerX()
+	{
+		return this.mPlayerX;
+	}
+
+	public int getPlayerY()
+	{
+		return this.mPlayerY;
+	}
+
+	public int getPlayerWidth()
+	{
+		return this.mPlayerWidth;
+	}
+
+	public int getPlayerHeight()
+	{
+		return this.mPlayerHeight;
+	}
+
+	/**
+	 * Sets the input applied by following ticks.
+	 * @param boolean moving - Whether the player unit is moving.
+	 * @param int verticalDirection - DIRECTION_UP, DIRECTION_DOWN or DIRECTION_NONE.
+	 * @param int horizontalDirection - DIRECTION_LEFT, DIRECTION_RIGHT or DIRECTION_NONE.
+	 */
+	public void setInput(boolean moving, int verticalDirection, int horizontalDirection)
+	{
+		this.mPlayerMoving = moving;
+		this.mPlayerVerticalDirection = verticalDirection;
+		this.mPlayerHorizontalDirection = horizontalDirection;
+	}
+
+	/**
+	 * Gets the type of the blocking tile the player unit collided with
+	 * during the last tick. When the player unit collided with several
+	 * blocking tiles at once, the type reported is the one that matters
+	 * most to the player: an exit tile before a dangerous tile, and a
+	 * dangerous tile before any other, whatever the order of the tiles.
+	 * @return int - One of the TileMap.TYPE_ values, or NO_COLLISION.
+	 */
+	public int getCollisionType()
+	{
+		return this.mCollisionType;
+	}
+
+	/**
+	 * Gets the number of ticks simulated.
+	 * @return long
+	 */
+	public long getTickCount()
+	{
+		return this.mTickCount;
+	}
+
+	/**
+	 * Advances the simulation by a single game tick, moving the player
+	 * unit according to the current input unless blocked by a game tile.
+	 */
+	public void tick()
+	{
+		this.mTickCount++;
+		this.mCollisionType = NO_COLLISION;
+
+		if ((this.mTileMap == null) || !this.mPlayerMoving)
+		{
+			return;
+		}
+
+		int newX = this.mPlayerX;
+		int newY = this.mPlayerY;
+
+		if (this.mPlayerHorizontalDirection != DIRECTION_NONE)
+		{
+			newX += (this.mPlayerHorizontalDirection == DIRECTION_RIGHT) ? this.mPlayerSpeed : -this.mPlayerSpeed;
+		}
+
+		if (this.mPlayerVerticalDirection != DIRECTION_NONE)
+		{
+			newY += (this.mPlayerVerticalDirection == DIRECTION_DOWN) ? this.mPlayerSpeed : -this.mPlayerSpeed;
+		}
+
+		// Wait for the tiles at the new position to load before moving there.
+		if (!this.mTileMap.isAreaAvailable(newX, newY, this.mPlayerWidth, this.mPlayerHeight))
+		{
+			return;
+		}
+
+		int collisionCellsSize = getCollisionCells(newX, newY);
+		boolean blocked = false;
+
+		for (int i = 0; i < collisionCellsSize; i++)
+		{
+			int collisionCell = this.mCollisionCells[i];
+
+			if ((this.mTileMap.getFlags(collisionCell) & TileMap.FLAG_BLOCKER) != 0)
+			{
+				int type = this.mTileMap.getType(collisionCell);
+
+				if (getCollisionPriority(type) > getCollisionPriority(this.mCollisionType))
+				{
+					this.mCollisionType = type;
+				}
+
+				blocked = true;
+			}
+		}
+
+		if (!blocked)
+		{
+			this.mPlayerX = newX;
+			this.mPlayerY = newY;
+		}
+	}
+
+	/**
+	 * Gets the priority of a collision type, used to pick the type
+	 * reported when the player unit collides with several tiles at once.
+	 * @param int type - One of the TileMap.TYPE_ values, or NO_COLLISION.
+	 * @return int - A higher value for a collision type that takes priority.
+	 */
+	private static int getCollisionPriority(int type)
+	{
+		switch (type)
+		{
+		case NO_COLLISION:
+			return 0;
+		case TileMap.TYPE_EXIT:
+			return 3;
+		case TileMap.TYPE_DANGEROUS:
+			return 2;
+		default:
+			return 1;
+		}
+	}
+
+	/**
+	 * Detects collisions between the player unit at a given position and
+	 * the game tiles, storing the cell of every colliding tile in
+	 * mCollisionCells.
+	 * @param int x - The X (horizontal) level position of the player unit.
+	 * @param int y - The Y (vertical) level position of the player unit.
+	 * @return int - The number of colliding game tiles.
+	 */
+	private int getCollisionCells(int x, int y)
+	{
+		int maxCellCount = this.mTileMap.getMaxCellCount(this.mPlayerWidth, this.mPlayerHeight);
+		if (this.mCollisionCells.length < maxCellCount)
+		{
+			this.mCollisionCells = new int[maxCellCount];
+		}
+
+		return this.mTileMap.getCollisionCells(x, y, this.mPlayerWidth, this.mPlayerHeight, this.mCollisionCells);
+	}
+}
@@ -0,0 +1,90 @@
+package org.ruscoe.example.tilegame;
+
+/**
+ * The GameState class is a snapshot of everything needed to draw a frame
+ * of the game: the current level, the render commands drawing it and the
+ * status message.
+ *
+ * Snapshots are passed from the game update to drawing by a
+ * GameStateBuffer. A snapshot is only written while owned by the
+ * updating side, and is never changed while it may be read.
+ *
+ * The tiles of the level are not copied into snapshots; they only
+ * change as they are streamed in, which TileMap implementations handle.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class GameState
+{
+	/**
+	 * Increases with every published snapshot, so newer snapshots can be
+	 * told apart from older ones.
+	 */
+	private volatile long mSequence = 0;
+
+	private long mPublishTime = 0;
+
+	private GameLevel mGameLevel = null;
+
+	private final RenderCommandList mRenderCommands = new RenderCommandList();
+
+	private String mStatusMessage = "";
+
+	void setSequence(long sequence)
+	{
+		this.mSequence = sequence;
+	}
+
+	public long getSequence()
+	{
+		return this.mSequence;
+	}
+
+	public void setPublishTime(long publishTime)
+	{
+		this.mPublishTime = publishTime;
+	}
+
+	/**
+	 * Gets the time the snapshot was published, in nanoseconds.
+	 * @return long
+	 */
+	public long getPublishTime()
+	{
+		return this.mPublishTime;
+	}
+
+	public void setGameLevel(GameLevel gameLevel)
+	{
+		this.mGameLevel = gameLevel;
+	}
+
+	/**
+	 * Gets the level being played.
+	 * @return GameLevel - The level, or null while the first level loads.
+	 */
+	public GameLevel getGameLevel()
+	{
+		return this.mGameLevel;
+	}
+
+	/**
+	 * Gets the commands drawing the frame. Cleared and rebuilt for each snapshot.
+	 * @return RenderCommandList
+	 */
+	public RenderCommandList getRenderCommands()
+	{
+		return this.mRenderCommands;
+	}
+
+	public void setStatusMessage(String statusMessage)
+	{
+		this.mStatusMessage = statusMessage;
+	}
+
+	public String getStatusMessage()
+	{
+		return this.mStatusMessage;
+	}
+}
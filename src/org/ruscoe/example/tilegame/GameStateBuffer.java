@@ -0,0 +1,100 @@
+package org.ruscoe.example.tilegame;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The GameStateBuffer class passes GameState snapshots from the game
+ * update to drawing without locks, so neither side ever waits for the
+ * other.
+ *
+ * Three snapshots are reused in turn, so nothing is allocated:
+ * - The back snapshot, written by the updating side.
+ * - The published snapshot, the latest complete one.
+ * - The front snapshot, read by the drawing side.
+ *
+ * Publishing swaps the back snapshot with the published one. Acquiring
+ * swaps the front snapshot with the published one, if it is newer.
+ * Each swap is a single atomic exchange.
+ *
+ * The back snapshot handed out after publishing is an older one, so the
+ * updating side must write every field of it before publishing again.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class GameStateBuffer
+{
+	private final AtomicReference<GameState> mPublishedState = new AtomicReference<GameState>(new GameState());
+
+	/**
+	 * Only used by the updating side.
+	 */
+	private GameState mBackState = new GameState();
+	private long mSequence = 0;
+
+	/**
+	 * Only used by the drawing side.
+	 */
+	private GameState mFrontState = new GameState();
+
+	/**
+	 * Gets the snapshot to write the next state to.
+	 * Only called by the updating side.
+	 * @return GameState
+	 */
+	public GameState getBackState()
+	{
+		return this.mBackState;
+	}
+
+	/**
+	 * Publishes the back snapshot, making it available to acquireFrontState.
+	 * Only called by the updating side.
+	 */
+	public void publish()
+	{
+		this.mSequence++;
+		this.mBackState.setSequence(this.mSequence);
+
+		this.mBackState = this.mPublishedState.getAndSet(this.mBackState);
+	}
+
+	/**
+	 * Gets the sequence number of the last published snapshot.
+	 * Only called by the updating side.
+	 * @return long
+	 */
+	public long getSequence()
+	{
+		return this.mSequence;
+	}
+
+	/**
+	 * Gets the sequence number of the snapshot last acquired, or 0 if
+	 * none has been.
+	 * Only called by the drawing side.
+	 * @return long
+	 */
+	public long getFrontSequence()
+	{
+		return this.mFrontState.getSequence();
+	}
+
+	/**
+	 * Gets the latest published snapshot.
+	 * Only called by the drawing side. The snapshot may be read until the
+	 * next call.
+	 * @return GameState
+	 */
+	public GameState acquireFrontState()
+	{
+		// The published snapshot can only become newer between the check
+		// and the swap, so an older snapshot is never swapped in.
+		if (this.mPublishedState.get().getSequence() > this.mFrontState.getSequence())
+		{
+			this.mFrontState = this.mPublishedState.getAndSet(this.mFrontState);
+		}
+
+		return this.mFrontState;
+	}
+}
@@ -2,7 +2,6 @@ package org.ruscoe.example.tilegame;
 
 import android.content.Context;
 import android.graphics.Point;
-import android.graphics.Rect;
 
 /**
  * An extension of GameImage, GameTile represents a tile used to build
@@ -11,23 +10,28 @@ import android.graphics.Rect;
  * In addition to the GameImage properties, game tiles include a unique
  * key, tile type identifier and visibility setting. 
  * 
+ * The position of a game tile is its level position. On-screen positions
+ * are derived from the GameCamera when drawing.
+ * 
+ * Loaded levels store their tiles in a TileLayer rather than as GameTile
+ * instances; GameTile is used when a single tile needs to be handled as
+ * an object. Its tile type identifiers are those stored by TileMap.
+ * 
  * @author Dan Ruscoe (ruscoe.org)
  * @version 1.0
  */
 public class GameTile extends GameImage
 {
-	public static final int TYPE_EMPTY = 0;
-	public static final int TYPE_OBSTACLE = 1;
-	public static final int TYPE_DANGEROUS = 2;
-	public static final int TYPE_EXIT = 3;
+	public static final int TYPE_EMPTY = TileMap.TYPE_EMPTY;
+	public static final int TYPE_OBSTACLE = TileMap.TYPE_OBSTACLE;
+	public static final int TYPE_DANGEROUS = TileMap.TYPE_DANGEROUS;
+	public static final int TYPE_EXIT = TileMap.TYPE_EXIT;
 	
 	private int mKey = 0;
 	private int mType = TYPE_EMPTY;
 
 	private boolean mVisible = true;
 	
-	private Rect mCollisionRect = null;
-	
 	public GameTile(Context context, Point point)
 	{
 		super(context);
@@ -51,21 +55,14 @@ public class GameTile extends GameImage
 
 	public boolean getCollision(float x, float y, int width, int height)
 	{
-		if (this.mCollisionRect == null)
-		{
-			this.mCollisionRect = new Rect((int)x, (int)y, ((int)x + width), ((int)y + height));
-		}
-		else
-		{
-			this.mCollisionRect.set((int)x, (int)y, ((int)x + width), ((int)y + height));
-		}
-
-		return (this.mCollisionRect.intersects(this.mX, this.mY, (this.mX + getWidth()), (this.mY + getHeight())));
+		return GameCollision.intersects((int)x, (int)y, width, height,
+				this.mX, this.mY, getWidth(), getHeight());
 	}
 	
 	public boolean getCollision(GameUnit gameUnit)
 	{
-		return (gameUnit.getRect().intersects(this.mX, this.mY, (this.mX + mWidth), (this.mY + mHeight)));
+		return GameCollision.intersects(gameUnit.getX(), gameUnit.getY(), gameUnit.getWidth(), gameUnit.getHeight(),
+				this.mX, this.mY, this.mWidth, this.mHeight);
 	}
 
 	public int getKey()
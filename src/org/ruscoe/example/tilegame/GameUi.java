@@ -1,6 +1,7 @@
 package org.ruscoe.example.tilegame;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 
 /**
  * An extension of GameImage, GameUi represents a UI element provided
@@ -10,6 +11,10 @@ import android.content.Context;
  * state identifier, allowing buttons to appear in different states
  * with associated drawables.
  * 
+ * The bitmap of each state drawable is decoded once, when the drawable
+ * is set, and shared with any other UI element using the same drawable.
+ * Changing state only swaps the bitmap drawn.
+ * 
  * @author Dan Ruscoe (ruscoe.org)
  * @version 1.0
  */
@@ -19,6 +24,17 @@ public class GameUi extends GameUnit
 	public static final int STATE_INACTIVE = 2;
 	public static final int STATE_ACTIVE = 3;
 	public static final int STATE_READY = 4;
+
+	/**
+	 * The memory budget for cached UI bitmaps no longer used by any UI element.
+	 */
+	private static final int STATE_BITMAP_CACHE_BYTES = (1024 * 1024);
+
+	/**
+	 * Bitmaps for the state drawables of all UI elements, shared so that
+	 * elements using the same drawables decode them only once.
+	 */
+	private static BitmapCache sStateBitmaps = null;
 	
 	private int mState = STATE_NORMAL;
 	
@@ -28,22 +44,81 @@ public class GameUi extends GameUnit
 	private int mDrawableStateReady = 0;
 	private boolean mVisible = true;
 
-	private Context mContext = null;
+	private Bitmap mBitmapStateNormal = null;
+	private Bitmap mBitmapStateInactive = null;
+	private Bitmap mBitmapStateActive = null;
+	private Bitmap mBitmapStateReady = null;
+
+	private BitmapCache mStateBitmaps = null;
 	
 	public GameUi(Context context, int drawable)
 	{
-		super(context, drawable);
-		this.mContext = context;
-		this.mDrawableStateNormal = drawable;
+		super(context);
+		this.mStateBitmaps = getStateBitmaps(context);
+
+		this.setDrawableStateNormal(drawable);
+		this.setBitmap(this.mBitmapStateNormal);
+	}
+
+	/**
+	 * Gets the cache shared by all UI elements, creating it if necessary.
+	 * @param Context context
+	 * @return BitmapCache
+	 */
+	private static synchronized BitmapCache getStateBitmaps(Context context)
+	{
+		if (sStateBitmaps == null)
+		{
+			sStateBitmaps = new BitmapCache(context.getApplicationContext().getResources(),
+					STATE_BITMAP_CACHE_BYTES, Bitmap.Config.ARGB_8888, 1);
+		}
+
+		return sStateBitmaps;
+	}
+
+	/**
+	 * Swaps the bitmap used for a state drawable, acquiring the new bitmap
+	 * from the shared cache and releasing the previous one.
+	 * @param int previousDrawable - The previous drawable resource ID, or 0.
+	 * @param int drawable - The new drawable resource ID, or 0.
+	 * @return Bitmap - The bitmap for the new drawable, or null.
+	 */
+	private Bitmap swapStateBitmap(int previousDrawable, int drawable)
+	{
+		Bitmap bitmap = null;
+
+		if (drawable > 0)
+		{
+			bitmap = this.mStateBitmaps.acquire(drawable);
+		}
+
+		if (previousDrawable > 0)
+		{
+			this.mStateBitmaps.release(previousDrawable);
+		}
+
+		return bitmap;
+	}
+
+	/**
+	 * Releases the bitmaps of all state drawables, once the UI element
+	 * is no longer used.
+	 */
+	public void release()
+	{
+		this.setDrawableStateNormal(0);
+		this.setDrawableStateInactive(0);
+		this.setDrawableStateActive(0);
+		this.setDrawableStateReady(0);
 	}
 
 	public void setStateNormal()
 	{
 		this.mState = STATE_NORMAL;
 		
-		if (this.mDrawableStateNormal > 0)
+		if (this.mBitmapStateNormal != null)
 		{
-			this.setDrawable(this.mContext, this.mDrawableStateNormal);
+			this.setBitmap(this.mBitmapStateNormal);
 		}
 	}
 	
@@ -51,9 +126,9 @@ public class GameUi extends GameUnit
 	{
 		this.mState = STATE_INACTIVE;
 		
-		if (this.mDrawableStateInactive > 0)
+		if (this.mBitmapStateInactive != null)
 		{
-			this.setDrawable(this.mContext, this.mDrawableStateInactive);
+			this.setBitmap(this.mBitmapStateInactive);
 		}
 	}
 	
@@ -61,9 +136,9 @@ public class GameUi extends GameUnit
 	{
 		this.mState = STATE_ACTIVE;
 		
-		if (this.mDrawableStateActive > 0)
+		if (this.mBitmapStateActive != null)
 		{
-			this.setDrawable(this.mContext, this.mDrawableStateActive);
+			this.setBitmap(this.mBitmapStateActive);
 		}
 	}
 	
@@ -71,9 +146,9 @@ public class GameUi extends GameUnit
 	{
 		this.mState = STATE_READY;
 		
-		if (this.mDrawableStateReady > 0)
+		if (this.mBitmapStateReady != null)
 		{
-			this.setDrawable(this.mContext, this.mDrawableStateReady);
+			this.setBitmap(this.mBitmapStateReady);
 		}
 	}
 	
@@ -84,6 +159,7 @@ public class GameUi extends GameUnit
 
 	public void setDrawableStateNormal(int mDrawableStateNormal)
 	{
+		this.mBitmapStateNormal = this.swapStateBitmap(this.mDrawableStateNormal, mDrawableStateNormal);
 		this.mDrawableStateNormal = mDrawableStateNormal;
 	}
 
@@ -94,6 +170,7 @@ public class GameUi extends GameUnit
 
 	public void setDrawableStateInactive(int mDrawableStateInactive)
 	{
+		this.mBitmapStateInactive = this.swapStateBitmap(this.mDrawableStateInactive, mDrawableStateInactive);
 		this.mDrawableStateInactive = mDrawableStateInactive;
 	}
 
@@ -104,6 +181,7 @@ public class GameUi extends GameUnit
 
 	public void setDrawableStateActive(int mDrawableStateActive)
 	{
+		this.mBitmapStateActive = this.swapStateBitmap(this.mDrawableStateActive, mDrawableStateActive);
 		this.mDrawableStateActive = mDrawableStateActive;
 	}
 
@@ -114,6 +192,7 @@ public class GameUi extends GameUnit
 
 	public void setDrawableStateReady(int mDrawableStateReady)
 	{
+		this.mBitmapStateReady = this.swapStateBitmap(this.mDrawableStateReady, mDrawableStateReady);
 		this.mDrawableStateReady = mDrawableStateReady;
 	}
 	
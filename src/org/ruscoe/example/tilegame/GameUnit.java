@@ -19,6 +19,14 @@ public class GameUnit extends GameImage
 	private int id;
 	private static int count = 1;
 
+	public GameUnit(Context context)
+	{
+		super(context);
+
+		id=count;
+		count++;
+	}
+
 	public GameUnit(Context context, int drawable)
 	{
 		super(context, drawable);
@@ -29,27 +37,30 @@ public class GameUnit extends GameImage
 	
 	public Rect getRect()
 	{
-		Rect rect = new Rect((int)mX, (int)mY, ((int)mX + this.getWidth()), ((int)mY + this.getHeight()));
+		Rect rect = new Rect();
+		return this.getRect(rect);
+	}
+
+	/**
+	 * Sets a given Rect to the bounds of the unit, allowing the
+	 * Rect to be reused.
+	 * @param Rect rect
+	 * @return Rect - The given Rect.
+	 */
+	public Rect getRect(Rect rect)
+	{
+		rect.set(mX, mY, (mX + this.getWidth()), (mY + this.getHeight()));
 		return rect;
 	}
 	
 	public boolean getCollision(int x, int y, int width, int height)
 	{
-		Rect rect = new Rect((int)x, (int)y, ((int)x + width), ((int)y + height));
-		return (rect.intersects((int)mX, (int)mY, ((int)mX + getWidth()), ((int)mY + getHeight())));
+		return GameCollision.intersects(x, y, width, height, mX, mY, getWidth(), getHeight());
 	}
 	
 	public boolean getImpact(int x, int y)
 	{
-		if ((x >= mX) && (x <= (mX + this.getWidth())))
-		{
-			if ((y >= mY) && (y <= (mY + this.getHeight())))
-			{
-				return true;
-			}
-		}
-
-		return false;
+		return GameCollision.contains(mX, mY, this.getWidth(), this.getHeight(), x, y);
 	}
 
 	public static int getCount()
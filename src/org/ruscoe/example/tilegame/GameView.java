@@ -1,13 +1,17 @@
 package org.ruscoe.example.tilegame;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Date;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.ruscoe.example.tilegame.PlayerUnit;
 import org.ruscoe.example.tilegame.R;
-import org.ruscoe.example.tilegame.data.GameLevelTileData;
-import org.ruscoe.example.tilegame.data.GameTileData;
+import org.ruscoe.example.tilegame.data.GameDAO;
 
 import android.content.Context;
 import android.content.res.Resources;
@@ -16,8 +20,8 @@ import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Point;
 import android.graphics.Typeface;
+import android.os.Build;
 import android.os.Handler;
 import android.util.Log;
 import android.view.Display;
@@ -26,16 +30,28 @@ import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
 /**
- * The game view and main game thread.
+ * The game view, main game thread and render thread.
  * 
- * GameView creates a new thread (GameThread) to handle all calculations
- * and drawing of game components.
+ * GameView creates a new thread (GameThread) to handle all calculations,
+ * and a second thread (RenderThread) to draw game components, so on
+ * devices with more than one core the next game state is calculated
+ * while the last one is drawn.
  * 
  * GameThread contains the run() function, which serves as the game loop,
- * updating each cycle while the game is running.
+ * updating each cycle while the game is running. The game is updated in
+ * fixed time steps (ticks), independent of how often the screen is drawn,
+ * so the game runs at the same speed on every device. After updating,
+ * the game thread publishes a snapshot of the game state holding a list
+ * of render commands: the sprites to draw, their layers and positions.
+ * 
+ * RenderThread draws the latest published snapshot each frame, and
+ * nothing else; it never reads the game while it is being updated.
+ * 
+ * Game levels are loaded on a background thread by GameLevelLoader, and
+ * swapped in by the game thread once loaded.
  * 
  * To see how game level data is parsed and turned into a playable, tile level,
- * see the function GameView.parseGameLevelData.
+ * see the function GameLevelLoader.parseGameLevelData.
  * 
  * @author Dan Ruscoe (ruscoe.org)
  * @version 1.0
@@ -47,20 +63,76 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback
 	private static final int START_STAGE = 1;
 	private static final int START_LEVEL = 1;
 
-	private static final int DIRECTION_UP = 1;
-	private static final int DIRECTION_DOWN = 2;
-	private static final int DIRECTION_LEFT = 3;
-	private static final int DIRECTION_RIGHT = 4;
+	private static final int DIRECTION_NONE = GameSimulation.DIRECTION_NONE;
+	private static final int DIRECTION_UP = GameSimulation.DIRECTION_UP;
+	private static final int DIRECTION_DOWN = GameSimulation.DIRECTION_DOWN;
+	private static final int DIRECTION_LEFT = GameSimulation.DIRECTION_LEFT;
+	private static final int DIRECTION_RIGHT = GameSimulation.DIRECTION_RIGHT;
+
+	/**
+	 * Bits of the game controls, combined into the set of controls held.
+	 */
+	private static final int CONTROL_UP = 1;
+	private static final int CONTROL_DOWN = 2;
+	private static final int CONTROL_LEFT = 4;
+	private static final int CONTROL_RIGHT = 8;
+
+	private static final int INPUT_QUEUE_CAPACITY = 64;
+
+	/**
+	 * Sprite IDs of the render commands drawing bitmaps other than tiles.
+	 */
+	private static final int SPRITE_BACKGROUND = 0;
+	private static final int SPRITE_PLAYER = 1;
+	private static final int SPRITE_CTRL_UP_ARROW = 2;
+	private static final int SPRITE_CTRL_DOWN_ARROW = 3;
+	private static final int SPRITE_CTRL_LEFT_ARROW = 4;
+	private static final int SPRITE_CTRL_RIGHT_ARROW = 5;
+
+	/**
+	 * The frame stats phase each render command layer is drawn in.
+	 */
+	private static final int[] LAYER_PHASES = {
+		FrameStats.PHASE_DRAW_BACKGROUND, FrameStats.PHASE_DRAW_TILES, FrameStats.PHASE_DRAW_TILES,
+		FrameStats.PHASE_DRAW_PLAYER, FrameStats.PHASE_DRAW_UI
+	};
 
 	public static final int STATE_RUNNING = 1;
 	public static final int STATE_PAUSED = 2;
 
+	/**
+	 * Frame pacing modes.
+	 * PACING_SLEEP sleeps until the next game tick is due, drawing at most
+	 * once per tick. PACING_VSYNC draws as often as the display accepts new
+	 * frames, relying on lockCanvas to wait for the display refresh.
+	 */
+	public static final int PACING_SLEEP = 1;
+	public static final int PACING_VSYNC = 2;
+
+	private static final int DEFAULT_TICKS_PER_SECOND = 60;
+	private static final int DEFAULT_MAX_CATCH_UP_TICKS = 5;
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	private static final long NANOS_PER_MILLISECOND = 1000000L;
+
+	/**
+	 * Frames taking longer than this, below 30 frames per second, are
+	 * counted as slow.
+	 */
+	private static final long SLOW_FRAME_NANOS = (NANOS_PER_SECOND / 30);
+
+	/**
+	 * How often the frame stats shown on screen are updated.
+	 */
+	private static final long FRAME_STATS_MESSAGE_INTERVAL_NANOS = (NANOS_PER_SECOND / 2);
+
 	private int mScreenXMax = 0;
 	private int mScreenYMax = 0;
-	private int mScreenXCenter = 0;
-	private int mScreenYCenter = 0;
-	private int mScreenXOffset = 0;
-	private int mScreenYOffset = 0;
+
+	/**
+	 * The area of the level shown on screen. Only used by the game thread.
+	 */
+	private GameCamera mCamera = null;
 
 	private float mScreenDensity;
 	
@@ -68,25 +140,74 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback
 	private Play mGameActivity;
 	private SurfaceHolder mGameSurfaceHolder = null;
 
-	private boolean updatingGameTiles = false;
-
-	private GameTileData mGameTileData = null;
-	private GameLevelTileData mGameLevelTileData = null;
+	private GameLevelLoader mGameLevelLoader = null;
 
 	private PlayerUnit mPlayerUnit = null;
 
 	private int mPlayerStage = START_STAGE;
 	private int mPlayerLevel = START_LEVEL;
 
+	/**
+	 * The background image as loaded, and scaled to the surface size.
+	 * The scaled image is only used by the render thread.
+	 */
+	private Bitmap mBackgroundSource = null;
 	private Bitmap mBackgroundImage = null;
 
-	private int mGameState;
+	/**
+	 * The latest surface size, applied by the game and render threads at
+	 * the start of their next frame.
+	 */
+	private AtomicReference<SurfaceSize> mSurfaceSize = new AtomicReference<SurfaceSize>();
+
+	private volatile int mGameState;
+
+	private volatile boolean mGameRun = true;
+
+	private long mTickNanos = (NANOS_PER_SECOND / DEFAULT_TICKS_PER_SECOND);
+	private int mMaxCatchUpTicks = DEFAULT_MAX_CATCH_UP_TICKS;
+	private int mPacingMode = PACING_VSYNC;
 
-	private boolean mGameRun = true;
+	/**
+	 * Whether sprites are sorted and drawn in batches by bitmap, or drawn
+	 * one at a time in the order of the render commands.
+	 * 
+	 * Off by default: batching makes the same number of draw calls, so
+	 * sorting only adds to the time taken to draw a frame.
+	 */
+	private volatile boolean mSpriteBatching = false;
 
-	private boolean mPlayerMoving = false;
-	private int mPlayerVerticalDirection = 0;
-	private int mPlayerHorizontalDirection = 0;
+	/**
+	 * Whether game tiles are drawn from bitmaps of whole chunks of tiles,
+	 * or one at a time.
+	 */
+	private volatile boolean mTileChunkCaching = true;
+
+	/**
+	 * The chunks of game tiles drawn. Only used by the render thread.
+	 */
+	private TileChunkCache mTileChunkCache = new TileChunkCache(TileChunkCache.DEFAULT_CHUNK_SIZE,
+			TileChunkCache.DEFAULT_MIN_BYTES);
+
+	/**
+	 * The controls held, passed from the UI thread to the game thread
+	 * each time they change.
+	 */
+	private InputQueue mInputQueue = new InputQueue(INPUT_QUEUE_CAPACITY);
+	private int[] mInputControls = new int[mInputQueue.getCapacity()];
+	private long[] mInputTimes = new long[mInputQueue.getCapacity()];
+
+	/**
+	 * The controls held, as last queued. Only used by the UI thread.
+	 */
+	private int mQueuedControls = 0;
+
+	/**
+	 * The controls held, and the controls applied by the current game
+	 * tick. Only used by the game thread.
+	 */
+	private int mHeldControls = 0;
+	private int mTickControls = 0;
 
 	private GameUi mCtrlUpArrow = null;
 	private GameUi mCtrlDownArrow = null;
@@ -97,28 +218,107 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback
 	private String mLastStatusMessage = "";
 
 	/**
-	 * Templates defining all available game tiles.
+	 * The time taken by each phase of the game loop.
 	 */
-	private HashMap<Integer, ArrayList<Integer>> mGameTileTemplates = null;
+	private FrameStats mFrameStats = new FrameStats(SLOW_FRAME_NANOS);
+
+	private volatile boolean mShowFrameStats = false;
 
 	/**
-	 * Bitmap instances for each game tile type.
+	 * Told the file of the frame stats report requested by dumpFrameStats,
+	 * until the report is taken.
 	 */
-	private HashMap<Integer, Bitmap> mGameTileBitmaps = new HashMap<Integer, Bitmap>();
+	private final AtomicReference<FrameStatsListener> mFrameStatsRequest = new AtomicReference<FrameStatsListener>();
 
 	/**
-	 * GameTile instances for each game tile used by the current level.
+	 * The frame stats shown on screen. Only used by the render thread.
 	 */
-	private List<GameTile> mGameTiles = new ArrayList<GameTile>();
+	private String mFrameStatsMessage = "";
+	private long mFrameStatsMessageTime = 0;
 
-	private int mPlayerStartTileX = 0;
-	private int mPlayerStartTileY = 0;
-	
-	private int mTileWidth = 0;
-	private int mTileHeight = 0;
+	/**
+	 * The current level. Only used by the game thread; newly loaded levels
+	 * are taken from mGameLevelLoader at the start of a game tick.
+	 */
+	private GameLevel mGameLevel = null;
+
+	/**
+	 * The current level, published by the game thread whenever it takes
+	 * a newly loaded level, for reading from other threads.
+	 */
+	private volatile GameLevel mPublishedGameLevel = null;
+
+	/**
+	 * The game time tile animations are driven by, in nanoseconds. Only
+	 * advances while the game is running. Only used by the game thread.
+	 */
+	private long mAnimationNanos = 0;
+
+	/**
+	 * The game rules, applied to the current level.
+	 */
+	private GameSimulation mSimulation = null;
+
+	/**
+	 * Passes the state of the game from the game thread to the render thread.
+	 */
+	private GameStateBuffer mStateBuffer = new GameStateBuffer();
+
+	/**
+	 * Levels replaced by newly loaded levels, released by the render
+	 * thread once it no longer draws them.
+	 */
+	private ConcurrentLinkedQueue<RetiredLevel> mRetiredLevels = new ConcurrentLinkedQueue<RetiredLevel>();
+
+	/**
+	 * A level replaced by a newly loaded level, drawn by snapshots up to
+	 * and including a given sequence number.
+	 */
+	/**
+	 * Receives the file a frame stats report was written to.
+	 */
+	public interface FrameStatsListener
+	{
+		/**
+		 * Called on the UI thread once the report has been written.
+		 * @param File file - The report file, or null if it could not be written.
+		 */
+		void onFrameStatsDumped(File file);
+	}
+
+	private static class RetiredLevel
+	{
+		final GameLevel mGameLevel;
+		final long mLastSequence;
+
+		RetiredLevel(GameLevel gameLevel, long lastSequence)
+		{
+			this.mGameLevel = gameLevel;
+			this.mLastSequence = lastSequence;
+		}
+	}
+
+	/**
+	 * A new surface size, along with the background image scaled to it.
+	 */
+	private static class SurfaceSize
+	{
+		final int mWidth;
+		final int mHeight;
+		final Bitmap mBackgroundImage;
+
+		SurfaceSize(int width, int height, Bitmap backgroundImage)
+		{
+			this.mWidth = width;
+			this.mHeight = height;
+			this.mBackgroundImage = backgroundImage;
+		}
+	}
 
 	class GameThread extends Thread
 	{
+		private SurfaceSize mAppliedSurfaceSize = null;
+
 		public GameThread(SurfaceHolder surfaceHolder, Context context,
 				Handler handler)
 		{
@@ -127,32 +327,47 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback
 
 			Resources res = context.getResources();
 
-			mBackgroundImage = BitmapFactory.decodeResource(res, R.drawable.canvas_bg_01);
+			mBackgroundSource = BitmapFactory.decodeResource(res, R.drawable.canvas_bg_01);
+			mBackgroundImage = mBackgroundSource;
 
 			Display display = mGameActivity.getWindowManager().getDefaultDisplay();
 			mScreenXMax = display.getWidth();
 			mScreenYMax = display.getHeight();
-			mScreenXCenter = (mScreenXMax / 2);
-			mScreenYCenter = (mScreenYMax / 2);
+			mCamera = new GameCamera(mScreenXMax, mScreenYMax);
 
 			setGameStartState();
 		}
 
 		/**
 		 * Callback invoked when the surface dimensions change.
+		 * The background image is scaled here, and the new size applied by
+		 * the game and render threads at the start of their next frame.
 		 */
 		public void setSurfaceSize(int width, int height)
 		{
-			// synchronized to make sure these all change atomically
-			synchronized (mGameSurfaceHolder)
+			Bitmap backgroundImage = Bitmap.createScaledBitmap(mBackgroundSource,
+					width, height, true);
+
+			mSurfaceSize.set(new SurfaceSize(width, height, backgroundImage));
+		}
+
+		/**
+		 * Applies a surface size change to the camera, if any.
+		 */
+		private void updateSurfaceSize()
+		{
+			SurfaceSize surfaceSize = mSurfaceSize.get();
+
+			if (surfaceSize != mAppliedSurfaceSize)
 			{
-				mBackgroundImage = Bitmap.createScaledBitmap(mBackgroundImage,
-						width, height, true);
+				mCamera.setScreenSize(surfaceSize.mWidth, surfaceSize.mHeight);
+				mAppliedSurfaceSize = surfaceSize;
 			}
 		}
 
 		/**
-		 * Sets the run status of the game loop inside the game thread.
+		 * Sets the run status of the game loop inside the game thread,
+		 * and of the render loop inside the render thread.
 		 * @param boolean run - true when game should run, false otherwise.
 		 */
 		public void setRunning(boolean run)
@@ -176,38 +391,395 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback
 		{
 			mGameState = state;
 		}
+
+		/**
+		 * Sets the number of game ticks per second.
+		 * @param int ticksPerSecond
+		 */
+		public void setTickRate(int ticksPerSecond)
+		{
+			if (ticksPerSecond > 0)
+			{
+				mTickNanos = (NANOS_PER_SECOND / ticksPerSecond);
+			}
+		}
+
+		/**
+		 * Sets the maximum number of game ticks run before drawing a frame.
+		 * Time beyond this limit (e.g. after a long stall) is dropped,
+		 * preventing the game from falling ever further behind.
+		 * @param int maxCatchUpTicks
+		 */
+		public void setMaxCatchUpTicks(int maxCatchUpTicks)
+		{
+			if (maxCatchUpTicks > 0)
+			{
+				mMaxCatchUpTicks = maxCatchUpTicks;
+			}
+		}
+
+		/**
+		 * Sets the frame pacing mode.
+		 * @param int pacingMode - May be PACING_SLEEP or PACING_VSYNC
+		 */
+		public void setPacingMode(int pacingMode)
+		{
+			mPacingMode = pacingMode;
+		}
+
+		/**
+		 * Sets whether sprites are drawn in batches by bitmap.
+		 * @param boolean spriteBatching
+		 */
+		public void setSpriteBatching(boolean spriteBatching)
+		{
+			mSpriteBatching = spriteBatching;
+		}
+
+		/**
+		 * Sets whether game tiles are drawn from bitmaps of whole chunks of tiles.
+		 * @param boolean tileChunkCaching
+		 */
+		public void setTileChunkCaching(boolean tileChunkCaching)
+		{
+			mTileChunkCaching = tileChunkCaching;
+		}
 		
 		/**
 		 * Contains the main game loop, which updates all elements of the game.
+		 * 
+		 * Elapsed time is accumulated and consumed in fixed game ticks.
+		 * After the ticks due, the state of the game is published as a
+		 * snapshot for the render thread to draw, and the thread sleeps
+		 * until the next tick is due. No lock is held, so neither drawing
+		 * nor lifecycle calls from the UI thread ever stall the game.
 		 */
 		@Override
 		public void run()
 		{
+			long previousTime = System.nanoTime();
+			long accumulator = 0;
+
 			while (mGameRun)
 			{
-				Canvas c = null;
-				try
+				long tickNanos = mTickNanos;
+				long currentTime = System.nanoTime();
+
+				accumulator += (currentTime - previousTime);
+				previousTime = currentTime;
+
+				updateSurfaceSize();
+
+				int ticks = 0;
+
+				while ((accumulator >= tickNanos) && (ticks < mMaxCatchUpTicks))
 				{
-					c = mGameSurfaceHolder.lockCanvas(null);
-					synchronized (mGameSurfaceHolder)
-					{
-						if (mGameState == STATE_RUNNING)
-						{
-							updatePlayerUnit();
-						}
+					updateGame();
 
-						doDraw(c);
-					}
-				} finally
+					accumulator -= tickNanos;
+					ticks++;
+				}
+
+				// Drop any time the game could not catch up with.
+				if (accumulator >= tickNanos)
 				{
-					if (c != null)
+					accumulator %= tickNanos;
+				}
+
+				if (ticks > 0)
+				{
+					publishState();
+
+					mFrameStats.recordUpdate(System.nanoTime() - currentTime);
+				}
+
+				waitForNextTick(tickNanos - (accumulator + (System.nanoTime() - previousTime)));
+			}
+
+			return;
+		}
+
+		/**
+		 * Advances the game by a single game tick.
+		 */
+		private void updateGame()
+		{
+			updateInput();
+
+			GameLevel loadedLevel = mGameLevelLoader.takeLoadedLevel();
+
+			if (loadedLevel != null)
+			{
+				// The render thread may still be drawing the old level.
+				if (mGameLevel != null)
+				{
+					mRetiredLevels.add(new RetiredLevel(mGameLevel, mStateBuffer.getSequence()));
+				}
+
+				mGameLevel = loadedLevel;
+				mPublishedGameLevel = loadedLevel;
+				setPlayerStart();
+			}
+
+			if (mGameLevel == null)
+			{
+				return;
+			}
+
+			if (mPlayerUnit != null)
+			{
+				mPlayerUnit.savePreviousPosition();
+
+				// Keep the tiles on screen around the player available.
+				mGameLevel.getTileMap().setActiveArea(
+						(mPlayerUnit.getCenterX() - (mCamera.getScreenWidth() / 2)),
+						(mPlayerUnit.getCenterY() - (mCamera.getScreenHeight() / 2)),
+						mCamera.getScreenWidth(), mCamera.getScreenHeight());
+			}
+
+			if (mGameState == STATE_RUNNING)
+			{
+				mAnimationNanos += mTickNanos;
+
+				updatePlayerUnit();
+			}
+		}
+
+		/**
+		 * Publishes a snapshot of the state of the game to draw.
+		 * Every field of the snapshot is written, as it may hold an older state.
+		 */
+		private void publishState()
+		{
+			GameState state = mStateBuffer.getBackState();
+
+			state.setGameLevel(mGameLevel);
+			state.setStatusMessage(mLastStatusMessage);
+
+			buildRenderCommands(state.getRenderCommands());
+
+			state.setPublishTime(System.nanoTime());
+
+			mStateBuffer.publish();
+		}
+
+		/**
+		 * Builds the render commands drawing the game, in layer order:
+		 * the background, the game tiles, the player unit and the controls.
+		 * 
+		 * The camera follows the player unit, so it moves along with the
+		 * player unit between its previous and current positions.
+		 * @param RenderCommandList commands
+		 */
+		private void buildRenderCommands(RenderCommandList commands)
+		{
+			commands.clear();
+
+			commands.add(RenderCommandList.LAYER_BACKGROUND, SPRITE_BACKGROUND, 0, 0);
+
+			int previousX = mPlayerUnit.getPreviousX();
+			int previousY = mPlayerUnit.getPreviousY();
+			int x = mPlayerUnit.getX();
+			int y = mPlayerUnit.getY();
+
+			mCamera.centerOn((previousX + (mPlayerUnit.getWidth() / 2)), (previousY + (mPlayerUnit.getHeight() / 2)));
+			int previousCameraX = mCamera.getX();
+			int previousCameraY = mCamera.getY();
+
+			mCamera.centerOn((x + (mPlayerUnit.getWidth() / 2)), (y + (mPlayerUnit.getHeight() / 2)));
+			int cameraX = mCamera.getX();
+			int cameraY = mCamera.getY();
+
+			commands.setCamera(previousCameraX, previousCameraY, cameraX, cameraY);
+
+			if (mGameLevel != null)
+			{
+				// Cover every camera position between the previous and current positions.
+				int areaX = Math.min(previousCameraX, cameraX);
+				int areaY = Math.min(previousCameraY, cameraY);
+				int areaWidth = (Math.abs(cameraX - previousCameraX) + mCamera.getScreenWidth());
+				int areaHeight = (Math.abs(cameraY - previousCameraY) + mCamera.getScreenHeight());
+
+				// Every tile of an animated tile ID shows the same frame.
+				mGameLevel.getTileAnimator().update(mAnimationNanos);
+
+				// Animated tiles are left out of tile chunks, and drawn on their own.
+				if (mTileChunkCaching)
+				{
+					addTileChunkCommands(commands, mGameLevel.getTileMap(), areaX, areaY, areaWidth, areaHeight);
+					addTileCommands(commands, mGameLevel, (TileMap.FLAG_VISIBLE | TileMap.FLAG_ANIMATED),
+							areaX, areaY, areaWidth, areaHeight);
+				}
+				else
+				{
+					addTileCommands(commands, mGameLevel, TileMap.FLAG_VISIBLE, areaX, areaY, areaWidth, areaHeight);
+				}
+			}
+
+			commands.add(RenderCommandList.LAYER_UNITS, SPRITE_PLAYER, previousX, previousY, x, y);
+
+			commands.add(RenderCommandList.LAYER_UI, SPRITE_CTRL_UP_ARROW, mCtrlUpArrow.getX(), mCtrlUpArrow.getY());
+			commands.add(RenderCommandList.LAYER_UI, SPRITE_CTRL_DOWN_ARROW, mCtrlDownArrow.getX(), mCtrlDownArrow.getY());
+			commands.add(RenderCommandList.LAYER_UI, SPRITE_CTRL_LEFT_ARROW, mCtrlLeftArrow.getX(), mCtrlLeftArrow.getY());
+			commands.add(RenderCommandList.LAYER_UI, SPRITE_CTRL_RIGHT_ARROW, mCtrlRightArrow.getX(), mCtrlRightArrow.getY());
+		}
+
+		/**
+		 * Adds render commands drawing the game tiles in an area of the
+		 * level having a set of flags, showing the current frame of
+		 * animated tiles. Only the tiles intersecting the area are visited.
+		 * @param RenderCommandList commands
+		 * @param GameLevel gameLevel
+		 * @param int flags - The TileMap.FLAG_ values of the tiles to draw.
+		 * @param int areaX - The X (horizontal) level position of the area.
+		 * @param int areaY - The Y (vertical) level position of the area.
+		 * @param int areaWidth
+		 * @param int areaHeight
+		 */
+		private void addTileCommands(RenderCommandList commands, GameLevel gameLevel, int flags,
+				int areaX, int areaY, int areaWidth, int areaHeight)
+		{
+			TileMap tileMap = gameLevel.getTileMap();
+			TileAnimator tileAnimator = gameLevel.getTileAnimator();
+
+			if ((tileMap == null) || (tileMap.getColumns() == 0) || (tileMap.getRows() == 0))
+			{
+				return;
+			}
+
+			int tileWidth = tileMap.getTileWidth();
+			int tileHeight = tileMap.getTileHeight();
+			int levelWidth = (tileMap.getColumns() * tileWidth);
+			int levelHeight = (tileMap.getRows() * tileHeight);
+
+			// Nothing to draw when the area is entirely outside the level.
+			if ((areaX >= levelWidth) || ((areaX + areaWidth) <= 0)
+					|| (areaY >= levelHeight) || ((areaY + areaHeight) <= 0))
+			{
+				return;
+			}
+
+			int firstColumn = tileMap.getColumnAt(areaX);
+			int lastColumn = tileMap.getColumnAt(areaX + areaWidth - 1);
+			int firstRow = tileMap.getRowAt(areaY);
+			int lastRow = tileMap.getRowAt(areaY + areaHeight - 1);
+
+			for (int row = firstRow; row <= lastRow; row++)
+			{
+				int cell = tileMap.getCell(firstColumn, row);
+
+				for (int column = firstColumn; column <= lastColumn; column++, cell++)
+				{
+					if ((tileMap.getFlags(cell) & flags) == flags)
 					{
-						mGameSurfaceHolder.unlockCanvasAndPost(c);
+						commands.add(RenderCommandList.LAYER_TILES, tileAnimator.getSprite(tileMap.getTileId(cell)),
+								(column * tileWidth), (row * tileHeight));
 					}
 				}
 			}
+		}
 
-			return;
+		/**
+		 * Adds render commands drawing the chunks of game tiles in an area
+		 * of the level, drawn from the bitmaps of the tile chunk cache.
+		 * @param RenderCommandList commands
+		 * @param TileMap tileMap
+		 * @param int areaX - The X (horizontal) level position of the area.
+		 * @param int areaY - The Y (vertical) level position of the area.
+		 * @param int areaWidth
+		 * @param int areaHeight
+		 */
+		private void addTileChunkCommands(RenderCommandList commands, TileMap tileMap,
+				int areaX, int areaY, int areaWidth, int areaHeight)
+		{
+			if ((tileMap == null) || (tileMap.getColumns() == 0) || (tileMap.getRows() == 0))
+			{
+				return;
+			}
+
+			int chunkSize = TileChunkCache.DEFAULT_CHUNK_SIZE;
+			int chunkWidth = (chunkSize * tileMap.getTileWidth());
+			int chunkHeight = (chunkSize * tileMap.getTileHeight());
+			int chunkColumns = TileChunkCache.getChunkCount(tileMap.getColumns(), chunkSize);
+
+			// Nothing to draw when the area is entirely outside the level.
+			if ((areaX >= (tileMap.getColumns() * tileMap.getTileWidth())) || ((areaX + areaWidth) <= 0)
+					|| (areaY >= (tileMap.getRows() * tileMap.getTileHeight())) || ((areaY + areaHeight) <= 0))
+			{
+				return;
+			}
+
+			int firstChunkColumn = (tileMap.getColumnAt(areaX) / chunkSize);
+			int lastChunkColumn = (tileMap.getColumnAt(areaX + areaWidth - 1) / chunkSize);
+			int firstChunkRow = (tileMap.getRowAt(areaY) / chunkSize);
+			int lastChunkRow = (tileMap.getRowAt(areaY + areaHeight - 1) / chunkSize);
+
+			for (int chunkRow = firstChunkRow; chunkRow <= lastChunkRow; chunkRow++)
+			{
+				for (int chunkColumn = firstChunkColumn; chunkColumn <= lastChunkColumn; chunkColumn++)
+				{
+					commands.add(RenderCommandList.LAYER_TILE_CHUNKS, ((chunkRow * chunkColumns) + chunkColumn),
+							(chunkColumn * chunkWidth), (chunkRow * chunkHeight));
+				}
+			}
+		}
+
+		/**
+		 * Applies the input events queued since the last game tick.
+		 * 
+		 * Controls held at any point since the last tick apply to this
+		 * tick, so a control pressed and released between ticks still
+		 * moves the player unit.
+		 */
+		private void updateInput()
+		{
+			int count = mInputQueue.drainTo(mInputControls, mInputTimes);
+
+			if (count == 0)
+			{
+				mTickControls = mHeldControls;
+				return;
+			}
+
+			long currentTime = System.nanoTime();
+			int tickControls = 0;
+
+			for (int i = 0; i < count; i++)
+			{
+				tickControls |= mInputControls[i];
+				mFrameStats.recordInputLatency(currentTime - mInputTimes[i]);
+			}
+
+			mHeldControls = mInputControls[count - 1];
+
+			if ((tickControls != mTickControls) && (tickControls != 0))
+			{
+				mLastStatusMessage = getMovingMessage(tickControls);
+			}
+
+			mTickControls = tickControls;
+		}
+
+		/**
+		 * Gets the status message for a set of controls held.
+		 * @param int controls
+		 * @return String
+		 */
+		private String getMovingMessage(int controls)
+		{
+			String message = "Moving";
+
+			if (getDirection(controls, CONTROL_UP, CONTROL_DOWN) != 0)
+			{
+				message += ((controls & CONTROL_UP) != 0) ? " up" : " down";
+			}
+
+			if (getDirection(controls, CONTROL_LEFT, CONTROL_RIGHT) != 0)
+			{
+				message += ((controls & CONTROL_LEFT) != 0) ? " left" : " right";
+			}
+
+			return message;
 		}
 
 		/**
@@ -215,12 +787,9 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback
 		 */
 		public void pause()
 		{
-			synchronized (mGameSurfaceHolder)
+			if (mGameState == STATE_RUNNING)
 			{
-				if (mGameState == STATE_RUNNING)
-				{
-					setState(STATE_PAUSED);
-				}
+				setState(STATE_PAUSED);
 			}
 		}
 
@@ -229,214 +798,365 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback
 		 */
 		public void unpause()
 		{
-			synchronized (mGameSurfaceHolder)
+			if (mGameState != STATE_RUNNING)
 			{
-				if (mGameState != STATE_RUNNING)
-				{
-					setState(STATE_RUNNING);
-				}
+				setState(STATE_RUNNING);
 			}
 		}
 
 		/**
-		 * Centers the game view around the location of the player unit.
+		 * Updates the direction, position and state of the player unit.
+		 * Called once per game tick.
+		 * 
+		 * Movement and collisions follow the rules of GameSimulation.
 		 */
-		private void centerView()
+		private void updatePlayerUnit()
 		{
-			mPlayerUnit.setUnmodifiedX(mPlayerUnit.getX() + mScreenXCenter);
-			mPlayerUnit.setUnmodifiedY(mPlayerUnit.getY() + mScreenYCenter);
+			int verticalDirection = getDirection(mTickControls, CONTROL_UP, CONTROL_DOWN);
+			int horizontalDirection = getDirection(mTickControls, CONTROL_LEFT, CONTROL_RIGHT);
+
+			mSimulation.setInput((mTickControls != 0),
+					((verticalDirection < 0) ? DIRECTION_UP : ((verticalDirection > 0) ? DIRECTION_DOWN : DIRECTION_NONE)),
+					((horizontalDirection < 0) ? DIRECTION_LEFT : ((horizontalDirection > 0) ? DIRECTION_RIGHT : DIRECTION_NONE)));
+			mSimulation.tick();
 
-			mScreenXOffset = (mPlayerUnit.getX() - mScreenXCenter);
-			mScreenYOffset = (mPlayerUnit.getY() - mScreenYCenter);
+			mPlayerUnit.setX(mSimulation.getPlayerX());
+			mPlayerUnit.setY(mSimulation.getPlayerY());
 
-			mPlayerUnit.setX(mScreenXCenter);
-			mPlayerUnit.setY(mScreenYCenter);
+			if (mSimulation.getCollisionType() != GameSimulation.NO_COLLISION)
+			{
+				handleTileCollision(mSimulation.getCollisionType());
+			}
 		}
 
 		/**
-		 * Draws all visual elements of the game.
-		 * @param Canvas canvas
+		 * Handles a collision between the player unit and a game tile.
+		 * @param int tileType - The type of the collision game tile.
+		 */
+		private void handleTileCollision(int tileType)
+		{
+			switch (tileType)
+			{
+			case GameTile.TYPE_DANGEROUS:
+				handleDangerousTileCollision();
+				break;
+			case GameTile.TYPE_EXIT:
+				handleExitTileCollision();
+				break;
+			default:
+				mLastStatusMessage = "Collision with regular tile";
+			}
+		}
+
+		/**
+		 * Handles a collision between the player unit and a dangerous
+		 * game tile.
+		 */
+		private void handleDangerousTileCollision()
+		{
+			mLastStatusMessage = "Collision with dangerous tile";
+		}
+
+		/**
+		 * Handles a collision between the player unit and an exit
+		 * game tile.
+		 */
+		private void handleExitTileCollision()
+		{
+			mLastStatusMessage = "Collision with exit tile";
+		}
+	}
+
+	class RenderThread extends Thread
+	{
+		private SurfaceSize mAppliedSurfaceSize = null;
+
+		/**
+		 * The sequence number of the game state drawn by the last frame,
+		 * including frames drawn by earlier render threads.
 		 */
-		private void doDraw(Canvas canvas)
+		private long mLastSequence = 0;
+
+		private SpriteBatcher mSpriteBatcher = new SpriteBatcher();
+
+		/**
+		 * Contains the render loop, which draws the latest game state
+		 * published by the game thread each frame.
+		 * 
+		 * Units are drawn between their positions before and after the
+		 * last game tick, by the fraction of a tick elapsed since the
+		 * game state was published.
+		 */
+		@Override
+		public void run()
 		{
-			centerView();
+			long previousTime = System.nanoTime();
+			boolean frameStarted = false;
 
-			if (canvas != null)
+			// Continue from the last state drawn before the surface was
+			// recreated, so those states don't count as dropped.
+			mLastSequence = mStateBuffer.getFrontSequence();
+
+			while (mGameRun)
 			{
-				canvas.drawBitmap(mBackgroundImage, 0, 0, null);
+				long tickNanos = mTickNanos;
+				long currentTime = System.nanoTime();
+
+				// The previous frame lasted until this one starts.
+				if (frameStarted)
+				{
+					mFrameStats.endFrame(currentTime - previousTime);
+					takeRequestedFrameStats();
+				}
+				frameStarted = true;
+
+				previousTime = currentTime;
+
+				updateSurfaceSize();
+
+				Canvas c = null;
+				try
+				{
+					c = mGameSurfaceHolder.lockCanvas(null);
+					long phaseStartTime = recordPhase(FrameStats.PHASE_LOCK_CANVAS, currentTime);
+
+					GameState state = mStateBuffer.acquireFrontState();
+					long stateAge = (phaseStartTime - state.getPublishTime());
+
+					// Until the first state is published, there is no state
+					// age or dropped state to record.
+					if (state.getSequence() > 0)
+					{
+						mFrameStats.recordState((state.getSequence() - mLastSequence), stateAge);
+					}
+					mLastSequence = state.getSequence();
+
+					releaseRetiredLevels(mLastSequence);
 
-				if (!updatingGameTiles)
+					doDraw(c, state, Math.min(1.0f, ((float) stateAge / tickNanos)), phaseStartTime);
+				} finally
 				{
-					drawGameTiles(canvas);
+					if (c != null)
+					{
+						long postStartTime = System.nanoTime();
+						mGameSurfaceHolder.unlockCanvasAndPost(c);
+						recordPhase(FrameStats.PHASE_POST, postStartTime);
+					}
 				}
 
-				if (mPlayerUnit != null)
+				if (mPacingMode == PACING_SLEEP)
 				{
-					canvas.drawBitmap(mPlayerUnit.getBitmap(), mPlayerUnit.getX(),
-						mPlayerUnit.getY(), null);
+					waitForNextTick(tickNanos - (System.nanoTime() - currentTime));
 				}
+			}
+
+			// Nothing is drawn any more, so every retired level can go.
+			releaseRetiredLevels(Long.MAX_VALUE);
+
+			mTileChunkCache.clear();
 
-				drawControls(canvas);
+			return;
+		}
 
-				canvas.drawText(mLastStatusMessage, 30, 50, mUiTextPaint);
+		/**
+		 * Applies a surface size change to the background image and the
+		 * memory limit of the tile chunk cache, if any.
+		 */
+		private void updateSurfaceSize()
+		{
+			SurfaceSize surfaceSize = mSurfaceSize.get();
+
+			if (surfaceSize != mAppliedSurfaceSize)
+			{
+				mBackgroundImage = surfaceSize.mBackgroundImage;
+				mTileChunkCache.setScreenSize(surfaceSize.mWidth, surfaceSize.mHeight);
+				mAppliedSurfaceSize = surfaceSize;
 			}
 		}
 
 		/**
-		 * Draws the game tiles used in the current level.
-		 * @param Canvas canvas
+		 * Releases the levels replaced by newly loaded levels that are no
+		 * longer drawn.
+		 * @param long sequence - The sequence number of the game state drawn.
 		 */
-		private void drawGameTiles(Canvas canvas)
+		private void releaseRetiredLevels(long sequence)
 		{
-			int gameTilesSize = mGameTiles.size();
-			for (int i = 0; i < gameTilesSize; i++)
+			RetiredLevel retiredLevel = mRetiredLevels.peek();
+
+			// Game states are drawn in sequence, so once drawing a newer
+			// state, older states are never drawn again.
+			while ((retiredLevel != null) && (retiredLevel.mLastSequence < sequence))
 			{
-				if (mGameTiles.get(i) != null)
-				{
-					mGameTiles.get(i).setX(
-							mGameTiles.get(i).getX() - mScreenXOffset);
-					mGameTiles.get(i).setY(
-							mGameTiles.get(i).getY() - mScreenYOffset);
+				mRetiredLevels.poll();
+				retiredLevel.mGameLevel.release();
 
-					if (mGameTiles.get(i).isVisible())
-					{
-						canvas.drawBitmap(mGameTiles.get(i).getBitmap(),
-								mGameTiles.get(i).getX(), mGameTiles.get(i)
-										.getY(), null);
-					}
-				}
+				retiredLevel = mRetiredLevels.peek();
 			}
 		}
 
 		/**
-		 * Draws the game controls.
-		 * @param Canvas canvas
+		 * Records the time spent in a phase of the current frame.
+		 * @param int phase - One of the FrameStats.PHASE_ values.
+		 * @param long startTime - The time the phase started at.
+		 * @return long - The current time, when the next phase starts.
 		 */
-		private void drawControls(Canvas canvas)
+		private long recordPhase(int phase, long startTime)
 		{
-			canvas.drawBitmap(mCtrlUpArrow.getBitmap(), mCtrlUpArrow.getX(), mCtrlUpArrow.getY(), null);
-			canvas.drawBitmap(mCtrlDownArrow.getBitmap(), mCtrlDownArrow.getX(), mCtrlDownArrow.getY(), null);
-			canvas.drawBitmap(mCtrlLeftArrow.getBitmap(), mCtrlLeftArrow.getX(), mCtrlLeftArrow.getY(), null);
-			canvas.drawBitmap(mCtrlRightArrow.getBitmap(), mCtrlRightArrow.getX(), mCtrlRightArrow.getY(), null);
+			long currentTime = System.nanoTime();
+
+			mFrameStats.addPhaseTime(phase, (currentTime - startTime));
+
+			return currentTime;
 		}
 
 		/**
-		 * Updates the direction, position and state of the player unit.
+		 * Draws all visual elements of the game, by running the render
+		 * commands of a game state.
+		 * @param Canvas canvas
+		 * @param GameState state - The state of the game to draw.
+		 * @param float interpolation - The fraction of a game tick elapsed
+		 * 		since the game state was published, from 0 to 1.
+		 * @param long phaseStartTime - The time drawing started at.
 		 */
-		private void updatePlayerUnit()
+		private void doDraw(Canvas canvas, GameState state, float interpolation, long phaseStartTime)
 		{
-			GameTile collisionTile = null;
-
-			if (mPlayerMoving)
+			if (canvas == null)
 			{
-				int differenceX = 0;
-				int differenceY = 0;
-				int newX = mPlayerUnit.getX();
-				int newY = mPlayerUnit.getY();
+				return;
+			}
 
-				if (mPlayerHorizontalDirection != 0)
-				{
-					differenceX = (mPlayerHorizontalDirection == DIRECTION_RIGHT) ? getPixelValueForDensity(PlayerUnit.SPEED) : getPixelValueForDensity(-PlayerUnit.SPEED);
-					newX = (mPlayerUnit.getX() + differenceX);
-				}
+			RenderCommandList commands = state.getRenderCommands();
+			GameLevel gameLevel = state.getGameLevel();
+			TileAtlas tileAtlas = (gameLevel != null) ? gameLevel.getTileAtlas() : null;
 
-				if (mPlayerVerticalDirection != 0)
-				{
-					differenceY = (mPlayerVerticalDirection == DIRECTION_DOWN) ? getPixelValueForDensity(PlayerUnit.SPEED) : getPixelValueForDensity(-PlayerUnit.SPEED);
-					newY = (mPlayerUnit.getY() + differenceY);
-				}
+			// Level positions are offset by the camera.
+			int cameraX = commands.getCameraX(interpolation);
+			int cameraY = commands.getCameraY(interpolation);
 
-				collisionTile = getCollisionTile(newX, newY, mPlayerUnit.getWidth(), mPlayerUnit .getHeight());
+			SpriteBatcher batcher = mSpriteBatcher;
+			batcher.setBatching(mSpriteBatching);
+			batcher.begin(tileAtlas);
 
-				if ((collisionTile != null)
-						&& collisionTile.isBlockerTile())
-				{
-					handleTileCollision(collisionTile);
-				} else
+			TileChunkCache tileChunkCache = mTileChunkCache;
+			tileChunkCache.setTiles(((gameLevel != null) ? gameLevel.getTileMap() : null), tileAtlas);
+			tileChunkCache.beginFrame();
+
+			int commandCount = commands.getCount();
+
+			// Mark every chunk of the frame before drawing any, so drawing
+			// one never evicts another the frame is about to draw.
+			for (int i = 0; i < commandCount; i++)
+			{
+				if (commands.getLayer(i) == RenderCommandList.LAYER_TILE_CHUNKS)
 				{
-					mPlayerUnit.setX(newX);
-					mPlayerUnit.setY(newY);
+					tileChunkCache.markUsed(commands.getSprite(i));
 				}
 			}
-		}
-
-		/**
-		 * Detects a collision between a game unit and a game tile,
-		 * returns the collision tile if available.
-		 * 
-		 * @param x - The X (horizontal) position of the game unit. 
-		 * @param y - The Y (vertical) position of the game unit.
-		 * @param width - The width of the game unit.
-		 * @param height - The height of the game unit.
-		 * @return GameTile - The collision game tile, if available.
-		 */
-		private GameTile getCollisionTile(int x, int y, int width, int height)
-		{
-			GameTile gameTile = null;
 
-			int gameTilesSize = mGameTiles.size();
-			for (int i = 0; i < gameTilesSize; i++)
+			for (int i = 0; i < commandCount; i++)
 			{
-				gameTile = (GameTile) mGameTiles.get(i);
-				if ((gameTile != null) && gameTile.isCollisionTile())
+				int layer = commands.getLayer(i);
+				int sprite = commands.getSprite(i);
+				int x = commands.getX(i, interpolation);
+				int y = commands.getY(i, interpolation);
+
+				switch (layer)
 				{
-					// Make sure tiles don't collide with themselves
-					if ((gameTile.getX() == x) && (gameTile.getY() == y))
+				case RenderCommandList.LAYER_TILE_CHUNKS:
+					Bitmap chunkBitmap = tileChunkCache.getChunk(sprite);
+					if (chunkBitmap != null)
 					{
-						continue;
+						batcher.addBitmap(layer, sprite, chunkBitmap, (x - cameraX), (y - cameraY));
 					}
-
-					if (gameTile.getCollision(x, y, width, height))
+					break;
+				case RenderCommandList.LAYER_TILES:
+					if (tileAtlas != null)
 					{
-						return gameTile;
+						batcher.addTile(layer, sprite, (x - cameraX), (y - cameraY));
 					}
-				}
-			}
-			return null;
-		}
-
-		/**
-		 * Handles a collision between the player unit and a game tile.
-		 * @param GameTile gameTile - The collision game tile.
-		 */
-		private void handleTileCollision(GameTile gameTile)
-		{
-			if (gameTile != null)
-			{
-				switch (gameTile.getType())
-				{
-				case GameTile.TYPE_DANGEROUS:
-					handleDangerousTileCollision();
 					break;
-				case GameTile.TYPE_EXIT:
-					handleExitTileCollision();
+				case RenderCommandList.LAYER_UNITS:
+					batcher.addBitmap(layer, sprite, getSpriteBitmap(sprite), (x - cameraX), (y - cameraY));
 					break;
 				default:
-					mLastStatusMessage = "Collision with regular tile";
+					batcher.addBitmap(layer, sprite, getSpriteBitmap(sprite), x, y);
 				}
 			}
+
+			// Drawing the last layer goes on until the text is drawn.
+			for (int layer = 0; layer < RenderCommandList.LAYER_UI; layer++)
+			{
+				batcher.drawLayer(canvas, layer);
+				phaseStartTime = recordPhase(LAYER_PHASES[layer], phaseStartTime);
+			}
+
+			batcher.drawLayer(canvas, RenderCommandList.LAYER_UI);
+
+			mFrameStats.addDrawCounts(batcher.getSpriteCount(), batcher.getDrawCallCount(),
+					batcher.getBitmapSwitchCount());
+
+			canvas.drawText(state.getStatusMessage(), 30, 50, mUiTextPaint);
+
+			if (mShowFrameStats)
+			{
+				drawFrameStats(canvas, phaseStartTime);
+			}
+
+			recordPhase(LAYER_PHASES[RenderCommandList.LAYER_UI], phaseStartTime);
 		}
 
 		/**
-		 * Handles a collision between the player unit and a dangerous
-		 * game tile.
+		 * Gets the bitmap of a sprite other than a game tile.
+		 * @param int sprite - One of the SPRITE_ values.
+		 * @return Bitmap
 		 */
-		private void handleDangerousTileCollision()
+		private Bitmap getSpriteBitmap(int sprite)
 		{
-			mLastStatusMessage = "Collision with dangerous tile";
+			switch (sprite)
+			{
+			case SPRITE_BACKGROUND:
+				return mBackgroundImage;
+			case SPRITE_PLAYER:
+				return mPlayerUnit.getBitmap();
+			case SPRITE_CTRL_UP_ARROW:
+				return mCtrlUpArrow.getBitmap();
+			case SPRITE_CTRL_DOWN_ARROW:
+				return mCtrlDownArrow.getBitmap();
+			case SPRITE_CTRL_LEFT_ARROW:
+				return mCtrlLeftArrow.getBitmap();
+			default:
+				return mCtrlRightArrow.getBitmap();
+			}
 		}
 
 		/**
-		 * Handles a collision between the player unit and an exit
-		 * game tile.
+		 * Draws the median and 99th percentile frame times.
+		 * The text is only updated periodically, to keep it readable and
+		 * avoid creating a new string every frame.
+		 * @param Canvas canvas
+		 * @param long currentTime
 		 */
-		private void handleExitTileCollision()
+		private void drawFrameStats(Canvas canvas, long currentTime)
 		{
-			mLastStatusMessage = "Collision with exit tile";
+			if ((currentTime - mFrameStatsMessageTime) >= FRAME_STATS_MESSAGE_INTERVAL_NANOS)
+			{
+				mFrameStatsMessage = "Frame p50: "
+						+ FrameStats.formatMillis(mFrameStats.getPercentileMicros(FrameStats.PHASE_FRAME, 50))
+						+ "ms, p99: "
+						+ FrameStats.formatMillis(mFrameStats.getPercentileMicros(FrameStats.PHASE_FRAME, 99))
+						+ "ms, slow: " + mFrameStats.getSlowFrameCount()
+						+ ", stalled: " + mFrameStats.getStalledFrameCount()
+						+ ", draws: " + mFrameStats.getLastDrawCallCount();
+
+				mFrameStatsMessageTime = currentTime;
+			}
+
+			canvas.drawText(mFrameStatsMessage, 30, (50 + (mUiTextPaint.getTextSize() * 1.5f)), mUiTextPaint);
 		}
 	}
 
 	private GameThread thread;
+	private RenderThread renderThread;
 
 	/**
 	 * The game view.
@@ -458,16 +1178,14 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback
 		mPlayerStage = stage;
 		mPlayerLevel = level;
 
-		mGameTileData = new GameTileData(context);
-		mGameLevelTileData = new GameLevelTileData(context);
-
-		mGameTileTemplates = mGameTileData.getTilesData();
+		mGameLevelLoader = new GameLevelLoader(context);
 
 		SurfaceHolder holder = getHolder();
 		holder.addCallback(this);
 
-		// create thread only; it's started in surfaceCreated()
+		// create threads only; they're started in surfaceCreated()
 		thread = new GameThread(holder, context, null);
+		renderThread = new RenderThread();
 
 		setFocusable(true);
 
@@ -487,6 +1205,204 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback
 		thread.doStart();
 	}
 
+	/**
+	 * Releases resources held by the game view, once it is no longer used.
+	 */
+	public void release()
+	{
+		// The threads normally stopped with the surface; make sure nothing
+		// still uses the current level before releasing it.
+		thread.setRunning(false);
+		joinThread(renderThread);
+		joinThread(thread);
+
+		// In case the render thread stopped just before a report was requested.
+		takeRequestedFrameStats();
+
+		if (mGameLevel != null)
+		{
+			mGameLevel.release();
+			mGameLevel = null;
+			mPublishedGameLevel = null;
+		}
+
+		mGameLevelLoader.release();
+
+		GameUi[] controls = { mCtrlUpArrow, mCtrlDownArrow, mCtrlLeftArrow, mCtrlRightArrow };
+		for (GameUi control : controls)
+		{
+			if (control != null)
+			{
+				control.release();
+			}
+		}
+	}
+
+	/**
+	 * Shows or hides the frame stats drawn on screen.
+	 */
+	public void toggleFrameStats()
+	{
+		mShowFrameStats = !mShowFrameStats;
+	}
+
+	/**
+	 * Writes a report of the frame stats recorded so far to a file, in
+	 * the application's external files directory where available, so it
+	 * can be retrieved from devices without a debugger.
+	 * 
+	 * The report is taken by the render thread at the end of its next
+	 * frame, as it owns the drawing state reported, and written to the
+	 * file on a thread of its own. Only called by the UI thread.
+	 * @param FrameStatsListener listener - Told the report file on the UI thread.
+	 * 		Replaces the listener of any report not yet taken.
+	 */
+	public void dumpFrameStats(FrameStatsListener listener)
+	{
+		mFrameStatsRequest.set(listener);
+
+		// The render thread is only started by the UI thread, so while it
+		// is stopped the report can be taken here.
+		if (!renderThread.isAlive())
+		{
+			takeRequestedFrameStats();
+		}
+	}
+
+	/**
+	 * Takes the frame stats report requested by dumpFrameStats, if any,
+	 * and starts writing it to a file. Only called by the render thread
+	 * between frames, or by the UI thread while the render thread is stopped.
+	 */
+	private void takeRequestedFrameStats()
+	{
+		if (mFrameStatsRequest.get() == null)
+		{
+			return;
+		}
+
+		final FrameStatsListener listener = mFrameStatsRequest.getAndSet(null);
+
+		if (listener == null)
+		{
+			return;
+		}
+
+		final String report = createFrameStatsReport();
+
+		Thread writerThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				final File file = writeFrameStatsFile(report);
+
+				GameView.this.post(new Runnable()
+				{
+					public void run()
+					{
+						listener.onFrameStatsDumped(file);
+					}
+				});
+			}
+		}, "FrameStatsWriter");
+
+		writerThread.start();
+	}
+
+	/**
+	 * Creates a report of the frame stats recorded so far.
+	 * @return String
+	 */
+	private String createFrameStatsReport()
+	{
+		StringWriter report = new StringWriter();
+		PrintWriter writer = new PrintWriter(report);
+
+		SurfaceSize surfaceSize = mSurfaceSize.get();
+
+		// Taken under the stats lock, so the game thread can't record
+		// into the stats part way through the report.
+		synchronized (mFrameStats)
+		{
+			writer.println("Frame stats at " + new Date());
+			writer.println("Device: " + Build.MANUFACTURER + " " + Build.MODEL + ", Android " + Build.VERSION.RELEASE);
+			writer.println("Screen: " + ((surfaceSize != null) ? surfaceSize.mWidth : mScreenXMax)
+					+ "x" + ((surfaceSize != null) ? surfaceSize.mHeight : mScreenYMax)
+					+ ", density " + mScreenDensity);
+			writer.println("Sprite batching: " + (mSpriteBatching ? "on" : "off")
+					+ ", tile chunk caching: " + (mTileChunkCaching ? "on" : "off"));
+			writer.println();
+
+			mFrameStats.writeReport(writer);
+
+			writer.println();
+
+			GameLevel gameLevel = mPublishedGameLevel;
+			if (gameLevel != null)
+			{
+				writer.println("Tile map: " + gameLevel.getTileMap());
+			}
+
+			writer.println("Tile chunks: " + mTileChunkCache);
+			writer.println("Database queries: " + GameDAO.getQueryCount());
+			writer.println("Input events dropped: " + mInputQueue.getDroppedCount());
+		}
+
+		writer.flush();
+
+		return report.toString();
+	}
+
+	/**
+	 * Writes a frame stats report to a new file.
+	 * @param String report
+	 * @return File - The report file, or null if it could not be written.
+	 */
+	private File writeFrameStatsFile(String report)
+	{
+		File directory = null;
+
+		// External files directories are only available from Android 2.2.
+		if (Build.VERSION.SDK_INT >= 8)
+		{
+			directory = mGameContext.getExternalFilesDir(null);
+		}
+
+		if (directory == null)
+		{
+			directory = mGameContext.getFilesDir();
+		}
+
+		File file = new File(directory, "frame_stats_" + System.currentTimeMillis() + ".txt");
+		PrintWriter writer = null;
+
+		try
+		{
+			writer = new PrintWriter(new FileWriter(file));
+
+			writer.print(report);
+
+			if (writer.checkError())
+			{
+				throw new IOException("Failed to write " + file);
+			}
+		} catch (IOException e)
+		{
+			Log.e("Tile Game Example", e.getMessage());
+			return null;
+		} finally
+		{
+			if (writer != null)
+			{
+				writer.close();
+			}
+		}
+
+		Log.d("Tile Game Example", "Frame stats written to " + file);
+
+		return file;
+	}
+
 	/**
 	 * Gets the game thread.
 	 * @return GameThread
@@ -517,8 +1433,10 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback
 		if (thread.getState() == Thread.State.TERMINATED)
 		{
 			thread = new GameThread(holder, getContext(), new Handler());
+			renderThread = new RenderThread();
 			thread.setRunning(true);
 			thread.start();
+			renderThread.start();
 			thread.doStart();
 			startLevel();
 		}
@@ -526,6 +1444,7 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback
 		{
 			thread.setRunning(true);
 			thread.start();
+			renderThread.start();
 		}
 	}
 
@@ -534,8 +1453,23 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback
 	 */
 	public void surfaceDestroyed(SurfaceHolder holder)
 	{
-		boolean retry = true;
 		thread.setRunning(false);
+
+		// The render thread must stop drawing before the surface is gone.
+		joinThread(renderThread);
+		joinThread(thread);
+
+		// In case the render thread stopped just before a report was requested.
+		takeRequestedFrameStats();
+	}
+
+	/**
+	 * Waits for a thread to finish.
+	 * @param Thread thread
+	 */
+	private static void joinThread(Thread thread)
+	{
+		boolean retry = true;
 		while (retry)
 		{
 			try
@@ -558,58 +1492,95 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback
 	public boolean onTouchEvent(MotionEvent event)
 	{
 		int eventAction = event.getAction();
+		int actionCode = (eventAction & MotionEvent.ACTION_MASK);
+		int heldControls = 0;
 
-		switch (eventAction)
+		// Controls are only pressed while the game is running, but are
+		// always released, so a control is never left held.
+		if ((mGameState == STATE_RUNNING)
+				&& (actionCode != MotionEvent.ACTION_UP) && (actionCode != MotionEvent.ACTION_CANCEL))
 		{
-		case MotionEvent.ACTION_DOWN:
+			// The pointer being lifted is still part of the event; skip it.
+			// ACTION_POINTER_ID_MASK holds the pointer index on all versions.
+			int liftedPointer = (actionCode == MotionEvent.ACTION_POINTER_UP)
+					? ((eventAction & MotionEvent.ACTION_POINTER_ID_MASK) >> MotionEvent.ACTION_POINTER_ID_SHIFT)
+					: -1;
 
-			if (mGameState == STATE_RUNNING)
+			int pointerCount = event.getPointerCount();
+
+			for (int i = 0; i < pointerCount; i++)
 			{
-				final int x = (int) event.getX();
-				final int y = (int) event.getY();
-				
-				if (mCtrlUpArrow.getImpact(x, y))
-				{
-					Log.d("Tile Game Example", "Pressed up arrow");
-					mLastStatusMessage = "Moving up";
-					mPlayerVerticalDirection = DIRECTION_UP;
-					mPlayerMoving = true;
-				}
-				else if (mCtrlDownArrow.getImpact(x, y))
-				{
-					Log.d("Tile Game Example", "Pressed down arrow");
-					mLastStatusMessage = "Moving down";
-					mPlayerVerticalDirection = DIRECTION_DOWN;
-					mPlayerMoving = true;
-				}
-				else if (mCtrlLeftArrow.getImpact(x, y))
+				if (i != liftedPointer)
 				{
-					Log.d("Tile Game Example", "Pressed left arrow");
-					mLastStatusMessage = "Moving left";
-					mPlayerHorizontalDirection = DIRECTION_LEFT;
-					mPlayerMoving = true;
-				}
-				else if (mCtrlRightArrow.getImpact(x, y))
-				{
-					Log.d("Tile Game Example", "Pressed right arrow");
-					mLastStatusMessage = "Moving right";
-					mPlayerHorizontalDirection = DIRECTION_RIGHT;
-					mPlayerMoving = true;
+					heldControls |= getControlAt((int) event.getX(i), (int) event.getY(i));
 				}
 			}
+		}
 
-			break;
-		case MotionEvent.ACTION_UP:
-		case MotionEvent.ACTION_CANCEL:
-			mPlayerMoving = false;
-			mPlayerVerticalDirection = 0;
-			mPlayerHorizontalDirection = 0;
-			break;
+		// Only queue changes. A change is never lost: if the queue is full,
+		// it replaces the last change queued.
+		if (heldControls != mQueuedControls)
+		{
+			mInputQueue.offer(heldControls, System.nanoTime());
+			mQueuedControls = heldControls;
 		}
 
 		return true;
 	}
 
+	/**
+	 * Gets the game control at a screen position.
+	 * @param int x
+	 * @param int y
+	 * @return int - One of the CONTROL_ values, or 0 if there is no control.
+	 */
+	private int getControlAt(int x, int y)
+	{
+		if (mCtrlUpArrow.getImpact(x, y))
+		{
+			return CONTROL_UP;
+		}
+		else if (mCtrlDownArrow.getImpact(x, y))
+		{
+			return CONTROL_DOWN;
+		}
+		else if (mCtrlLeftArrow.getImpact(x, y))
+		{
+			return CONTROL_LEFT;
+		}
+		else if (mCtrlRightArrow.getImpact(x, y))
+		{
+			return CONTROL_RIGHT;
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Gets the direction along one axis of a set of controls held.
+	 * Opposite controls held together cancel out.
+	 * @param int controls
+	 * @param int negativeControl - The control moving left or up.
+	 * @param int positiveControl - The control moving right or down.
+	 * @return int - -1, 1 or 0 if neither or both controls are held.
+	 */
+	private static int getDirection(int controls, int negativeControl, int positiveControl)
+	{
+		int direction = 0;
+
+		if ((controls & negativeControl) != 0)
+		{
+			direction--;
+		}
+
+		if ((controls & positiveControl) != 0)
+		{
+			direction++;
+		}
+
+		return direction;
+	}
+
 	/**
 	 * Initializes and sets the on-screen position of the game controls. 
 	 */
@@ -657,117 +1628,29 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback
 			mPlayerUnit = new PlayerUnit(mGameContext, R.drawable.player_unit);
 		}
 
-		int playerStartX = (mPlayerStartTileX * mPlayerUnit.getWidth());
-		int playerStartY = (mPlayerStartTileY * mPlayerUnit.getHeight());
-
-		Log.d("Tile Game Example", "Player unit starting at X: " + playerStartX + ", Y: " + playerStartY);
-
-		mPlayerUnit.setX(playerStartX);
-		mPlayerUnit.setY(playerStartY);
-		mPlayerUnit.setUnmodifiedX(0);
-		mPlayerUnit.setUnmodifiedY(0);
-	}
-	
-	/**
-	 * Parses game level data to create a tile-based level.
-	 * Tile positioning logic expects all game tiles to
-	 * maintain a consistent width and height.
-	 */
-	private void parseGameLevelData()
-	{
-		updatingGameTiles = true;
-
-		ArrayList<String> gameLevelData = mGameLevelTileData.getGameLevelData(mPlayerStage, mPlayerLevel);
-
-		String levelTileData = gameLevelData.get(GameLevelTileData.FIELD_ID_TILE_DATA);
+		int playerStartX = 0;
+		int playerStartY = 0;
 
-		if (levelTileData == null)
+		if (mGameLevel != null)
 		{
-			return;
+			playerStartX = (mGameLevel.getPlayerStartTileX() * mPlayerUnit.getWidth());
+			playerStartY = (mGameLevel.getPlayerStartTileY() * mPlayerUnit.getHeight());
 		}
 
-		// Get player start position.
-		mPlayerStartTileX = Integer.parseInt(gameLevelData.get(GameLevelTileData.FIELD_ID_PLAYER_START_TILE_X));
-		mPlayerStartTileY = Integer.parseInt(gameLevelData.get(GameLevelTileData.FIELD_ID_PLAYER_START_TILE_Y));
-
-		// Clear any existing loaded game tiles.
-		mGameTiles.clear();
-
-		// Split level tile data by line.
-		String[] tileLines = levelTileData.split(GameLevelTileData.TILE_DATA_LINE_BREAK);
-
-		Bitmap bitmap = null;
-		Point tilePoint = new Point(0, 0);
-		int tileX = 0;
-		int tileY = 0;
+		Log.d("Tile Game Example", "Player unit starting at X: " + playerStartX + ", Y: " + playerStartY);
 
-		int tileKey = 0;
+		mPlayerUnit.setX(playerStartX);
+		mPlayerUnit.setY(playerStartY);
+		mPlayerUnit.savePreviousPosition();
 
-		// Loop through each line of the level tile data.
-		for (String tileLine : tileLines)
+		if (mSimulation == null)
 		{
-			tileX = 0;
-
-			// Split tile data line by tile delimiter, producing an array of tile IDs.
-			String[] tiles = tileLine.split(",");
-
-			// Loop through the tile IDs, creating a new GameTile instance for each one.
-			for (String tile : tiles)
-			{
-				// Get tile definition for the current tile ID.
-				ArrayList<Integer> tileData = mGameTileTemplates.get(Integer.parseInt(tile));
-
-				// Check for valid tile data.
-				if ((tileData != null)
-						&& (tileData.size() > 0)
-						&& (tileData.get(GameTileData.FIELD_ID_DRAWABLE) > 0))
-				{
-					// Set tile position.
-					tilePoint.x = tileX;
-					tilePoint.y = tileY;
-					
-					GameTile gameTile = new GameTile(mGameContext, tilePoint);
-
-					// Set tile bitmap.
-					bitmap = setAndGetGameTileBitmap(tileData.get(GameTileData.FIELD_ID_DRAWABLE));
-					gameTile.setBitmap(bitmap);
-
-					// Set tile type.
-					gameTile.setType(tileData.get(GameTileData.FIELD_ID_TYPE));
-
-					// Set tile visibility.
-					if (tileData.get(GameTileData.FIELD_ID_VISIBLE) == 0)
-					{
-						gameTile.setVisible(false);
-					}
-
-					gameTile.setKey(tileKey);
-
-					// If undefined, set global tile width / height values.
-					if (mTileWidth == 0)
-					{
-						mTileWidth = gameTile.getWidth();
-					}
-					if (mTileHeight == 0)
-					{
-						mTileHeight = gameTile.getHeight();
-					}
-					
-					// Add new game tile to loaded game tiles.
-					mGameTiles.add(gameTile);
-
-					tileKey++;
-				}
-
-				// Increment next tile X (horizontal) position by tile width.
-				tileX += mTileWidth;
-			}
-
-			// Increment next tile Y (vertical) position by tile width.
-			tileY += mTileHeight;
+			mSimulation = new GameSimulation(mPlayerUnit.getWidth(), mPlayerUnit.getHeight(),
+					getPixelValueForDensity(PlayerUnit.SPEED));
 		}
 
-		updatingGameTiles = false;
+		mSimulation.setTileMap((mGameLevel != null) ? mGameLevel.getTileMap() : null);
+		mSimulation.setPlayerPosition(playerStartX, playerStartY);
 	}
 	
 	/**
@@ -780,39 +1663,37 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback
 	}
 	
 	/**
-	 * Loads and starts the current level.
+	 * Loads and starts the current level. The level is loaded in the
+	 * background, and the player unit is moved to the start of the level
+	 * once loaded.
 	 */
 	private void startLevel()
 	{
-		parseGameLevelData();
-		setPlayerStart();
+		mGameLevelLoader.load(mPlayerStage, mPlayerLevel);
 
 		thread.unpause();
 	}
 
 	/**
-	 * Stores a bitmap for use by a game tile in a level.
-	 * @param int resourceId - The bitmap resource ID.
-	 * @return Bitmap - The Bitmap instance for the given resource ID.
+	 * Sleeps the calling thread until the next game tick is due.
+	 * @param long waitNanos - The time until the next game tick.
 	 */
-	private Bitmap setAndGetGameTileBitmap(int resourceId)
+	private static void waitForNextTick(long waitNanos)
 	{
-		if (!mGameTileBitmaps.containsKey(resourceId))
-		{
-			BitmapFactory.Options opts = new BitmapFactory.Options();
-			opts.inJustDecodeBounds = true;
-			Bitmap bitmap = BitmapFactory.decodeResource(mGameContext
-					.getResources(), resourceId);
+		long waitMillis = (waitNanos / NANOS_PER_MILLISECOND);
 
-			if (bitmap != null)
+		if (waitMillis > 0)
+		{
+			try
+			{
+				Thread.sleep(waitMillis);
+			} catch (InterruptedException e)
 			{
-				mGameTileBitmaps.put(resourceId, bitmap);
+				Log.e("Tile Game Example", e.getMessage());
 			}
 		}
-
-		return mGameTileBitmaps.get(resourceId);
 	}
-	
+
 	private int getPixelValueForDensity(int pixels)
 	{
 		return (int) (pixels * mScreenDensity);
@@ -0,0 +1,189 @@
+package org.ruscoe.example.tilegame;
+
+/**
+ * The InputQueue class passes timestamped input events from one thread
+ * to another, such as from the UI thread handling touch events to the
+ * game thread.
+ *
+ * The queue is a fixed-size ring buffer for exactly one producer thread
+ * and one consumer thread. Each side only writes its own index, and the
+ * indexes are volatile, so events are passed without locks and without
+ * allocating.
+ *
+ * The last event offered is never lost. When the ring buffer is full,
+ * the event is held in a single overflow slot instead, and any later
+ * events replace it until the consumer takes it, after all events in the
+ * ring buffer. Replaced events are dropped and counted. This suits events
+ * that each hold a complete input state, such as the controls held, where
+ * the latest state matters most.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class InputQueue
+{
+	private final int[] mValues;
+	private final long[] mTimes;
+	private final int mMask;
+
+	/**
+	 * The index of the next event to read. Only written by the consumer.
+	 */
+	private volatile long mHead = 0;
+
+	/**
+	 * The index of the next event to write. Only written by the producer.
+	 */
+	private volatile long mTail = 0;
+
+	/**
+	 * The event held while the ring buffer is full. Written by the
+	 * producer while mOverflowSequence is odd, so the consumer can detect
+	 * a read that overlapped a write.
+	 */
+	private volatile int mOverflowValue = 0;
+	private volatile long mOverflowTime = 0;
+
+	/**
+	 * Increased by the producer before and after each write of the
+	 * overflow slot. Only written by the producer.
+	 */
+	private volatile long mOverflowSequence = 0;
+
+	/**
+	 * The overflow sequence of the overflow event last taken. Only
+	 * written by the consumer.
+	 */
+	private volatile long mOverflowTakenSequence = 0;
+
+	private volatile int mDroppedCount = 0;
+
+	/**
+	 * @param int capacity - The maximum number of queued events, rounded
+	 * 		up to a power of two.
+	 */
+	public InputQueue(int capacity)
+	{
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException("Invalid input queue capacity: " + capacity);
+		}
+
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+		{
+			size <<= 1;
+		}
+
+		this.mValues = new int[size];
+		this.mTimes = new long[size];
+		this.mMask = (size - 1);
+	}
+
+	/**
+	 * Gets the maximum number of events removed at once: the size of the
+	 * ring buffer, and the overflow slot.
+	 * @return int
+	 */
+	public int getCapacity()
+	{
+		return (this.mValues.length + 1);
+	}
+
+	/**
+	 * Adds an event to the queue. Only called by the producer thread.
+	 * @param int value - The event.
+	 * @param long time - The time of the event, in nanoseconds.
+	 * @return boolean - true if added to the ring buffer, false if held in
+	 * 		the overflow slot because the ring buffer is full.
+	 */
+	public boolean offer(int value, long time)
+	{
+		long overflowSequence = this.mOverflowSequence;
+		boolean overflowPending = (overflowSequence != this.mOverflowTakenSequence);
+
+		long tail = this.mTail;
+
+		// Once an event is held in the overflow slot, later events must
+		// follow it, so they replace it rather than enter the ring buffer.
+		if (overflowPending || ((tail - this.mHead) >= this.mValues.length))
+		{
+			if (overflowPending)
+			{
+				this.mDroppedCount++;
+			}
+
+			this.mOverflowSequence = (overflowSequence + 1);
+			this.mOverflowValue = value;
+			this.mOverflowTime = time;
+			this.mOverflowSequence = (overflowSequence + 2);
+
+			return false;
+		}
+
+		int index = (int) (tail & this.mMask);
+		this.mValues[index] = value;
+		this.mTimes[index] = time;
+
+		// Publish the event only once written.
+		this.mTail = (tail + 1);
+
+		return true;
+	}
+
+	/**
+	 * Removes all queued events, in the order they were added.
+	 * Only called by the consumer thread.
+	 * @param int[] values - Receives the events; at least getCapacity() long.
+	 * @param long[] times - Receives the times of the events; at least getCapacity() long.
+	 * @return int - The number of events removed.
+	 */
+	public int drainTo(int[] values, long[] times)
+	{
+		// Check the overflow slot first: while it is pending, no events
+		// enter the ring buffer, so it is newer than all of them.
+		boolean overflowPending = (this.mOverflowSequence != this.mOverflowTakenSequence);
+
+		long head = this.mHead;
+		int count = (int) (this.mTail - head);
+
+		for (int i = 0; i < count; i++)
+		{
+			int index = (int) ((head + i) & this.mMask);
+			values[i] = this.mValues[index];
+			times[i] = this.mTimes[index];
+		}
+
+		// Free the slots only once read.
+		this.mHead = (head + count);
+
+		if (overflowPending)
+		{
+			long overflowSequence = this.mOverflowSequence;
+			int value = this.mOverflowValue;
+			long time = this.mOverflowTime;
+
+			// If the producer was writing the slot, leave it for the next call.
+			if (((overflowSequence & 1) == 0) && (overflowSequence == this.mOverflowSequence))
+			{
+				values[count] = value;
+				times[count] = time;
+				count++;
+
+				this.mOverflowTakenSequence = overflowSequence;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Gets the number of events dropped because they were replaced in the
+	 * overflow slot.
+	 * @return int
+	 */
+	public int getDroppedCount()
+	{
+		return this.mDroppedCount;
+	}
+}
@@ -1,5 +1,7 @@
 package org.ruscoe.example.tilegame;
 
+import java.io.File;
+
 import org.ruscoe.example.tilegame.GameView;
 
 import android.app.Activity;
@@ -12,6 +14,7 @@ import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.Window;
+import android.widget.Toast;
 
 import org.ruscoe.example.tilegame.R;
 
@@ -81,6 +84,21 @@ public class Play extends Activity
 				i = new Intent(this, About.class);
     			startActivity(i);
 				return true;
+			case R.id.menuToggleStats:
+				mGameView.toggleFrameStats();
+				return true;
+			case R.id.menuDumpStats:
+				mGameView.dumpFrameStats(new GameView.FrameStatsListener()
+				{
+					public void onFrameStatsDumped(File statsFile)
+					{
+						String message = (statsFile != null)
+								? getString(R.string.stats_dumped, statsFile.getPath())
+								: getString(R.string.stats_dump_failed);
+						Toast.makeText(Play.this, message, Toast.LENGTH_LONG).show();
+					}
+				});
+				return true;
 			case R.id.menuExit:
 				finish();
 				return true;
@@ -99,4 +117,15 @@ public class Play extends Activity
 
 		mGameView.getThread().setState(GameView.STATE_PAUSED); // pause game when Activity pauses
 	}
+
+	/**
+	 * Invoked when the Activity is destroyed.
+	 */
+	@Override
+	protected void onDestroy()
+	{
+		super.onDestroy();
+
+		mGameView.release();
+	}
 }
\ No newline at end of file
@@ -11,12 +11,15 @@ import android.content.Context;
  */
 public class PlayerUnit extends GameUnit
 {
+	/**
+	 * The distance, in pixels, the player unit moves each game tick.
+	 */
 	public static final int SPEED = 3;
 	
 	Context mContext;
-	
-	private int mUnmodifiedX = 0;
-	private int mUnmodifiedY = 0;
+
+	private int mPreviousX = 0;
+	private int mPreviousY = 0;
 	
 	public PlayerUnit(Context context, int drawable)
 	{
@@ -24,23 +27,30 @@ public class PlayerUnit extends GameUnit
 		this.mContext = context;
 	}
 
-	public int getUnmodifiedX()
-	{
-		return this.mUnmodifiedX;
-	}
-
-	public void setUnmodifiedX(int unmodifiedX)
+	/**
+	 * Stores the current position as the position before the next game tick.
+	 */
+	public void savePreviousPosition()
 	{
-		this.mUnmodifiedX = unmodifiedX;
+		this.mPreviousX = this.mX;
+		this.mPreviousY = this.mY;
 	}
 
-	public int getUnmodifiedY()
+	/**
+	 * Gets the X (horizontal) position before the last game tick.
+	 * @return int
+	 */
+	public int getPreviousX()
 	{
-		return this.mUnmodifiedY;
+		return this.mPreviousX;
 	}
 
-	public void setUnmodifiedY(int unmodifiedY)
+	/**
+	 * Gets the Y (vertical) position before the last game tick.
+	 * @return int
+	 */
+	public int getPreviousY()
 	{
-		this.mUnmodifiedY = unmodifiedY;
+		return this.mPreviousY;
 	}
 }
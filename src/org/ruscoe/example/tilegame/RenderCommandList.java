@@ -0,0 +1,213 @@
+package org.ruscoe.example.tilegame;
+
+/**
+ * The RenderCommandList class holds everything to draw in a frame, as a
+ * list of sprites to draw, built by the game update and drawn by the
+ * render thread.
+ *
+ * Each command is a sprite ID, a layer and a position, along with how far
+ * the sprite moved during the last game tick so the renderer can
+ * interpolate its position between ticks. Commands are held in parallel
+ * int arrays, reused from frame to frame, so building a list allocates
+ * nothing once the arrays have grown to fit a frame.
+ *
+ * The camera position is held with the commands, and moves the same way.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class RenderCommandList
+{
+	/**
+	 * Layers, drawn in order.
+	 * LAYER_BACKGROUND and LAYER_UI are positioned on screen. The other
+	 * layers are positioned in the level, and offset by the camera.
+	 * The sprites of LAYER_TILE_CHUNKS are chunk indexes of a TileChunkCache.
+	 * The sprites of LAYER_TILES are sprite IDs in the tile atlas of the level:
+	 * tile IDs, or the animation frames of animated tiles; see TileAnimator.
+	 */
+	public static final int LAYER_BACKGROUND = 0;
+	public static final int LAYER_TILE_CHUNKS = 1;
+	public static final int LAYER_TILES = 2;
+	public static final int LAYER_UNITS = 3;
+	public static final int LAYER_UI = 4;
+
+	public static final int LAYER_COUNT = 5;
+
+	private static final int DEFAULT_CAPACITY = 256;
+
+	private int mCount = 0;
+
+	private int[] mLayers;
+	private int[] mSprites;
+	private int[] mX;
+	private int[] mY;
+	private int[] mDeltaX;
+	private int[] mDeltaY;
+
+	private int mCameraX = 0;
+	private int mCameraY = 0;
+	private int mCameraDeltaX = 0;
+	private int mCameraDeltaY = 0;
+
+	public RenderCommandList()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param int capacity - The number of commands to make room for.
+	 */
+	public RenderCommandList(int capacity)
+	{
+		capacity = Math.max(1, capacity);
+
+		this.mLayers = new int[capacity];
+		this.mSprites = new int[capacity];
+		this.mX = new int[capacity];
+		this.mY = new int[capacity];
+		this.mDeltaX = new int[capacity];
+		this.mDeltaY = new int[capacity];
+	}
+
+	/**
+	 * Removes all commands, keeping their storage for reuse.
+	 */
+	public void clear()
+	{
+		this.mCount = 0;
+		this.mCameraX = 0;
+		this.mCameraY = 0;
+		this.mCameraDeltaX = 0;
+		this.mCameraDeltaY = 0;
+	}
+
+	/**
+	 * Sets the level position shown at the top left of the screen, before
+	 * and after the last game tick.
+	 * @param int previousX
+	 * @param int previousY
+	 * @param int x
+	 * @param int y
+	 */
+	public void setCamera(int previousX, int previousY, int x, int y)
+	{
+		this.mCameraX = x;
+		this.mCameraY = y;
+		this.mCameraDeltaX = (x - previousX);
+		this.mCameraDeltaY = (y - previousY);
+	}
+
+	/**
+	 * Adds a command drawing a sprite that did not move.
+	 * @param int layer - One of the LAYER_ values.
+	 * @param int sprite - The sprite ID.
+	 * @param int x
+	 * @param int y
+	 */
+	public void add(int layer, int sprite, int x, int y)
+	{
+		add(layer, sprite, x, y, x, y);
+	}
+
+	/**
+	 * Adds a command drawing a sprite.
+	 * @param int layer - One of the LAYER_ values.
+	 * @param int sprite - The sprite ID.
+	 * @param int previousX - The X (horizontal) position before the last game tick.
+	 * @param int previousY - The Y (vertical) position before the last game tick.
+	 * @param int x
+	 * @param int y
+	 */
+	public void add(int layer, int sprite, int previousX, int previousY, int x, int y)
+	{
+		if (this.mCount == this.mLayers.length)
+		{
+			grow();
+		}
+
+		int index = this.mCount++;
+
+		this.mLayers[index] = layer;
+		this.mSprites[index] = sprite;
+		this.mX[index] = x;
+		this.mY[index] = y;
+		this.mDeltaX[index] = (x - previousX);
+		this.mDeltaY[index] = (y - previousY);
+	}
+
+	/**
+	 * Doubles the room for commands.
+	 */
+	private void grow()
+	{
+		int capacity = (this.mLayers.length * 2);
+
+		this.mLayers = copyOf(this.mLayers, capacity);
+		this.mSprites = copyOf(this.mSprites, capacity);
+		this.mX = copyOf(this.mX, capacity);
+		this.mY = copyOf(this.mY, capacity);
+		this.mDeltaX = copyOf(this.mDeltaX, capacity);
+		this.mDeltaY = copyOf(this.mDeltaY, capacity);
+	}
+
+	private static int[] copyOf(int[] values, int length)
+	{
+		int[] copy = new int[length];
+		System.arraycopy(values, 0, copy, 0, Math.min(values.length, length));
+
+		return copy;
+	}
+
+	public int getCount()
+	{
+		return this.mCount;
+	}
+
+	public int getLayer(int index)
+	{
+		return this.mLayers[index];
+	}
+
+	public int getSprite(int index)
+	{
+		return this.mSprites[index];
+	}
+
+	/**
+	 * Gets the X (horizontal) position of a sprite between its previous and current positions.
+	 * @param int index - The command index.
+	 * @param float interpolation - 0 for the previous position, 1 for the current position.
+	 * @return int
+	 */
+	public int getX(int index, float interpolation)
+	{
+		return interpolate(this.mX[index], this.mDeltaX[index], interpolation);
+	}
+
+	/**
+	 * Gets the Y (vertical) position of a sprite between its previous and current positions.
+	 * @param int index - The command index.
+	 * @param float interpolation - 0 for the previous position, 1 for the current position.
+	 * @return int
+	 */
+	public int getY(int index, float interpolation)
+	{
+		return interpolate(this.mY[index], this.mDeltaY[index], interpolation);
+	}
+
+	public int getCameraX(float interpolation)
+	{
+		return interpolate(this.mCameraX, this.mCameraDeltaX, interpolation);
+	}
+
+	public int getCameraY(float interpolation)
+	{
+		return interpolate(this.mCameraY, this.mCameraDeltaY, interpolation);
+	}
+
+	private static int interpolate(int position, int delta, float interpolation)
+	{
+		return (delta == 0) ? position : ((position - delta) + Math.round(delta * interpolation));
+	}
+}
@@ -0,0 +1,324 @@
+package org.ruscoe.example.tilegame;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+/**
+ * The SpriteBatcher class collects the sprites drawn in a frame, sorts
+ * them by layer and source bitmap, and draws each run of sprites sharing
+ * a bitmap together.
+ *
+ * Each sprite is still drawn by its own drawBitmap call, as Canvas has no
+ * call drawing many areas of a bitmap at once. Sorting only keeps the
+ * bitmap drawn from, such as a tile atlas page, the same from one call
+ * to the next.
+ *
+ * Sorting changes the order sprites of the same layer are drawn in, so
+ * sprites of a layer are expected not to overlap, as with game tiles.
+ * The sort is a stable radix sort over reused arrays, so a frame
+ * allocates nothing once the arrays have grown to fit it.
+ *
+ * Batching is disabled by default, as it makes the same number of draw
+ * calls and only adds the cost of sorting. With batching disabled, the
+ * sprites of each layer are drawn in the order added.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class SpriteBatcher
+{
+	private static final int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * Sort keys are a layer, a flag for bitmap sprites, and a page index
+	 * or bitmap ID: 8 + 1 + 15 bits.
+	 */
+	private static final int KEY_BITS = 24;
+	private static final int RADIX_BITS = 8;
+	private static final int RADIX = (1 << RADIX_BITS);
+
+	private static final int KEY_LAYER_SHIFT = 16;
+	private static final int KEY_BITMAP_FLAG = 0x8000;
+	private static final int KEY_GROUP_MASK = 0x7fff;
+
+	private boolean mBatching = false;
+
+	private TileAtlas mTileAtlas = null;
+
+	private int mCount = 0;
+	private int[] mKeys = new int[DEFAULT_CAPACITY];
+	private int[] mSprites = new int[DEFAULT_CAPACITY];
+	private int[] mX = new int[DEFAULT_CAPACITY];
+	private int[] mY = new int[DEFAULT_CAPACITY];
+	private Bitmap[] mBitmaps = new Bitmap[DEFAULT_CAPACITY];
+
+	/**
+	 * The sprites in drawing order, and room for sorting them.
+	 */
+	private int[] mOrder = new int[DEFAULT_CAPACITY];
+	private int[] mSortBuffer = new int[DEFAULT_CAPACITY];
+	private final int[] mRadixCounts = new int[RADIX];
+
+	private boolean mSorted = false;
+	private int mNextSprite = 0;
+
+	/**
+	 * The source drawn from by the last draw call, as a sort key without
+	 * a layer, or -1 before the first call of a frame.
+	 */
+	private int mLastSource = -1;
+
+	private int mDrawCallCount = 0;
+	private int mBitmapSwitchCount = 0;
+
+	/**
+	 * Sets whether sprites are sorted and drawn in batches.
+	 * @param boolean batching
+	 */
+	public void setBatching(boolean batching)
+	{
+		this.mBatching = batching;
+	}
+
+	public boolean isBatching()
+	{
+		return this.mBatching;
+	}
+
+	/**
+	 * Starts collecting the sprites of a new frame.
+	 * @param TileAtlas tileAtlas - The atlas tiles are drawn from; may be null.
+	 */
+	public void begin(TileAtlas tileAtlas)
+	{
+		this.mTileAtlas = tileAtlas;
+		this.mCount = 0;
+		this.mSorted = false;
+		this.mNextSprite = 0;
+		this.mLastSource = -1;
+		this.mDrawCallCount = 0;
+		this.mBitmapSwitchCount = 0;
+	}
+
+	/**
+	 * Adds a game tile, drawn from the tile atlas.
+	 * @param int layer - The layer, from 0 to 255.
+	 * @param int tileId - The tile ID, which must be contained by the atlas.
+	 * @param int x - The X (horizontal) screen position.
+	 * @param int y - The Y (vertical) screen position.
+	 */
+	public void addTile(int layer, int tileId, int x, int y)
+	{
+		add(((layer << KEY_LAYER_SHIFT) | this.mTileAtlas.getPageIndex(tileId)), tileId, null, x, y);
+	}
+
+	/**
+	 * Adds a bitmap.
+	 * @param int layer - The layer, from 0 to 255.
+	 * @param int bitmapId - An ID shared by all sprites drawing the same bitmap.
+	 * @param Bitmap bitmap
+	 * @param int x - The X (horizontal) screen position.
+	 * @param int y - The Y (vertical) screen position.
+	 */
+	public void addBitmap(int layer, int bitmapId, Bitmap bitmap, int x, int y)
+	{
+		add(((layer << KEY_LAYER_SHIFT) | KEY_BITMAP_FLAG | (bitmapId & KEY_GROUP_MASK)), bitmapId, bitmap, x, y);
+	}
+
+	private void add(int key, int sprite, Bitmap bitmap, int x, int y)
+	{
+		if (this.mCount == this.mKeys.length)
+		{
+			grow();
+		}
+
+		int index = this.mCount++;
+
+		this.mKeys[index] = key;
+		this.mSprites[index] = sprite;
+		this.mBitmaps[index] = bitmap;
+		this.mX[index] = x;
+		this.mY[index] = y;
+	}
+
+	/**
+	 * Doubles the room for sprites.
+	 */
+	private void grow()
+	{
+		int capacity = (this.mKeys.length * 2);
+
+		this.mKeys = copyOf(this.mKeys, capacity);
+		this.mSprites = copyOf(this.mSprites, capacity);
+		this.mX = copyOf(this.mX, capacity);
+		this.mY = copyOf(this.mY, capacity);
+		this.mOrder = new int[capacity];
+		this.mSortBuffer = new int[capacity];
+
+		Bitmap[] bitmaps = new Bitmap[capacity];
+		System.arraycopy(this.mBitmaps, 0, bitmaps, 0, this.mBitmaps.length);
+		this.mBitmaps = bitmaps;
+	}
+
+	private static int[] copyOf(int[] values, int length)
+	{
+		int[] copy = new int[length];
+		System.arraycopy(values, 0, copy, 0, Math.min(values.length, length));
+
+		return copy;
+	}
+
+	/**
+	 * Orders the sprites by sort key, keeping the order sprites were
+	 * added in for equal keys. With batching disabled, only layers are
+	 * sorted.
+	 */
+	private void sort()
+	{
+		int count = this.mCount;
+		int[] order = this.mOrder;
+		int[] buffer = this.mSortBuffer;
+
+		for (int i = 0; i < count; i++)
+		{
+			order[i] = i;
+		}
+
+		// Sort by each byte of the keys in turn, least significant first.
+		int firstShift = this.mBatching ? 0 : KEY_LAYER_SHIFT;
+
+		for (int shift = firstShift; shift < KEY_BITS; shift += RADIX_BITS)
+		{
+			int[] counts = this.mRadixCounts;
+
+			for (int i = 0; i < RADIX; i++)
+			{
+				counts[i] = 0;
+			}
+
+			for (int i = 0; i < count; i++)
+			{
+				counts[(this.mKeys[order[i]] >>> shift) & (RADIX - 1)]++;
+			}
+
+			int total = 0;
+			for (int i = 0; i < RADIX; i++)
+			{
+				int bucketCount = counts[i];
+				counts[i] = total;
+				total += bucketCount;
+			}
+
+			for (int i = 0; i < count; i++)
+			{
+				int sprite = order[i];
+				buffer[counts[(this.mKeys[sprite] >>> shift) & (RADIX - 1)]++] = sprite;
+			}
+
+			int[] sorted = buffer;
+			buffer = order;
+			order = sorted;
+		}
+
+		this.mOrder = order;
+		this.mSortBuffer = buffer;
+		this.mSorted = true;
+	}
+
+	/**
+	 * Draws the sprites of a layer. Layers must be drawn in increasing order.
+	 * @param Canvas canvas
+	 * @param int layer
+	 */
+	public void drawLayer(Canvas canvas, int layer)
+	{
+		if (!this.mSorted)
+		{
+			sort();
+		}
+
+		int end = this.mNextSprite;
+
+		// Skip sprites of any earlier layer not drawn.
+		while ((end < this.mCount) && ((this.mKeys[this.mOrder[end]] >>> KEY_LAYER_SHIFT) < layer))
+		{
+			end++;
+		}
+
+		while ((end < this.mCount) && ((this.mKeys[this.mOrder[end]] >>> KEY_LAYER_SHIFT) == layer))
+		{
+			drawSprite(canvas, this.mOrder[end]);
+			end++;
+		}
+
+		this.mNextSprite = end;
+	}
+
+	/**
+	 * Draws a single sprite.
+	 * @param Canvas canvas
+	 * @param int sprite - The index of the sprite.
+	 */
+	private void drawSprite(Canvas canvas, int sprite)
+	{
+		int key = this.mKeys[sprite];
+		int x = this.mX[sprite];
+		int y = this.mY[sprite];
+
+		if ((key & KEY_BITMAP_FLAG) != 0)
+		{
+			canvas.drawBitmap(this.mBitmaps[sprite], x, y, null);
+		}
+		else
+		{
+			this.mTileAtlas.drawTile(canvas, this.mSprites[sprite], x, y);
+		}
+
+		countDrawCall(key);
+	}
+
+	/**
+	 * Counts a draw call, and whether it draws from a different bitmap
+	 * than the last one.
+	 * @param int source - The sort key of the sprites drawn, without a layer.
+	 */
+	private void countDrawCall(int source)
+	{
+		source &= ((1 << KEY_LAYER_SHIFT) - 1);
+
+		if (source != this.mLastSource)
+		{
+			this.mBitmapSwitchCount++;
+			this.mLastSource = source;
+		}
+
+		this.mDrawCallCount++;
+	}
+
+	/**
+	 * Gets the number of sprites added in the current frame.
+	 * @return int
+	 */
+	public int getSpriteCount()
+	{
+		return this.mCount;
+	}
+
+	/**
+	 * Gets the number of draw calls made in the current frame.
+	 * @return int
+	 */
+	public int getDrawCallCount()
+	{
+		return this.mDrawCallCount;
+	}
+
+	/**
+	 * Gets the number of times the bitmap drawn from changed in the current frame.
+	 * @return int
+	 */
+	public int getBitmapSwitchCount()
+	{
+		return this.mBitmapSwitchCount;
+	}
+}
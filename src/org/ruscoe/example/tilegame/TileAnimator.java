@@ -0,0 +1,99 @@
+package org.ruscoe.example.tilegame;
+
+/**
+ * The TileAnimator class picks the frame drawn for each animated game
+ * tile of a level, from a single game clock.
+ *
+ * Every tile with the same tile ID shows the same frame at the same time,
+ * so the frame is chosen once per tile ID rather than once per tile, and
+ * no tile needs an animation object of its own. Updating costs the same
+ * however many tiles of each animated tile ID the level holds.
+ *
+ * Frames are identified by sprite IDs in the tile atlas of the level. The
+ * first frame of a tile is its tile ID; later frames have sprite IDs of
+ * their own, above the highest tile ID.
+ *
+ * TileAnimator uses no Android classes.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class TileAnimator
+{
+	private static final long NANOS_PER_MILLISECOND = 1000000;
+
+	private final int[] mTileIds;
+	private final int[][] mFrameSprites;
+	private final long[] mFrameNanos;
+
+	/**
+	 * The sprite ID of the current frame of each tile, by tile ID.
+	 */
+	private final int[] mSprites;
+
+	/**
+	 * Creates an animator. Each array holds one property of each animated
+	 * tile, in the same order.
+	 * @param int[] tileIds - The tile ID of each animated tile.
+	 * @param int[][] frameSprites - The sprite ID of each frame of each animated tile.
+	 * @param int[] frameDurations - The time each frame is shown for, in milliseconds.
+	 * @param int maxTileId - The highest tile ID in the level.
+	 */
+	public TileAnimator(int[] tileIds, int[][] frameSprites, int[] frameDurations, int maxTileId)
+	{
+		this.mTileIds = tileIds.clone();
+		this.mFrameSprites = new int[tileIds.length][];
+		this.mFrameNanos = new long[tileIds.length];
+
+		for (int i = 0; i < tileIds.length; i++)
+		{
+			if ((tileIds[i] < 0) || (tileIds[i] > maxTileId) || (frameSprites[i].length == 0) || (frameDurations[i] <= 0))
+			{
+				throw new IllegalArgumentException("Invalid animation for tile ID: " + tileIds[i]);
+			}
+
+			this.mFrameSprites[i] = frameSprites[i].clone();
+			this.mFrameNanos[i] = (frameDurations[i] * NANOS_PER_MILLISECOND);
+		}
+
+		this.mSprites = new int[maxTileId + 1];
+
+		for (int tileId = 0; tileId < this.mSprites.length; tileId++)
+		{
+			this.mSprites[tileId] = tileId;
+		}
+	}
+
+	/**
+	 * Gets the number of animated tile IDs.
+	 * @return int
+	 */
+	public int getAnimationCount()
+	{
+		return this.mTileIds.length;
+	}
+
+	/**
+	 * Shows the frame of each animated tile due at a given game time.
+	 * @param long timeNanos - The game time, in nanoseconds.
+	 */
+	public void update(long timeNanos)
+	{
+		for (int i = 0; i < this.mTileIds.length; i++)
+		{
+			int[] frameSprites = this.mFrameSprites[i];
+
+			this.mSprites[this.mTileIds[i]] = frameSprites[(int) ((timeNanos / this.mFrameNanos[i]) % frameSprites.length)];
+		}
+	}
+
+	/**
+	 * Gets the sprite ID to draw a tile with, as of the last update.
+	 * @param int tileId
+	 * @return int - The sprite ID of the current frame; the tile ID if not animated.
+	 */
+	public int getSprite(int tileId)
+	{
+		return ((tileId >= 0) && (tileId < this.mSprites.length)) ? this.mSprites[tileId] : tileId;
+	}
+}
@@ -0,0 +1,200 @@
+package org.ruscoe.example.tilegame;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+/**
+ * The TileAtlas class packs the bitmaps of game tiles into a few large
+ * bitmaps (pages), and draws each tile from its area of a page.
+ *
+ * Tiles are looked up by tile ID. Tile IDs sharing the same bitmap share
+ * the same area of the atlas.
+ *
+ * Tiles are placed on pages in rows (shelves), left to right, starting a
+ * new shelf when a row is full and a new page when a page is full.
+ *
+ * Drawing reuses a single destination Rect, so a TileAtlas must only be
+ * drawn from one thread at a time.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class TileAtlas
+{
+	public static final int DEFAULT_MAX_PAGE_SIZE = 1024;
+
+	private final Bitmap[] mPages;
+	private final int[] mPageIndexes;
+	private final Rect[] mSourceRects;
+
+	private final Rect mDestinationRect = new Rect();
+
+	private TileAtlas(Bitmap[] pages, int[] pageIndexes, Rect[] sourceRects)
+	{
+		this.mPages = pages;
+		this.mPageIndexes = pageIndexes;
+		this.mSourceRects = sourceRects;
+	}
+
+	/**
+	 * Builds an atlas from the bitmaps of a set of game tiles.
+	 * @param Bitmap[] tileBitmaps - The bitmap of each game tile, indexed by tile ID.
+	 * 		Tile IDs without a bitmap are left out of the atlas.
+	 * @param int maxPageSize - The maximum width and height of each page.
+	 * 		Pages are made larger when a single bitmap does not fit.
+	 * @return TileAtlas
+	 */
+	public static TileAtlas build(Bitmap[] tileBitmaps, int maxPageSize)
+	{
+		int[] pageIndexes = new int[tileBitmaps.length];
+		Rect[] sourceRects = new Rect[tileBitmaps.length];
+
+		for (Bitmap bitmap : tileBitmaps)
+		{
+			if (bitmap != null)
+			{
+				maxPageSize = Math.max(maxPageSize, Math.max(bitmap.getWidth(), bitmap.getHeight()));
+			}
+		}
+
+		// Tile ID of the first tile using each distinct bitmap.
+		IdentityHashMap<Bitmap, Integer> packedBitmaps = new IdentityHashMap<Bitmap, Integer>();
+
+		ArrayList<int[]> pageSizes = new ArrayList<int[]>();
+		int[] pageSize = null;
+		int shelfX = 0;
+		int shelfY = 0;
+		int shelfHeight = 0;
+
+		// Place each distinct bitmap.
+		for (int tileId = 0; tileId < tileBitmaps.length; tileId++)
+		{
+			Bitmap bitmap = tileBitmaps[tileId];
+
+			if (bitmap == null)
+			{
+				continue;
+			}
+
+			Integer packedTileId = packedBitmaps.get(bitmap);
+			if (packedTileId != null)
+			{
+				pageIndexes[tileId] = pageIndexes[packedTileId];
+				sourceRects[tileId] = sourceRects[packedTileId];
+				continue;
+			}
+
+			int width = bitmap.getWidth();
+			int height = bitmap.getHeight();
+
+			// Start a new shelf when the current shelf is full.
+			if ((shelfX + width) > maxPageSize)
+			{
+				shelfX = 0;
+				shelfY += shelfHeight;
+				shelfHeight = 0;
+			}
+
+			// Start a new page when the current page is full.
+			if ((pageSize == null) || ((shelfY + height) > maxPageSize))
+			{
+				pageSize = new int[2];
+				pageSizes.add(pageSize);
+
+				shelfX = 0;
+				shelfY = 0;
+				shelfHeight = 0;
+			}
+
+			pageIndexes[tileId] = (pageSizes.size() - 1);
+			sourceRects[tileId] = new Rect(shelfX, shelfY, (shelfX + width), (shelfY + height));
+			packedBitmaps.put(bitmap, tileId);
+
+			shelfX += width;
+			shelfHeight = Math.max(shelfHeight, height);
+
+			pageSize[0] = Math.max(pageSize[0], shelfX);
+			pageSize[1] = Math.max(pageSize[1], (shelfY + shelfHeight));
+		}
+
+		// Create each page and copy the bitmaps into place.
+		Bitmap[] pages = new Bitmap[pageSizes.size()];
+		Canvas canvas = new Canvas();
+
+		for (int i = 0; i < pages.length; i++)
+		{
+			pages[i] = Bitmap.createBitmap(pageSizes.get(i)[0], pageSizes.get(i)[1], Bitmap.Config.ARGB_8888);
+		}
+
+		for (Integer tileId : packedBitmaps.values())
+		{
+			Rect sourceRect = sourceRects[tileId];
+
+			canvas.setBitmap(pages[pageIndexes[tileId]]);
+			canvas.drawBitmap(tileBitmaps[tileId], sourceRect.left, sourceRect.top, null);
+		}
+
+		return new TileAtlas(pages, pageIndexes, sourceRects);
+	}
+
+	/**
+	 * Gets the number of pages in the atlas.
+	 * @return int
+	 */
+	public int getPageCount()
+	{
+		return this.mPages.length;
+	}
+
+	/**
+	 * Gets the index of the page holding a tile.
+	 * @param int tileId - The tile ID, which must be contained by the atlas.
+	 * @return int
+	 */
+	public int getPageIndex(int tileId)
+	{
+		return this.mPageIndexes[tileId];
+	}
+
+	/**
+	 * Detects whether the atlas contains a given tile.
+	 * @param int tileId
+	 * @return boolean
+	 */
+	public boolean hasTile(int tileId)
+	{
+		return ((tileId >= 0) && (tileId < this.mSourceRects.length)
+				&& (this.mSourceRects[tileId] != null));
+	}
+
+	/**
+	 * Frees the pages of the atlas. The atlas can't be drawn once recycled.
+	 */
+	public void recycle()
+	{
+		for (Bitmap page : this.mPages)
+		{
+			page.recycle();
+		}
+	}
+
+	/**
+	 * Draws a game tile.
+	 * @param Canvas canvas
+	 * @param int tileId - The tile ID, which must be contained by the atlas.
+	 * @param int x - The X (horizontal) position to draw the tile at.
+	 * @param int y - The Y (vertical) position to draw the tile at.
+	 */
+	public void drawTile(Canvas canvas, int tileId, int x, int y)
+	{
+		Rect sourceRect = this.mSourceRects[tileId];
+
+		this.mDestinationRect.set(x, y, (x + sourceRect.width()), (y + sourceRect.height()));
+
+		canvas.drawBitmap(this.mPages[this.mPageIndexes[tileId]], sourceRect, this.mDestinationRect, null);
+	}
+}
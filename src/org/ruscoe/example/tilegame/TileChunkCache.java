@@ -0,0 +1,661 @@
+package org.ruscoe.example.tilegame;
+
+import java.util.ArrayList;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+
+/**
+ * The TileChunkCache class draws the game tiles of a level into bitmaps
+ * covering square chunks of cells, so a frame draws a few chunk bitmaps
+ * rather than every tile on screen.
+ *
+ * Chunks are identified by chunk index, in row-major order. A chunk is
+ * drawn the first time it is needed, and drawn again only once the tile
+ * map reports a change to its tiles, such as when the tiles of a
+ * ChunkedTileMap are streamed in. Chunks without visible tiles need no
+ * bitmap. Animated tiles change frame too often to be cached, so are
+ * left out of chunks and drawn on their own.
+ *
+ * The cache is allowed enough memory for the chunks a screen can show
+ * and a ring of chunks around them, so scrolling doesn't evict chunks
+ * about to be drawn, or the minimum size given, if larger. It is never
+ * allowed more than the maximum size given, by default a quarter of the
+ * heap limit, as the heap also holds the tile atlas and cached tile
+ * bitmaps; where the ring doesn't fit, only the chunks the screen can
+ * show are allowed for. Once the chunk bitmaps take more memory than
+ * that, the least recently used chunks are evicted, and their bitmaps
+ * reused by the next chunks of the same size. Chunks used by the current
+ * frame are never evicted, so each frame should mark all the chunks it
+ * draws before getting any of them.
+ *
+ * A TileChunkCache must only be used by one thread; its stats may be read
+ * from any thread.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class TileChunkCache
+{
+	public static final int DEFAULT_CHUNK_SIZE = 8;
+	public static final int DEFAULT_MIN_BYTES = (4 * 1024 * 1024);
+
+	/**
+	 * The default memory limit for chunk bitmaps, as a fraction of the
+	 * heap limit: a quarter.
+	 */
+	public static final int DEFAULT_HEAP_DIVISOR = 4;
+
+	/**
+	 * The number of chunks kept around the screen in each direction,
+	 * when the memory limit allows it.
+	 */
+	private static final int RING_CHUNKS = 1;
+
+	/**
+	 * Tiles are drawn into chunks when visible and not animated.
+	 */
+	private static final int CACHED_FLAGS = (TileMap.FLAG_VISIBLE | TileMap.FLAG_ANIMATED);
+
+	private final int mChunkSize;
+	private final int mMinBytes;
+	private final int mLimitBytes;
+
+	private int mScreenWidth = 0;
+	private int mScreenHeight = 0;
+
+	private TileMap mTileMap = null;
+	private TileAtlas mTileAtlas = null;
+
+	private int mChunkColumns = 0;
+
+	/**
+	 * Each chunk drawn, by chunk index.
+	 */
+	private Chunk[] mChunks = new Chunk[0];
+
+	/**
+	 * The chunks holding a bitmap.
+	 */
+	private final ArrayList<Chunk> mResidentChunks = new ArrayList<Chunk>();
+
+	/**
+	 * Bitmaps no longer held by a chunk, kept for reuse. Counted in
+	 * mSizeBytes until recycled.
+	 */
+	private final ArrayList<Bitmap> mFreeBitmaps = new ArrayList<Bitmap>();
+
+	private final Canvas mCanvas = new Canvas();
+
+	private int mFrame = 0;
+
+	// The following fields are only written by the thread using the cache.
+
+	private volatile int mMaxBytes;
+	private volatile int mRingChunks = 0;
+	private volatile int mSizeBytes = 0;
+	private volatile int mBuildCount = 0;
+	private volatile int mRebuildCount = 0;
+	private volatile int mEvictionCount = 0;
+	private volatile int mReuseCount = 0;
+	private volatile long mTotalBuildNanos = 0;
+	private volatile long mMaxBuildNanos = 0;
+
+	private static class Chunk
+	{
+		Bitmap bitmap;
+		int version;
+		boolean built;
+		int lastUsedFrame;
+	}
+
+	/**
+	 * Creates an empty cache, allowed at most DEFAULT_HEAP_DIVISOR of the
+	 * heap limit.
+	 * @param int chunkSize - The number of columns and rows in each chunk.
+	 * @param int minBytes - The smallest memory limit for chunk bitmaps, in bytes.
+	 */
+	public TileChunkCache(int chunkSize, int minBytes)
+	{
+		this(chunkSize, minBytes, (Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_DIVISOR));
+	}
+
+	/**
+	 * Creates an empty cache.
+	 * @param int chunkSize - The number of columns and rows in each chunk.
+	 * @param int minBytes - The smallest memory limit for chunk bitmaps, in bytes.
+	 * @param long limitBytes - The largest memory limit for chunk bitmaps, in
+	 * 		bytes, however large the screen. Takes precedence over minBytes.
+	 */
+	public TileChunkCache(int chunkSize, int minBytes, long limitBytes)
+	{
+		if (chunkSize <= 0)
+		{
+			throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+		}
+
+		this.mChunkSize = chunkSize;
+		this.mLimitBytes = (int) Math.max(0, Math.min(limitBytes, Integer.MAX_VALUE));
+		this.mMinBytes = Math.min(minBytes, this.mLimitBytes);
+		this.mMaxBytes = this.mMinBytes;
+	}
+
+	public int getChunkSize()
+	{
+		return this.mChunkSize;
+	}
+
+	/**
+	 * Gets the number of chunk columns covering a number of tile columns,
+	 * or chunk rows covering a number of tile rows.
+	 * @param int cells - The number of tile columns or rows.
+	 * @param int chunkSize - The number of columns and rows in each chunk.
+	 * @return int
+	 */
+	public static int getChunkCount(int cells, int chunkSize)
+	{
+		return (((cells + chunkSize) - 1) / chunkSize);
+	}
+
+	/**
+	 * Sets the tiles to draw chunks of, discarding all chunks if they change.
+	 * @param TileMap tileMap
+	 * @param TileAtlas tileAtlas - The atlas to draw the tiles from.
+	 */
+	public void setTiles(TileMap tileMap, TileAtlas tileAtlas)
+	{
+		if ((tileMap == this.mTileMap) && (tileAtlas == this.mTileAtlas))
+		{
+			return;
+		}
+
+		clear();
+
+		this.mTileMap = tileMap;
+		this.mTileAtlas = tileAtlas;
+
+		if (tileMap != null)
+		{
+			this.mChunkColumns = getChunkCount(tileMap.getColumns(), this.mChunkSize);
+			this.mChunks = new Chunk[this.mChunkColumns * getChunkCount(tileMap.getRows(), this.mChunkSize)];
+		}
+
+		updateMaxBytes();
+	}
+
+	/**
+	 * Sets the size of the screen chunks are drawn to, which sets the
+	 * memory limit of the cache.
+	 * @param int width
+	 * @param int height
+	 */
+	public void setScreenSize(int width, int height)
+	{
+		this.mScreenWidth = width;
+		this.mScreenHeight = height;
+
+		updateMaxBytes();
+	}
+
+	/**
+	 * Sets the memory limit to hold the chunks the screen can show, and a
+	 * ring of chunks around them if the largest limit allows, at 4 bytes
+	 * per pixel.
+	 */
+	private void updateMaxBytes()
+	{
+		long maxBytes = this.mMinBytes;
+		int ringChunks = 0;
+
+		if (this.mTileMap != null)
+		{
+			int chunkWidth = (this.mChunkSize * this.mTileMap.getTileWidth());
+			int chunkHeight = (this.mChunkSize * this.mTileMap.getTileHeight());
+
+			if ((chunkWidth > 0) && (chunkHeight > 0))
+			{
+				// A screen not aligned to chunks shows part of one more
+				// chunk in each direction.
+				long chunkColumns = (getChunkCount(this.mScreenWidth, chunkWidth) + 1);
+				long chunkRows = (getChunkCount(this.mScreenHeight, chunkHeight) + 1);
+				long chunkBytes = ((long) chunkWidth * chunkHeight * 4);
+
+				long ringBytes = ((chunkColumns + (2 * RING_CHUNKS)) * (chunkRows + (2 * RING_CHUNKS)) * chunkBytes);
+
+				if (ringBytes <= this.mLimitBytes)
+				{
+					maxBytes = Math.max(maxBytes, ringBytes);
+					ringChunks = RING_CHUNKS;
+				}
+				else
+				{
+					maxBytes = Math.max(maxBytes, (chunkColumns * chunkRows * chunkBytes));
+				}
+			}
+		}
+
+		this.mMaxBytes = (int) Math.min(maxBytes, this.mLimitBytes);
+		this.mRingChunks = ringChunks;
+	}
+
+	/**
+	 * Starts a new frame. Chunks used by earlier frames may be evicted.
+	 */
+	public void beginFrame()
+	{
+		this.mFrame++;
+	}
+
+	/**
+	 * Marks a chunk as used by the current frame, so drawing other chunks
+	 * of the frame doesn't evict it.
+	 * @param int chunkIndex
+	 */
+	public void markUsed(int chunkIndex)
+	{
+		Chunk chunk = getChunkEntry(chunkIndex);
+
+		if (chunk != null)
+		{
+			chunk.lastUsedFrame = this.mFrame;
+		}
+	}
+
+	/**
+	 * Gets the entry of a chunk, creating it if needed.
+	 * @param int chunkIndex
+	 * @return Chunk - The entry, or null if there is no such chunk.
+	 */
+	private Chunk getChunkEntry(int chunkIndex)
+	{
+		if ((this.mTileMap == null) || (this.mTileAtlas == null)
+				|| (chunkIndex < 0) || (chunkIndex >= this.mChunks.length))
+		{
+			return null;
+		}
+
+		Chunk chunk = this.mChunks[chunkIndex];
+
+		if (chunk == null)
+		{
+			chunk = new Chunk();
+			this.mChunks[chunkIndex] = chunk;
+		}
+
+		return chunk;
+	}
+
+	/**
+	 * Gets the bitmap of a chunk, drawing it if not cached or if its tiles
+	 * have changed.
+	 * @param int chunkIndex
+	 * @return Bitmap - The bitmap, or null if the chunk has no visible tiles.
+	 */
+	public Bitmap getChunk(int chunkIndex)
+	{
+		Chunk chunk = getChunkEntry(chunkIndex);
+
+		if (chunk == null)
+		{
+			return null;
+		}
+
+		chunk.lastUsedFrame = this.mFrame;
+
+		int column = ((chunkIndex % this.mChunkColumns) * this.mChunkSize);
+		int row = ((chunkIndex / this.mChunkColumns) * this.mChunkSize);
+		int columns = Math.min(this.mChunkSize, (this.mTileMap.getColumns() - column));
+		int rows = Math.min(this.mChunkSize, (this.mTileMap.getRows() - row));
+
+		// The version is read before the tiles, so a change while drawing
+		// the chunk is seen by the next frame.
+		int version = this.mTileMap.getVersion(column, row, columns, rows);
+
+		if (chunk.built && (chunk.version == version))
+		{
+			return chunk.bitmap;
+		}
+
+		long startTime = System.nanoTime();
+
+		if (chunk.built)
+		{
+			this.mRebuildCount++;
+		}
+		else
+		{
+			this.mBuildCount++;
+		}
+
+		buildChunk(chunk, column, row, columns, rows);
+
+		chunk.version = version;
+		chunk.built = true;
+
+		long buildNanos = (System.nanoTime() - startTime);
+
+		this.mTotalBuildNanos += buildNanos;
+		this.mMaxBuildNanos = Math.max(this.mMaxBuildNanos, buildNanos);
+
+		return chunk.bitmap;
+	}
+
+	/**
+	 * Draws the visible tiles of a chunk into its bitmap, getting a bitmap
+	 * if needed.
+	 * @param Chunk chunk
+	 * @param int column - The first column of the chunk.
+	 * @param int row - The first row of the chunk.
+	 * @param int columns - The number of columns in the chunk.
+	 * @param int rows - The number of rows in the chunk.
+	 */
+	private void buildChunk(Chunk chunk, int column, int row, int columns, int rows)
+	{
+		TileMap tileMap = this.mTileMap;
+
+		if (!hasVisibleTiles(column, row, columns, rows))
+		{
+			releaseBitmap(chunk);
+			return;
+		}
+
+		int tileWidth = tileMap.getTileWidth();
+		int tileHeight = tileMap.getTileHeight();
+
+		if (chunk.bitmap == null)
+		{
+			chunk.bitmap = obtainBitmap((columns * tileWidth), (rows * tileHeight));
+
+			this.mResidentChunks.add(chunk);
+		}
+		else
+		{
+			chunk.bitmap.eraseColor(Color.TRANSPARENT);
+		}
+
+		this.mCanvas.setBitmap(chunk.bitmap);
+
+		for (int chunkRow = 0; chunkRow < rows; chunkRow++)
+		{
+			int cell = tileMap.getCell(column, (row + chunkRow));
+
+			for (int chunkColumn = 0; chunkColumn < columns; chunkColumn++, cell++)
+			{
+				int tileId = tileMap.getTileId(cell);
+
+				if (((tileMap.getFlags(cell) & CACHED_FLAGS) == TileMap.FLAG_VISIBLE) && this.mTileAtlas.hasTile(tileId))
+				{
+					this.mTileAtlas.drawTile(this.mCanvas, tileId, (chunkColumn * tileWidth), (chunkRow * tileHeight));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Detects whether any tile of a chunk is drawn into it.
+	 * @param int column - The first column of the chunk.
+	 * @param int row - The first row of the chunk.
+	 * @param int columns - The number of columns in the chunk.
+	 * @param int rows - The number of rows in the chunk.
+	 * @return boolean
+	 */
+	private boolean hasVisibleTiles(int column, int row, int columns, int rows)
+	{
+		for (int chunkRow = 0; chunkRow < rows; chunkRow++)
+		{
+			int cell = this.mTileMap.getCell(column, (row + chunkRow));
+
+			for (int chunkColumn = 0; chunkColumn < columns; chunkColumn++, cell++)
+			{
+				if ((this.mTileMap.getFlags(cell) & CACHED_FLAGS) == TileMap.FLAG_VISIBLE)
+				{
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Gets a transparent bitmap for a chunk. A free bitmap of the same size
+	 * is reused if there is one; otherwise room is made by freeing other
+	 * bitmaps, reusing the bitmap of an evicted chunk if it has the same
+	 * size, before a new bitmap is created.
+	 * @param int width
+	 * @param int height
+	 * @return Bitmap
+	 */
+	private Bitmap obtainBitmap(int width, int height)
+	{
+		Bitmap bitmap = takeFreeBitmap(width, height);
+
+		if (bitmap != null)
+		{
+			bitmap.eraseColor(Color.TRANSPARENT);
+			return bitmap;
+		}
+
+		// Make room before creating the bitmap, at 4 bytes per pixel.
+		int maxBytes = (this.mMaxBytes - (width * height * 4));
+
+		while (this.mSizeBytes > maxBytes)
+		{
+			// Free bitmaps are not the right size, or one would have been taken.
+			if (!this.mFreeBitmaps.isEmpty())
+			{
+				recycle(this.mFreeBitmaps.remove(this.mFreeBitmaps.size() - 1));
+				continue;
+			}
+
+			Chunk oldestChunk = getLeastRecentlyUsedChunk();
+
+			if (oldestChunk == null)
+			{
+				break;
+			}
+
+			releaseBitmap(oldestChunk);
+			oldestChunk.built = false;
+
+			this.mEvictionCount++;
+
+			bitmap = takeFreeBitmap(width, height);
+
+			if (bitmap != null)
+			{
+				bitmap.eraseColor(Color.TRANSPARENT);
+				return bitmap;
+			}
+		}
+
+		bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		this.mSizeBytes += getBytes(bitmap);
+
+		return bitmap;
+	}
+
+	/**
+	 * Takes a free bitmap of a given size, if there is one.
+	 * @param int width
+	 * @param int height
+	 * @return Bitmap - The bitmap, or null.
+	 */
+	private Bitmap takeFreeBitmap(int width, int height)
+	{
+		for (int i = (this.mFreeBitmaps.size() - 1); i >= 0; i--)
+		{
+			Bitmap bitmap = this.mFreeBitmaps.get(i);
+
+			if ((bitmap.getWidth() == width) && (bitmap.getHeight() == height))
+			{
+				this.mFreeBitmaps.remove(i);
+				this.mReuseCount++;
+
+				return bitmap;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Gets the least recently used chunk holding a bitmap, other than the
+	 * chunks used by the current frame.
+	 * @return Chunk - The chunk, or null if there is none.
+	 */
+	private Chunk getLeastRecentlyUsedChunk()
+	{
+		Chunk oldestChunk = null;
+
+		for (int i = 0; i < this.mResidentChunks.size(); i++)
+		{
+			Chunk chunk = this.mResidentChunks.get(i);
+
+			if ((chunk.lastUsedFrame != this.mFrame)
+					&& ((oldestChunk == null) || (chunk.lastUsedFrame < oldestChunk.lastUsedFrame)))
+			{
+				oldestChunk = chunk;
+			}
+		}
+
+		return oldestChunk;
+	}
+
+	/**
+	 * Frees the bitmap of a chunk, if any, keeping it for reuse.
+	 * @param Chunk chunk
+	 */
+	private void releaseBitmap(Chunk chunk)
+	{
+		if (chunk.bitmap == null)
+		{
+			return;
+		}
+
+		this.mResidentChunks.remove(chunk);
+		this.mFreeBitmaps.add(chunk.bitmap);
+
+		chunk.bitmap = null;
+	}
+
+	/**
+	 * Recycles a bitmap no longer held by the cache.
+	 * @param Bitmap bitmap
+	 */
+	private void recycle(Bitmap bitmap)
+	{
+		this.mSizeBytes -= getBytes(bitmap);
+		bitmap.recycle();
+	}
+
+	private static int getBytes(Bitmap bitmap)
+	{
+		return (bitmap.getRowBytes() * bitmap.getHeight());
+	}
+
+	/**
+	 * Discards all chunks, freeing their bitmaps.
+	 */
+	public void clear()
+	{
+		for (int i = 0; i < this.mResidentChunks.size(); i++)
+		{
+			this.mResidentChunks.get(i).bitmap.recycle();
+		}
+
+		for (int i = 0; i < this.mFreeBitmaps.size(); i++)
+		{
+			this.mFreeBitmaps.get(i).recycle();
+		}
+
+		this.mResidentChunks.clear();
+		this.mFreeBitmaps.clear();
+		this.mSizeBytes = 0;
+
+		this.mTileMap = null;
+		this.mTileAtlas = null;
+		this.mChunkColumns = 0;
+		this.mChunks = new Chunk[0];
+	}
+
+	/**
+	 * Gets the total size of all chunk bitmaps, including those kept for
+	 * reuse, in bytes.
+	 * @return int
+	 */
+	public int getSizeBytes()
+	{
+		return this.mSizeBytes;
+	}
+
+	/**
+	 * Gets the number of chunks drawn for the first time, or again after
+	 * being evicted.
+	 * @return int
+	 */
+	public int getBuildCount()
+	{
+		return this.mBuildCount;
+	}
+
+	/**
+	 * Gets the number of chunks drawn again because their tiles changed.
+	 * @return int
+	 */
+	public int getRebuildCount()
+	{
+		return this.mRebuildCount;
+	}
+
+	public int getEvictionCount()
+	{
+		return this.mEvictionCount;
+	}
+
+	/**
+	 * Gets the number of chunks drawn into a reused bitmap, rather than a
+	 * newly created one.
+	 * @return int
+	 */
+	public int getReuseCount()
+	{
+		return this.mReuseCount;
+	}
+
+	/**
+	 * Gets the average time taken to draw a chunk, in nanoseconds.
+	 * @return long
+	 */
+	public long getAverageBuildNanos()
+	{
+		int buildCount = (this.mBuildCount + this.mRebuildCount);
+
+		return (buildCount > 0) ? (this.mTotalBuildNanos / buildCount) : 0;
+	}
+
+	/**
+	 * Gets the longest time taken to draw a chunk, in nanoseconds.
+	 * @return long
+	 */
+	public long getMaxBuildNanos()
+	{
+		return this.mMaxBuildNanos;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "TileChunkCache[chunk size=" + this.mChunkSize
+				+ ", size=" + this.mSizeBytes + "/" + this.mMaxBytes
+				+ ", limit=" + this.mLimitBytes
+				+ ", ring=" + this.mRingChunks
+				+ ", builds=" + this.mBuildCount
+				+ ", rebuilds=" + this.mRebuildCount
+				+ ", average build=" + (getAverageBuildNanos() / 1000) + "us"
+				+ ", max build=" + (this.mMaxBuildNanos / 1000) + "us"
+				+ ", evictions=" + this.mEvictionCount
+				+ ", reused bitmaps=" + this.mReuseCount + "]";
+	}
+}
@@ -0,0 +1,123 @@
+package org.ruscoe.example.tilegame;
+
+/**
+ * TileLayer stores the game tiles of a level by column and row, entirely
+ * in memory.
+ *
+ * Rather than an object per tile, the layer keeps the tile ID, tile type
+ * and flags of every cell in primitive arrays, in row-major order. This
+ * keeps levels small in memory and lets drawing and collision detection
+ * visit only the cells covering a given area of the level.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class TileLayer extends TileMap
+{
+	/**
+	 * The number of columns and rows in each block of cells counting changes.
+	 */
+	private static final int VERSION_BLOCK_SIZE = 8;
+
+	private final int[] mTileIds;
+	private final byte[] mTypes;
+	private final byte[] mFlags;
+
+	/**
+	 * The number of changes to each block of cells, so a change only
+	 * affects the version of the regions containing it.
+	 */
+	private final int mVersionBlockColumns;
+	private final int[] mVersions;
+
+	/**
+	 * Creates an empty layer.
+	 * @param int columns - The number of tile columns in the level.
+	 * @param int rows - The number of tile rows in the level.
+	 * @param int tileWidth - The width of every tile in the level.
+	 * @param int tileHeight - The height of every tile in the level.
+	 */
+	public TileLayer(int columns, int rows, int tileWidth, int tileHeight)
+	{
+		super(columns, rows, tileWidth, tileHeight);
+
+		this.mTileIds = new int[columns * rows];
+		this.mTypes = new byte[columns * rows];
+		this.mFlags = new byte[columns * rows];
+
+		this.mVersionBlockColumns = (((columns + VERSION_BLOCK_SIZE) - 1) / VERSION_BLOCK_SIZE);
+		this.mVersions = new int[this.mVersionBlockColumns * (((rows + VERSION_BLOCK_SIZE) - 1) / VERSION_BLOCK_SIZE)];
+	}
+
+	@Override
+	public int getTileId(int cell)
+	{
+		return this.mTileIds[cell];
+	}
+
+	@Override
+	public int getType(int cell)
+	{
+		return this.mTypes[cell];
+	}
+
+	@Override
+	public int getFlags(int cell)
+	{
+		return this.mFlags[cell];
+	}
+
+	/**
+	 * Stores a tile at a given column and row, replacing any existing tile.
+	 * @param int column
+	 * @param int row
+	 * @param int tileId - The tile ID, as defined by the game tile templates.
+	 * @param int type - One of the TYPE_ values.
+	 * @param int flags - A combination of the FLAG_ values, as given by getTileFlags.
+	 */
+	public void setTile(int column, int row, int tileId, int type, int flags)
+	{
+		int cell = getCell(column, row);
+
+		if (cell < 0)
+		{
+			return;
+		}
+
+		this.mTileIds[cell] = tileId;
+		this.mTypes[cell] = (byte) type;
+		this.mFlags[cell] = (byte) flags;
+
+		this.mVersions[((row / VERSION_BLOCK_SIZE) * this.mVersionBlockColumns) + (column / VERSION_BLOCK_SIZE)]++;
+	}
+
+	/**
+	 * Versions only increase, so the sum of the versions of the blocks
+	 * covering a region changes whenever a tile in any of them changes.
+	 */
+	@Override
+	public int getVersion(int column, int row, int columns, int rows)
+	{
+		if ((columns <= 0) || (rows <= 0) || (this.mVersions.length == 0))
+		{
+			return 0;
+		}
+
+		int firstBlockColumn = (clamp(column, this.mColumns) / VERSION_BLOCK_SIZE);
+		int lastBlockColumn = (clamp((column + columns - 1), this.mColumns) / VERSION_BLOCK_SIZE);
+		int firstBlockRow = (clamp(row, this.mRows) / VERSION_BLOCK_SIZE);
+		int lastBlockRow = (clamp((row + rows - 1), this.mRows) / VERSION_BLOCK_SIZE);
+
+		int version = 0;
+
+		for (int blockRow = firstBlockRow; blockRow <= lastBlockRow; blockRow++)
+		{
+			for (int blockColumn = firstBlockColumn; blockColumn <= lastBlockColumn; blockColumn++)
+			{
+				version += this.mVersions[(blockRow * this.mVersionBlockColumns) + blockColumn];
+			}
+		}
+
+		return version;
+	}
+}
@@ -0,0 +1,364 @@
+package org.ruscoe.example.tilegame;
+
+/**
+ * TileMap is the base of the classes storing the game tiles of a level by
+ * column and row.
+ *
+ * Each cell of the map is identified by its index in row-major order, and
+ * has a tile ID, tile type and flags. Subclasses decide how the cells are
+ * stored; TileMap provides the cell arithmetic and the collision detection
+ * shared by all of them, visiting only the cells covering a given area.
+ *
+ * TileMap and its subclasses use no Android classes, so levels can be
+ * loaded and played without a device; see GameSimulation.
+ *
+ * All positions used by the map are level positions, measured from the
+ * top left corner of the first tile in the level.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public abstract class TileMap
+{
+	public static final int TYPE_EMPTY = 0;
+	public static final int TYPE_OBSTACLE = 1;
+	public static final int TYPE_DANGEROUS = 2;
+	public static final int TYPE_EXIT = 3;
+
+	public static final int FLAG_VISIBLE = 1;
+	public static final int FLAG_COLLISION = 2;
+	public static final int FLAG_BLOCKER = 4;
+	public static final int FLAG_DANGEROUS = 8;
+	public static final int FLAG_EXIT = 16;
+	public static final int FLAG_ANIMATED = 32;
+
+	protected final int mColumns;
+	protected final int mRows;
+	protected final int mTileWidth;
+	protected final int mTileHeight;
+
+	/**
+	 * @param int columns - The number of tile columns in the level.
+	 * @param int rows - The number of tile rows in the level.
+	 * @param int tileWidth - The width of every tile in the level.
+	 * @param int tileHeight - The height of every tile in the level.
+	 */
+	protected TileMap(int columns, int rows, int tileWidth, int tileHeight)
+	{
+		if ((columns < 0) || (rows < 0) || (((long) columns * rows) > Integer.MAX_VALUE))
+		{
+			throw new IllegalArgumentException("Invalid map dimensions: " + columns + "x" + rows);
+		}
+
+		this.mColumns = columns;
+		this.mRows = rows;
+		this.mTileWidth = tileWidth;
+		this.mTileHeight = tileHeight;
+	}
+
+	public int getColumns()
+	{
+		return this.mColumns;
+	}
+
+	public int getRows()
+	{
+		return this.mRows;
+	}
+
+	public int getTileWidth()
+	{
+		return this.mTileWidth;
+	}
+
+	public int getTileHeight()
+	{
+		return this.mTileHeight;
+	}
+
+	/**
+	 * Gets the index of the cell at a given column and row.
+	 * @param int column
+	 * @param int row
+	 * @return int - The cell index, or -1 if outside the map.
+	 */
+	public int getCell(int column, int row)
+	{
+		if ((column < 0) || (column >= this.mColumns)
+				|| (row < 0) || (row >= this.mRows))
+		{
+			return -1;
+		}
+
+		return ((row * this.mColumns) + column);
+	}
+
+	public int getCellColumn(int cell)
+	{
+		return (cell % this.mColumns);
+	}
+
+	public int getCellRow(int cell)
+	{
+		return (cell / this.mColumns);
+	}
+
+	/**
+	 * Gets the tile ID of a cell.
+	 * @param int cell
+	 * @return int - The tile ID, or 0 for an empty cell.
+	 */
+	public abstract int getTileId(int cell);
+
+	/**
+	 * Gets the tile type of a cell.
+	 * @param int cell
+	 * @return int - One of the TYPE_ values.
+	 */
+	public abstract int getType(int cell);
+
+	/**
+	 * Gets the flags of a cell.
+	 * @param int cell
+	 * @return int - A combination of the FLAG_ values.
+	 */
+	public abstract int getFlags(int cell);
+
+	/**
+	 * Sets the area of the level in use, such as the area around the
+	 * player. Maps loading their cells on demand keep the cells of this
+	 * area available; maps held entirely in memory ignore it.
+	 * @param int x - The X (horizontal) level position of the area.
+	 * @param int y - The Y (vertical) level position of the area.
+	 * @param int width - The width of the area.
+	 * @param int height - The height of the area.
+	 */
+	public void setActiveArea(int x, int y, int width, int height)
+	{
+	}
+
+	/**
+	 * Detects whether every cell covering an area of the level is
+	 * available. Cells that are not available read as empty.
+	 * @param int x - The X (horizontal) level position of the area.
+	 * @param int y - The Y (vertical) level position of the area.
+	 * @param int width - The width of the area.
+	 * @param int height - The height of the area.
+	 * @return boolean
+	 */
+	public boolean isAreaAvailable(int x, int y, int width, int height)
+	{
+		return true;
+	}
+
+	/**
+	 * Gets a number changing whenever any tile in a region of the map
+	 * changes, so anything built from the tiles of the region can tell
+	 * when to rebuild. Maps whose tiles never change once built always
+	 * return the same number.
+	 * @param int column - The first column of the region.
+	 * @param int row - The first row of the region.
+	 * @param int columns - The number of columns in the region.
+	 * @param int rows - The number of rows in the region.
+	 * @return int
+	 */
+	public int getVersion(int column, int row, int columns, int rows)
+	{
+		return 0;
+	}
+
+	/**
+	 * Frees any resources held by the map, once it is no longer used.
+	 */
+	public void release()
+	{
+	}
+
+	@Override
+	public String toString()
+	{
+		return getClass().getSimpleName() + "[" + getColumns() + "x" + getRows() + "]";
+	}
+
+	/**
+	 * Gets the column containing a given X (horizontal) level position,
+	 * clamped to the columns of the map.
+	 * @param int x
+	 * @return int
+	 */
+	public int getColumnAt(int x)
+	{
+		return clamp(floorDiv(x, this.mTileWidth), this.mColumns);
+	}
+
+	/**
+	 * Gets the row containing a given Y (vertical) level position,
+	 * clamped to the rows of the map.
+	 * @param int y
+	 * @return int
+	 */
+	public int getRowAt(int y)
+	{
+		return clamp(floorDiv(y, this.mTileHeight), this.mRows);
+	}
+
+	/**
+	 * Gets the largest number of cells an area of a given size can cover.
+	 * @param int width
+	 * @param int height
+	 * @return int
+	 */
+	public int getMaxCellCount(int width, int height)
+	{
+		if ((this.mTileWidth <= 0) || (this.mTileHeight <= 0))
+		{
+			return 0;
+		}
+
+		return ((((width - 1) / this.mTileWidth) + 2) * (((height - 1) / this.mTileHeight) + 2));
+	}
+
+	/**
+	 * Gets the cells containing tiles colliding with an area of the level.
+	 * Only the cells covered by the area are inspected.
+	 * @param int x - The X (horizontal) level position of the area.
+	 * @param int y - The Y (vertical) level position of the area.
+	 * @param int width - The width of the area.
+	 * @param int height - The height of the area.
+	 * @param int[] collisionCells - Filled with the colliding cells. Should hold
+	 * 		at least getMaxCellCount(width, height) cells; further cells are ignored.
+	 * @return int - The number of colliding cells.
+	 */
+	public int getCollisionCells(int x, int y, int width, int height, int[] collisionCells)
+	{
+		if ((width <= 0) || (height <= 0)
+				|| (this.mColumns == 0) || (this.mRows == 0))
+		{
+			return 0;
+		}
+
+		int firstColumn = floorDiv(x, this.mTileWidth);
+		int lastColumn = floorDiv((x + width - 1), this.mTileWidth);
+		int firstRow = floorDiv(y, this.mTileHeight);
+		int lastRow = floorDiv((y + height - 1), this.mTileHeight);
+
+		// Cells outside the map never collide.
+		if ((lastColumn < 0) || (firstColumn >= this.mColumns)
+				|| (lastRow < 0) || (firstRow >= this.mRows))
+		{
+			return 0;
+		}
+
+		firstColumn = clamp(firstColumn, this.mColumns);
+		lastColumn = clamp(lastColumn, this.mColumns);
+		firstRow = clamp(firstRow, this.mRows);
+		lastRow = clamp(lastRow, this.mRows);
+
+		int collisionCellsSize = 0;
+
+		for (int row = firstRow; row <= lastRow; row++)
+		{
+			int cell = ((row * this.mColumns) + firstColumn);
+			int tileY = (row * this.mTileHeight);
+
+			for (int column = firstColumn; column <= lastColumn; column++, cell++)
+			{
+				if ((getFlags(cell) & FLAG_COLLISION) == 0)
+				{
+					continue;
+				}
+
+				int tileX = (column * this.mTileWidth);
+
+				// Make sure tiles don't collide with themselves
+				if ((tileX == x) && (tileY == y))
+				{
+					continue;
+				}
+
+				if (GameCollision.intersects(x, y, width, height,
+						tileX, tileY, this.mTileWidth, this.mTileHeight)
+						&& (collisionCellsSize < collisionCells.length))
+				{
+					collisionCells[collisionCellsSize++] = cell;
+				}
+			}
+		}
+
+		return collisionCellsSize;
+	}
+
+	/**
+	 * Gets the flags for a tile, following the rules of GameTile.isCollisionTile
+	 * and GameTile.isBlockerTile.
+	 * @param int type
+	 * @param boolean visible
+	 * @return int
+	 */
+	public static int getTileFlags(int type, boolean visible)
+	{
+		int flags = 0;
+
+		if (visible)
+		{
+			flags |= FLAG_VISIBLE;
+		}
+
+		if (type != TYPE_EMPTY)
+		{
+			flags |= FLAG_BLOCKER;
+
+			if (visible)
+			{
+				flags |= FLAG_COLLISION;
+			}
+		}
+
+		switch (type)
+		{
+		case TYPE_DANGEROUS:
+			flags |= FLAG_DANGEROUS;
+			break;
+		case TYPE_EXIT:
+			flags |= FLAG_EXIT;
+			break;
+		}
+
+		return flags;
+	}
+
+	/**
+	 * Divides, rounding towards negative infinity so positions left of or
+	 * above the level map to negative cells.
+	 */
+	protected static int floorDiv(int value, int divisor)
+	{
+		if (divisor <= 0)
+		{
+			return 0;
+		}
+
+		int result = value / divisor;
+		if ((value < 0) && ((result * divisor) != value))
+		{
+			result--;
+		}
+
+		return result;
+	}
+
+	protected static int clamp(int cell, int cells)
+	{
+		if (cell < 0)
+		{
+			return 0;
+		}
+
+		if (cell >= cells)
+		{
+			return (cells - 1);
+		}
+
+		return cell;
+	}
+}
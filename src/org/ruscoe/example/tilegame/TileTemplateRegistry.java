@@ -0,0 +1,227 @@
+package org.ruscoe.example.tilegame;
+
+/**
+ * The TileTemplateRegistry class holds the templates defining every
+ * available game tile: its name, type, drawable and visibility, and the
+ * frames of animated tiles.
+ *
+ * Templates are stored in primitive arrays indexed by tile ID, so the
+ * properties of a tile are found without a map lookup or boxing. Tile IDs
+ * are small and densely allocated, which keeps the arrays short.
+ *
+ * A registry can't be modified once created, so it may be shared
+ * between threads.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class TileTemplateRegistry
+{
+	private final String[] mNames;
+	private final byte[] mTypes;
+	private final int[] mDrawables;
+	private final boolean[] mVisible;
+	private final byte[] mFlags;
+	private final boolean[] mDefined;
+
+	/**
+	 * The drawable of each frame of animated tiles, null for other tiles.
+	 */
+	private final int[][] mFrameDrawables;
+	private final int[] mFrameDurations;
+
+	private final int mTemplateCount;
+
+	/**
+	 * Creates a registry from a set of templates. Each array holds one
+	 * property of each template, in the same order.
+	 * @param int[] tileIds - The tile ID of each template. IDs must not be negative.
+	 * @param String[] names - The name of each template.
+	 * @param int[] types - The type of each template, one of the TileMap.TYPE_ values.
+	 * @param int[] drawables - The drawable resource ID of each template, or 0 for none.
+	 * @param boolean[] visible - The visibility of each template.
+	 */
+	public TileTemplateRegistry(int[] tileIds, String[] names, int[] types, int[] drawables, boolean[] visible)
+	{
+		this(tileIds, names, types, drawables, visible, new int[tileIds.length][], new int[tileIds.length]);
+	}
+
+	/**
+	 * Creates a registry from a set of templates, including animated tiles.
+	 * Each array holds one property of each template, in the same order.
+	 * @param int[] tileIds - The tile ID of each template. IDs must not be negative.
+	 * @param String[] names - The name of each template.
+	 * @param int[] types - The type of each template, one of the TileMap.TYPE_ values.
+	 * @param int[] drawables - The drawable resource ID of each template, or 0 for none.
+	 * @param boolean[] visible - The visibility of each template.
+	 * @param int[][] frameDrawables - The drawable resource ID of each animation frame
+	 * 		of each template, or null for templates that are not animated.
+	 * @param int[] frameDurations - The time each animation frame is shown for, in
+	 * 		milliseconds. Templates with a duration of 0 are not animated.
+	 */
+	public TileTemplateRegistry(int[] tileIds, String[] names, int[] types, int[] drawables, boolean[] visible,
+			int[][] frameDrawables, int[] frameDurations)
+	{
+		int maxTileId = 0;
+		for (int tileId : tileIds)
+		{
+			if (tileId < 0)
+			{
+				throw new IllegalArgumentException("Invalid tile ID: " + tileId);
+			}
+
+			maxTileId = Math.max(maxTileId, tileId);
+		}
+
+		this.mNames = new String[maxTileId + 1];
+		this.mTypes = new byte[maxTileId + 1];
+		this.mDrawables = new int[maxTileId + 1];
+		this.mVisible = new boolean[maxTileId + 1];
+		this.mFlags = new byte[maxTileId + 1];
+		this.mDefined = new boolean[maxTileId + 1];
+		this.mFrameDrawables = new int[maxTileId + 1][];
+		this.mFrameDurations = new int[maxTileId + 1];
+
+		for (int i = 0; i < tileIds.length; i++)
+		{
+			int tileId = tileIds[i];
+
+			this.mNames[tileId] = names[i];
+			this.mTypes[tileId] = (byte) types[i];
+			this.mDrawables[tileId] = drawables[i];
+			this.mVisible[tileId] = visible[i];
+			this.mFlags[tileId] = (byte) TileMap.getTileFlags(types[i], visible[i]);
+			this.mDefined[tileId] = true;
+
+			// Only tiles with more than one frame shown for some time are animated.
+			if ((frameDrawables[i] != null) && (frameDrawables[i].length > 1) && (frameDurations[i] > 0))
+			{
+				this.mFrameDrawables[tileId] = frameDrawables[i].clone();
+				this.mFrameDurations[tileId] = frameDurations[i];
+				this.mFlags[tileId] |= TileMap.FLAG_ANIMATED;
+			}
+		}
+
+		this.mTemplateCount = tileIds.length;
+	}
+
+	/**
+	 * Gets the highest tile ID in the registry. Arrays indexed by tile ID
+	 * need one more entry than this.
+	 * @return int
+	 */
+	public int getMaxTileId()
+	{
+		return (this.mDefined.length - 1);
+	}
+
+	/**
+	 * Gets the number of templates in the registry.
+	 * @return int
+	 */
+	public int getTemplateCount()
+	{
+		return this.mTemplateCount;
+	}
+
+	/**
+	 * Detects whether a template exists for a given tile ID.
+	 * @param int tileId
+	 * @return boolean
+	 */
+	public boolean isDefined(int tileId)
+	{
+		return ((tileId >= 0) && (tileId < this.mDefined.length) && this.mDefined[tileId]);
+	}
+
+	/**
+	 * Gets the name of a tile.
+	 * @param int tileId
+	 * @return String - The name, or null if the tile is not defined.
+	 */
+	public String getName(int tileId)
+	{
+		return isDefined(tileId) ? this.mNames[tileId] : null;
+	}
+
+	/**
+	 * Gets the type of a tile.
+	 * @param int tileId
+	 * @return int - One of the TileMap.TYPE_ values; TYPE_EMPTY if the tile is not defined.
+	 */
+	public int getType(int tileId)
+	{
+		return isDefined(tileId) ? this.mTypes[tileId] : TileMap.TYPE_EMPTY;
+	}
+
+	/**
+	 * Gets the drawable resource ID of a tile.
+	 * @param int tileId
+	 * @return int - The drawable resource ID, or 0 if the tile has none or is not defined.
+	 */
+	public int getDrawable(int tileId)
+	{
+		return isDefined(tileId) ? this.mDrawables[tileId] : 0;
+	}
+
+	/**
+	 * Gets the visibility of a tile.
+	 * @param int tileId
+	 * @return boolean - False if the tile is not defined.
+	 */
+	public boolean isVisible(int tileId)
+	{
+		return isDefined(tileId) && this.mVisible[tileId];
+	}
+
+	/**
+	 * Gets the TileMap flags for a tile, derived from its type and visibility.
+	 * @param int tileId
+	 * @return int - A combination of the TileMap.FLAG_ values; 0 if the tile is not defined.
+	 */
+	public int getFlags(int tileId)
+	{
+		return isDefined(tileId) ? this.mFlags[tileId] : 0;
+	}
+
+	/**
+	 * Detects whether a tile is animated.
+	 * @param int tileId
+	 * @return boolean - False if the tile is not defined.
+	 */
+	public boolean isAnimated(int tileId)
+	{
+		return isDefined(tileId) && (this.mFrameDrawables[tileId] != null);
+	}
+
+	/**
+	 * Gets the number of animation frames of a tile.
+	 * @param int tileId
+	 * @return int - The number of frames; 1 if the tile is not animated.
+	 */
+	public int getFrameCount(int tileId)
+	{
+		return isAnimated(tileId) ? this.mFrameDrawables[tileId].length : 1;
+	}
+
+	/**
+	 * Gets the drawable resource ID of an animation frame of a tile.
+	 * @param int tileId
+	 * @param int frame - The frame, from 0 to getFrameCount(tileId) - 1.
+	 * @return int - The drawable resource ID; the drawable of the tile if not animated.
+	 */
+	public int getFrameDrawable(int tileId, int frame)
+	{
+		return isAnimated(tileId) ? this.mFrameDrawables[tileId][frame] : getDrawable(tileId);
+	}
+
+	/**
+	 * Gets the time each animation frame of a tile is shown for.
+	 * @param int tileId
+	 * @return int - The time in milliseconds, or 0 if the tile is not animated.
+	 */
+	public int getFrameDuration(int tileId)
+	{
+		return isAnimated(tileId) ? this.mFrameDurations[tileId] : 0;
+	}
+}
@@ -6,8 +6,10 @@ import org.ruscoe.example.tilegame.GameTile;
 import org.ruscoe.example.tilegame.R;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 /**
@@ -16,20 +18,38 @@ import android.util.Log;
  * The class includes the initial queries required to create the
  * database used by the game. 
  * 
+ * All data access objects share a single database connection, opened
+ * on first use and kept open for the life of the application process,
+ * rather than opening and closing the database for every query.
+ * 
  * @author Dan Ruscoe (ruscoe.org)
  * @version 1.0
  */
 public class GameDAO extends SQLiteOpenHelper
 {
 	private static final String DATABASE_NAME = "tilegame.db";
-	private static final int DATABASE_VERSION = 1;
+	static final int DATABASE_VERSION = 3;
+
+	/**
+	 * The helper owning the shared database connection.
+	 */
+	private static GameDAO sSharedHelper = null;
+
+	/**
+	 * The number of queries run against the database, for diagnostics.
+	 */
+	private static int sQueryCount = 0;
+
+	private Context mContext = null;
 
 	// Create table statements
 
 	/**
-	 * The table containing the definitions of each available game tile type.
+	 * The table containing the definitions of each available game tile type,
+	 * as created by version 2 of the database. The columns defining animated
+	 * tiles are added by upgradeGameTiles.
 	 */
-	private static final String CREATE_TABLE_GAME_TILES = "CREATE TABLE " + GameTileData.TABLE_NAME + " ("
+	private static final String CREATE_TABLE_GAME_TILES_V2 = "CREATE TABLE " + GameTileData.TABLE_NAME + " ("
 		+ _ID + " INTEGER PRIMARY KEY, "
 		+ GameTileData.NAME + " STRING,"
 		+ GameTileData.TYPE + " INTEGER DEFAULT 0,"
@@ -38,9 +58,13 @@ public class GameDAO extends SQLiteOpenHelper
 		+ ");";
 
 	/**
-	 * The table containing the definitions of each level.
+	 * The table containing the definitions of each level, as created by
+	 * version 1 of the database. Tile data is stored as text.
+	 * 
+	 * Levels are still defined in this form, and converted to the current
+	 * table by upgradeGameLevelTiles.
 	 */
-	private static final String CREATE_TABLE_GAME_LEVEL_TILES = "CREATE TABLE " + GameLevelTileData.TABLE_NAME + " ("
+	private static final String CREATE_TABLE_GAME_LEVEL_TILES_V1 = "CREATE TABLE " + GameLevelTileData.TABLE_NAME + " ("
 		+ _ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
 		+ GameLevelTileData.STAGE + " INTEGER DEFAULT 0,"
 		+ GameLevelTileData.LEVEL + " INTEGER DEFAULT 0,"
@@ -49,6 +73,29 @@ public class GameDAO extends SQLiteOpenHelper
 		+ GameLevelTileData.TILE_DATA + " TEXT NOT NULL"
 		+ ");";
 
+	/**
+	 * The table containing the definitions of each level. Tile IDs are
+	 * stored run-length encoded, see TileRunLength.
+	 */
+	private static final String CREATE_TABLE_GAME_LEVEL_TILES = "CREATE TABLE " + GameLevelTileData.TABLE_NAME + " ("
+		+ _ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+		+ GameLevelTileData.STAGE + " INTEGER DEFAULT 0,"
+		+ GameLevelTileData.LEVEL + " INTEGER DEFAULT 0,"
+		+ GameLevelTileData.PLAYER_START_TILE_X + " INTEGER DEFAULT 0,"
+		+ GameLevelTileData.PLAYER_START_TILE_Y + " INTEGER DEFAULT 0,"
+		+ GameLevelTileData.WIDTH + " INTEGER NOT NULL,"
+		+ GameLevelTileData.HEIGHT + " INTEGER NOT NULL,"
+		+ GameLevelTileData.TILES + " BLOB NOT NULL"
+		+ ");";
+
+	/**
+	 * Levels are always looked up by stage and level.
+	 */
+	private static final String CREATE_INDEX_GAME_LEVEL_TILES = "CREATE UNIQUE INDEX "
+		+ GameLevelTileData.TABLE_NAME + "_" + GameLevelTileData.STAGE + "_" + GameLevelTileData.LEVEL
+		+ " ON " + GameLevelTileData.TABLE_NAME
+		+ " (" + GameLevelTileData.STAGE + ", " + GameLevelTileData.LEVEL + ");";
+
 	// Populate table statements
 
 	/**
@@ -90,31 +137,42 @@ public class GameDAO extends SQLiteOpenHelper
 	};
 
 	/**
-	 * Populates the level data definition table. Each row contains:
-	 * - An automatically generated unique ID.
-	 * - The stage ID.
-	 * - The level ID.
-	 * - The player start tile X (horizontal) location.
-	 * - The player start tile Y (vertical) location.
-	 * - The level tile data.
-	 * 		Level tile data consists of rows of comma-delimited game tile IDs.
-	 * 		The tile IDs used correspond to the unique IDs found in the game
-	 * 		tile definition table.
-	 * 
-	 * 		The position of each game tile ID corresponds to the position the
-	 * 		tile will be drawn in the game.
+	 * Adds the animated game tiles to the game tile definition table. Each
+	 * row contains the same columns as POPULATE_TABLE_GAME_TILES, followed by:
+	 * - The drawable resource ID of each animation frame, comma-delimited.
+	 * - The time each animation frame is shown for, in milliseconds.
 	 */
-	private static final String[] POPULATE_TABLE_GAME_LEVEL_TILES = {
-		"INSERT INTO " + GameLevelTileData.TABLE_NAME + " VALUES "
-		+ "(null,1,1,7,3,\""
+	private static final String[] POPULATE_TABLE_ANIMATED_GAME_TILES = {
+		"INSERT OR REPLACE INTO " + GameTileData.TABLE_NAME + " VALUES "
+		+ "(10,\"Goo Tile\"," + GameTile.TYPE_DANGEROUS + "," + R.drawable.tile_goo1_frame1 + ",1,\""
+		+ R.drawable.tile_goo1_frame1 + GameTileData.ANIMATION_FRAME_SEPARATOR + R.drawable.tile_goo1_frame2
+		+ "\",400);",
+
+		"INSERT OR REPLACE INTO " + GameTileData.TABLE_NAME + " VALUES "
+		+ "(11,\"Button Tile 01\"," + GameTile.TYPE_OBSTACLE + "," + R.drawable.tile_button01_frame1 + ",1,\""
+		+ R.drawable.tile_button01_frame1 + GameTileData.ANIMATION_FRAME_SEPARATOR + R.drawable.tile_button01_frame2
+		+ "\",500);",
+
+		"INSERT OR REPLACE INTO " + GameTileData.TABLE_NAME + " VALUES "
+		+ "(12,\"Button Tile 02\"," + GameTile.TYPE_OBSTACLE + "," + R.drawable.tile_button02_frame1 + ",1,\""
+		+ R.drawable.tile_button02_frame1 + GameTileData.ANIMATION_FRAME_SEPARATOR + R.drawable.tile_button02_frame2
+		+ "\",500);"
+	};
+
+	/**
+	 * The tile data of stage 1, level 1, the level bundled with the game.
+	 * Version 3 of the database places the animated tiles in the level,
+	 * so it is replaced in upgraded databases by upgradeBundledLevels.
+	 */
+	private static final String GAME_LEVEL_1_1_TILE_DATA = ""
 				// 1  2  3  4  5  6  7  8  9  10 11 12 13 14 15
 		/* 1  */+ "01,01,01,01,01,01,01,01,01,01,01,01,01,01,01" + GameLevelTileData.TILE_DATA_LINE_BREAK
 		/* 2  */+ "01,03,03,03,03,03,03,03,03,03,03,03,03,03,01" + GameLevelTileData.TILE_DATA_LINE_BREAK
 		/* 3  */+ "01,03,00,00,00,00,00,00,00,00,00,00,00,03,01" + GameLevelTileData.TILE_DATA_LINE_BREAK
 		/* 4  */+ "01,03,00,00,00,00,00,00,00,00,00,07,07,03,01" + GameLevelTileData.TILE_DATA_LINE_BREAK
 		/* 5  */+ "01,03,07,00,00,00,00,00,00,00,07,07,07,03,01" + GameLevelTileData.TILE_DATA_LINE_BREAK
-		/* 6  */+ "01,03,05,05,06,05,00,00,00,05,06,05,05,03,01" + GameLevelTileData.TILE_DATA_LINE_BREAK
-		/* 7  */+ "01,03,03,00,08,00,00,00,00,00,08,00,03,03,01" + GameLevelTileData.TILE_DATA_LINE_BREAK
+		/* 6  */+ "01,03,05,05,11,05,00,00,00,05,12,05,05,03,01" + GameLevelTileData.TILE_DATA_LINE_BREAK
+		/* 7  */+ "01,03,03,00,10,00,00,00,00,00,10,00,03,03,01" + GameLevelTileData.TILE_DATA_LINE_BREAK
 		/* 8  */+ "01,03,00,00,00,00,00,00,00,00,00,00,00,03,01" + GameLevelTileData.TILE_DATA_LINE_BREAK
 		/* 9  */+ "01,03,00,00,00,00,00,00,00,00,00,00,00,03,01" + GameLevelTileData.TILE_DATA_LINE_BREAK
 		/* 10 */+ "01,03,00,00,00,00,04,04,04,00,00,00,00,03,01" + GameLevelTileData.TILE_DATA_LINE_BREAK
@@ -124,13 +182,80 @@ public class GameDAO extends SQLiteOpenHelper
 		/* 14 */+ "01,03,00,00,00,00,00,09,00,00,00,00,07,03,01" + GameLevelTileData.TILE_DATA_LINE_BREAK
 		/* 15 */+ "01,03,03,00,00,00,02,02,02,00,00,00,03,03,01" + GameLevelTileData.TILE_DATA_LINE_BREAK
 		/* 16 */+ "01,03,03,04,04,04,02,02,02,04,04,04,03,03,01" + GameLevelTileData.TILE_DATA_LINE_BREAK
-		/* 17 */+ "01,01,01,01,01,01,01,01,01,01,01,01,01,01,01" + GameLevelTileData.TILE_DATA_LINE_BREAK
-		+ "\");"		
+		/* 17 */+ "01,01,01,01,01,01,01,01,01,01,01,01,01,01,01" + GameLevelTileData.TILE_DATA_LINE_BREAK;
+
+	/**
+	 * Populates the version 1 level data definition table. Each row contains:
+	 * - An automatically generated unique ID.
+	 * - The stage ID.
+	 * - The level ID.
+	 * - The player start tile X (horizontal) location.
+	 * - The player start tile Y (vertical) location.
+	 * - The level tile data.
+	 * 		Level tile data consists of rows of comma-delimited game tile IDs.
+	 * 		The tile IDs used correspond to the unique IDs found in the game
+	 * 		tile definition table.
+	 * 
+	 * 		The position of each game tile ID corresponds to the position the
+	 * 		tile will be drawn in the game.
+	 */
+	private static final String[] POPULATE_TABLE_GAME_LEVEL_TILES = {
+		"INSERT INTO " + GameLevelTileData.TABLE_NAME + " VALUES "
+		+ "(null,1,1,7,3,\"" + GAME_LEVEL_1_1_TILE_DATA + "\");"
 	};
 
 	public GameDAO(Context ctx)
 	{
 		super(ctx, DATABASE_NAME, null, DATABASE_VERSION);
+
+		this.mContext = ctx;
+	}
+
+	/**
+	 * Gets the shared database connection, opening it if necessary.
+	 * @return SQLiteDatabase
+	 */
+	protected SQLiteDatabase getDatabase()
+	{
+		synchronized (GameDAO.class)
+		{
+			if (sSharedHelper == null)
+			{
+				sSharedHelper = new GameDAO(this.mContext.getApplicationContext());
+			}
+
+			return sSharedHelper.getReadableDatabase();
+		}
+	}
+
+	/**
+	 * Runs a query on the shared database connection. Values are always
+	 * passed as arguments rather than concatenated into the query, so
+	 * each distinct query is compiled once by the connection.
+	 * @param String sql - The query, using ? in place of each argument.
+	 * @param String[] selectionArgs - The argument values, or null.
+	 * @return Cursor
+	 */
+	protected Cursor query(String sql, String[] selectionArgs)
+	{
+		SQLiteDatabase db = getDatabase();
+
+		synchronized (GameDAO.class)
+		{
+			sQueryCount++;
+		}
+
+		return db.rawQuery(sql, selectionArgs);
+	}
+
+	/**
+	 * Gets the number of queries run against the database since the
+	 * application process started.
+	 * @return int
+	 */
+	public static synchronized int getQueryCount()
+	{
+		return sQueryCount;
 	}
 
 	@Override
@@ -140,8 +265,8 @@ public class GameDAO extends SQLiteOpenHelper
 		
 		Log.d("Tile Game Example", "Creating DB tables");
 		
-		db.execSQL(CREATE_TABLE_GAME_TILES);
-		db.execSQL(CREATE_TABLE_GAME_LEVEL_TILES);
+		db.execSQL(CREATE_TABLE_GAME_TILES_V2);
+		db.execSQL(CREATE_TABLE_GAME_LEVEL_TILES_V1);
 
 		// Populate game tables
 		
@@ -156,15 +281,154 @@ public class GameDAO extends SQLiteOpenHelper
 		{
 			db.execSQL(query);
 		}
+
+		upgradeGameTiles(db);
+		upgradeGameLevelTiles(db);
 	}
 
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
 	{
-		db.execSQL("DROP TABLE IF EXISTS " + GameTileData.TABLE_NAME);
-		db.execSQL("DROP TABLE IF EXISTS " + GameLevelTileData.TABLE_NAME);
-		
-		onCreate(db);
+		Log.d("Tile Game Example", "Upgrading DB from version " + oldVersion + " to " + newVersion);
+
+		if (oldVersion < 2)
+		{
+			upgradeGameLevelTiles(db);
+		}
+
+		if (oldVersion < 3)
+		{
+			upgradeGameTiles(db);
+			upgradeBundledLevels(db);
+		}
+	}
+
+	/**
+	 * Adds the columns defining animated tiles to the version 2 game tile
+	 * definition table, and adds the animated tiles. Existing tiles are kept,
+	 * and are not animated.
+	 * @param SQLiteDatabase db
+	 */
+	private void upgradeGameTiles(SQLiteDatabase db)
+	{
+		db.execSQL("ALTER TABLE " + GameTileData.TABLE_NAME
+				+ " ADD COLUMN " + GameTileData.ANIMATION_FRAMES + " TEXT");
+		db.execSQL("ALTER TABLE " + GameTileData.TABLE_NAME
+				+ " ADD COLUMN " + GameTileData.FRAME_DURATION + " INTEGER DEFAULT 0");
+
+		for (String query : POPULATE_TABLE_ANIMATED_GAME_TILES)
+		{
+			db.execSQL(query);
+		}
+	}
+
+	/**
+	 * Converts the version 1 level data definition table, storing tile
+	 * data as text, to the current table. Existing levels are kept.
+	 * @param SQLiteDatabase db
+	 */
+	private void upgradeGameLevelTiles(SQLiteDatabase db)
+	{
+		String previousTableName = GameLevelTileData.TABLE_NAME + "_v1";
+
+		db.execSQL("ALTER TABLE " + GameLevelTileData.TABLE_NAME + " RENAME TO " + previousTableName);
+		db.execSQL(CREATE_TABLE_GAME_LEVEL_TILES);
+		db.execSQL(CREATE_INDEX_GAME_LEVEL_TILES);
+
+		SQLiteStatement insert = compileInsertLevel(db);
+
+		// Rows are converted in insertion order, so a later definition
+		// of the same level replaces an earlier one.
+		Cursor cursor = db.rawQuery("SELECT "
+				+ GameLevelTileData.STAGE + ", "
+				+ GameLevelTileData.LEVEL + ", "
+				+ GameLevelTileData.PLAYER_START_TILE_X + ", "
+				+ GameLevelTileData.PLAYER_START_TILE_Y + ", "
+				+ GameLevelTileData.TILE_DATA
+				+ " FROM " + previousTableName + " ORDER BY " + _ID, null);
+
+		int levelCount = 0;
+
+		if (cursor != null)
+		{
+			while (cursor.moveToNext())
+			{
+				LevelData levelData;
+
+				try
+				{
+					levelData = LevelFormat.fromTileData(cursor.getInt(0), cursor.getInt(1),
+							cursor.getInt(2), cursor.getInt(3), cursor.getString(4));
+				} catch (IllegalArgumentException e)
+				{
+					Log.e("Tile Game Example", "Skipping invalid level tile data: " + e.getMessage());
+					continue;
+				}
+
+				insertLevel(insert, levelData);
+
+				levelCount++;
+			}
+			cursor.close();
+		}
+
+		insert.close();
+
+		db.execSQL("DROP TABLE " + previousTableName);
+
+		Log.d("Tile Game Example", "Converted " + levelCount + " levels");
+	}
+
+	/**
+	 * Replaces the bundled level with its current definition, which places
+	 * the animated tiles added by upgradeGameTiles, so upgraded databases
+	 * play the same level as new ones. Must be run on the current level
+	 * data definition table.
+	 * @param SQLiteDatabase db
+	 */
+	private void upgradeBundledLevels(SQLiteDatabase db)
+	{
+		SQLiteStatement insert = compileInsertLevel(db);
+
+		insertLevel(insert, LevelFormat.fromTileData(1, 1, 7, 3, GAME_LEVEL_1_1_TILE_DATA));
+
+		insert.close();
+	}
+
+	/**
+	 * Compiles a statement inserting a level into the current level data
+	 * definition table, replacing any level of the same stage and level.
+	 * @param SQLiteDatabase db
+	 * @return SQLiteStatement
+	 */
+	private static SQLiteStatement compileInsertLevel(SQLiteDatabase db)
+	{
+		return db.compileStatement("INSERT OR REPLACE INTO " + GameLevelTileData.TABLE_NAME + " ("
+				+ GameLevelTileData.STAGE + ", "
+				+ GameLevelTileData.LEVEL + ", "
+				+ GameLevelTileData.PLAYER_START_TILE_X + ", "
+				+ GameLevelTileData.PLAYER_START_TILE_Y + ", "
+				+ GameLevelTileData.WIDTH + ", "
+				+ GameLevelTileData.HEIGHT + ", "
+				+ GameLevelTileData.TILES
+				+ ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+	}
+
+	/**
+	 * Inserts a level using a statement compiled by compileInsertLevel.
+	 * @param SQLiteStatement insert
+	 * @param LevelData levelData
+	 */
+	private static void insertLevel(SQLiteStatement insert, LevelData levelData)
+	{
+		insert.bindLong(1, levelData.getStage());
+		insert.bindLong(2, levelData.getLevel());
+		insert.bindLong(3, levelData.getPlayerStartTileX());
+		insert.bindLong(4, levelData.getPlayerStartTileY());
+		insert.bindLong(5, levelData.getColumns());
+		insert.bindLong(6, levelData.getRows());
+		insert.bindBlob(7, TileRunLength.encode(levelData.getTileIds()));
+		insert.executeInsert();
 	}
 
 }
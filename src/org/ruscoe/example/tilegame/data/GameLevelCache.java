@@ -0,0 +1,146 @@
+package org.ruscoe.example.tilegame.data;
+
+import java.io.File;
+import java.io.IOException;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * The GameLevelCache class provides game levels in compiled form.
+ * 
+ * The first time a level is requested, every level in the game level
+ * table is read and written to a single level pack file in the
+ * application's files directory. The pack is then memory-mapped, and
+ * levels are read from it directly without querying the database.
+ * 
+ * The level pack is named after the database version, so it is built
+ * again whenever the database is upgraded.
+ * 
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class GameLevelCache
+{
+	private static final String LEVELS_DIRECTORY = "levels";
+
+	private Context mContext = null;
+	private GameLevelTileData mGameLevelTileData = null;
+
+	private LevelPack mLevelPack = null;
+
+	public GameLevelCache(Context context, GameLevelTileData gameLevelTileData)
+	{
+		this.mContext = context;
+		this.mGameLevelTileData = gameLevelTileData;
+	}
+
+	/**
+	 * Gets the level data for a given stage and level.
+	 * @param int stage - The game stage.
+	 * @param int level - The game level, relative to the stage.
+	 * @return LevelData - The level data, or null if the level does not exist.
+	 */
+	public synchronized LevelData getLevelData(int stage, int level)
+	{
+		try
+		{
+			return getLevelPack().getLevelData(stage, level);
+		} catch (IOException e)
+		{
+			Log.e("Tile Game Example", "Unable to read level pack: " + e.getMessage());
+		}
+
+		// Fall back to reading the level from the database.
+		return this.mGameLevelTileData.getGameLevelData(stage, level);
+	}
+
+	/**
+	 * Opens a given stage and level for reading a region at a time,
+	 * directly from the level pack.
+	 * @param int stage - The game stage.
+	 * @param int level - The game level, relative to the stage.
+	 * @return LevelReader - The level reader, or null if the level does not exist.
+	 */
+	public synchronized LevelReader getLevelReader(int stage, int level)
+	{
+		try
+		{
+			return getLevelPack().getLevelReader(stage, level);
+		} catch (IOException e)
+		{
+			Log.e("Tile Game Example", "Unable to read level pack: " + e.getMessage());
+		}
+
+		// Fall back to compiling the level from the database, so large
+		// levels are still never decoded whole.
+		return this.mGameLevelTileData.getGameLevelReader(stage, level);
+	}
+
+	/**
+	 * Gets the level pack, opening or building it if necessary.
+	 * @return LevelPack
+	 * @throws IOException
+	 */
+	private LevelPack getLevelPack() throws IOException
+	{
+		if (this.mLevelPack != null)
+		{
+			return this.mLevelPack;
+		}
+
+		File packFile = getLevelPackFile();
+
+		if (packFile.exists())
+		{
+			try
+			{
+				this.mLevelPack = LevelPack.open(packFile);
+				return this.mLevelPack;
+			} catch (IOException e)
+			{
+				Log.e("Tile Game Example", "Rebuilding level pack: " + e.getMessage());
+			}
+		}
+
+		buildLevelPack(packFile);
+
+		this.mLevelPack = LevelPack.open(packFile);
+		return this.mLevelPack;
+	}
+
+	/**
+	 * Writes every level in the game level table to a level pack file.
+	 * @param File packFile
+	 * @throws IOException
+	 */
+	private void buildLevelPack(File packFile) throws IOException
+	{
+		File levelsDirectory = packFile.getParentFile();
+
+		if (!levelsDirectory.exists() && !levelsDirectory.mkdirs())
+		{
+			throw new IOException("Unable to create " + levelsDirectory);
+		}
+
+		Log.d("Tile Game Example", "Building level pack");
+
+		// Write to a temporary file first, so a partly written file is
+		// never mistaken for a level pack.
+		File temporaryFile = new File(levelsDirectory, packFile.getName() + ".tmp");
+
+		this.mGameLevelTileData.writeLevelPack(temporaryFile);
+
+		if (!temporaryFile.renameTo(packFile))
+		{
+			throw new IOException("Unable to create " + packFile);
+		}
+	}
+
+	private File getLevelPackFile()
+	{
+		File levelsDirectory = new File(this.mContext.getFilesDir(), LEVELS_DIRECTORY);
+
+		return new File(levelsDirectory, "levels_v" + GameDAO.DATABASE_VERSION + ".pack");
+	}
+}
@@ -2,16 +2,25 @@ package org.ruscoe.example.tilegame.data;
 
 import static android.provider.BaseColumns._ID;
 
-import java.util.ArrayList;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
 
 /**
  * The GameTileData class represents a definition of a game
  * level stored in the database.
  * 
+ * The tile IDs of each level are stored run-length encoded, with the
+ * level width and height, and are decoded without any string parsing.
+ * 
  * @author Dan Ruscoe (ruscoe.org)
  * @version 1.0
  */
@@ -23,6 +32,13 @@ public class GameLevelTileData extends GameDAO
 	public static final String LEVEL = "level";
 	public static final String PLAYER_START_TILE_X = "playerStartTileX";
 	public static final String PLAYER_START_TILE_Y = "playerStartTileY";
+	public static final String WIDTH = "width";
+	public static final String HEIGHT = "height";
+	public static final String TILES = "tiles";
+
+	/**
+	 * The text tile data column of version 1 of the database.
+	 */
 	public static final String TILE_DATA = "tileData";
 
 	public static final int FIELD_ID_ID = 0;
@@ -30,9 +46,55 @@ public class GameLevelTileData extends GameDAO
 	public static final int FIELD_ID_LEVEL = 2;
 	public static final int FIELD_ID_PLAYER_START_TILE_X = 3;
 	public static final int FIELD_ID_PLAYER_START_TILE_Y = 4;
-	public static final int FIELD_ID_TILE_DATA = 5;
+	public static final int FIELD_ID_WIDTH = 5;
+	public static final int FIELD_ID_HEIGHT = 6;
+	public static final int FIELD_ID_TILES = 7;
+
+	public static final String TILE_DATA_LINE_BREAK = LevelFormat.TILE_DATA_LINE_BREAK;
+
+	private static final String QUERY_GAME_LEVEL_DATA = "SELECT "
+		+ _ID + ", " + STAGE + ", " + LEVEL + ", " + PLAYER_START_TILE_X + ", "
+		+ PLAYER_START_TILE_Y + ", " + WIDTH + ", " + HEIGHT + ", " + TILES
+		+ " FROM " + TABLE_NAME;
+
+	private static final String QUERY_GAME_LEVEL_DATA_BY_LEVEL = QUERY_GAME_LEVEL_DATA
+		+ " WHERE " + STAGE + " = ? AND " + LEVEL + " = ?";
+
+	/**
+	 * Every level, in the order levels are stored in a level pack.
+	 */
+	private static final String QUERY_ALL_GAME_LEVEL_DATA = QUERY_GAME_LEVEL_DATA
+		+ " ORDER BY " + STAGE + ", " + LEVEL;
 
-	public static final String TILE_DATA_LINE_BREAK = "//";
+	/**
+	 * The number of levels kept in memory once read from the database.
+	 */
+	private static final int MAX_CACHED_LEVELS = 4;
+
+	/**
+	 * The most recently used game level data read from the database, by
+	 * stage and level. Levels found not to exist are stored as null.
+	 */
+	private static final LinkedHashMap<Long, LevelData> sGameLevelData = new LinkedHashMap<Long, LevelData>(
+			(MAX_CACHED_LEVELS + 1), 1.0f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, LevelData> eldest)
+		{
+			return (size() > MAX_CACHED_LEVELS);
+		}
+	};
+
+	/**
+	 * A stream of a level compiled in memory, read without copying it.
+	 */
+	private static class CompiledLevelStream extends ByteArrayOutputStream
+	{
+		ByteBuffer toByteBuffer()
+		{
+			return ByteBuffer.wrap(this.buf, 0, this.count);
+		}
+	}
 
 	public GameLevelTileData(Context ctx)
 	{
@@ -40,37 +102,189 @@ public class GameLevelTileData extends GameDAO
 	}
 
 	/**
-	 * Gets an array of game level data for a given stage and level.
+	 * Gets the game level data for a given stage and level.
+	 * The most recently used levels are served from memory.
 	 * @param int stage - The game stage.
 	 * @param level - The game level, relative to the stage.
-	 * @return ArrayList
+	 * @return LevelData - The level data, or null if the level does not exist.
 	 */
-	public ArrayList<String> getGameLevelData(int stage, int level)
+	public LevelData getGameLevelData(int stage, int level)
+	{
+		Long key = getLevelKey(stage, level);
+
+		synchronized (sGameLevelData)
+		{
+			if (sGameLevelData.containsKey(key))
+			{
+				return sGameLevelData.get(key);
+			}
+
+			LevelData levelData = null;
+
+			String[] selectionArgs = { Integer.toString(stage), Integer.toString(level) };
+			Cursor cursor = this.query(QUERY_GAME_LEVEL_DATA_BY_LEVEL, selectionArgs);
+
+			if (cursor != null)
+			{
+				if (cursor.moveToFirst())
+				{
+					levelData = readGameLevelData(cursor);
+				}
+				cursor.close();
+			}
+
+			sGameLevelData.put(key, levelData);
+
+			return levelData;
+		}
+	}
+
+	/**
+	 * Writes every level to a level pack file. Levels are read from the
+	 * database and compiled one at a time, directly from their run-length
+	 * encoded tile IDs, so no level is ever decoded whole. Levels with
+	 * invalid tile data are left out.
+	 * @param File packFile
+	 * @throws IOException
+	 */
+	public void writeLevelPack(File packFile) throws IOException
+	{
+		Cursor cursor = this.query(QUERY_ALL_GAME_LEVEL_DATA, null);
+
+		if (cursor == null)
+		{
+			throw new IOException("Unable to read game levels");
+		}
+
+		LevelPack.Writer writer = null;
+
+		try
+		{
+			writer = new LevelPack.Writer(packFile, cursor.getCount());
+
+			while (cursor.moveToNext())
+			{
+				OutputStream outputStream = writer.startLevel(cursor.getInt(FIELD_ID_STAGE), cursor.getInt(FIELD_ID_LEVEL));
+
+				if (!writeLevel(cursor, outputStream))
+				{
+					writer.cancelLevel();
+					continue;
+				}
+
+				writer.endLevel();
+			}
+
+			writer.finish();
+		} finally
+		{
+			if (writer != null)
+			{
+				writer.close();
+			}
+
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Reads a given stage and level from the database in compiled form,
+	 * for reading a region at a time. The level is compiled directly from
+	 * its run-length encoded tile IDs, without being decoded whole.
+	 * @param int stage - The game stage.
+	 * @param int level - The game level, relative to the stage.
+	 * @return LevelReader - The level reader, or null if the level does not exist
+	 * 		or its tile data is invalid.
+	 */
+	public LevelReader getGameLevelReader(int stage, int level)
+	{
+		String[] selectionArgs = { Integer.toString(stage), Integer.toString(level) };
+		Cursor cursor = this.query(QUERY_GAME_LEVEL_DATA_BY_LEVEL, selectionArgs);
+
+		if (cursor == null)
+		{
+			return null;
+		}
+
+		try
+		{
+			if (!cursor.moveToFirst())
+			{
+				return null;
+			}
+
+			CompiledLevelStream compiledLevel = new CompiledLevelStream();
+
+			if (!writeLevel(cursor, compiledLevel))
+			{
+				return null;
+			}
+
+			return new LevelReader(compiledLevel.toByteBuffer());
+		} catch (IOException e)
+		{
+			Log.e("Tile Game Example", "Unable to compile level: " + e.getMessage());
+		} finally
+		{
+			cursor.close();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Writes the level at the current position of a cursor in compiled form.
+	 * @param Cursor cursor
+	 * @param OutputStream outputStream
+	 * @return boolean - false if the tile data is invalid, and nothing was written.
+	 * @throws IOException
+	 */
+	private static boolean writeLevel(Cursor cursor, OutputStream outputStream) throws IOException
+	{
+		try
+		{
+			LevelFormat.write(cursor.getInt(FIELD_ID_STAGE), cursor.getInt(FIELD_ID_LEVEL),
+					cursor.getInt(FIELD_ID_WIDTH), cursor.getInt(FIELD_ID_HEIGHT),
+					cursor.getInt(FIELD_ID_PLAYER_START_TILE_X), cursor.getInt(FIELD_ID_PLAYER_START_TILE_Y),
+					cursor.getBlob(FIELD_ID_TILES), outputStream);
+		} catch (IllegalArgumentException e)
+		{
+			Log.e("Tile Game Example", "Invalid tile data for level ID: " + cursor.getInt(FIELD_ID_ID)
+					+ ": " + e.getMessage());
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Reads the level at the current position of a cursor.
+	 * @param Cursor cursor
+	 * @return LevelData - The level data, or null if the tile data is invalid.
+	 */
+	private static LevelData readGameLevelData(Cursor cursor)
+	{
+		int width = cursor.getInt(FIELD_ID_WIDTH);
+		int height = cursor.getInt(FIELD_ID_HEIGHT);
+
+		try
+		{
+			int[] tileIds = TileRunLength.decode(cursor.getBlob(FIELD_ID_TILES), (width * height));
+
+			return new LevelData(cursor.getInt(FIELD_ID_STAGE), cursor.getInt(FIELD_ID_LEVEL), width, height,
+					cursor.getInt(FIELD_ID_PLAYER_START_TILE_X), cursor.getInt(FIELD_ID_PLAYER_START_TILE_Y),
+					tileIds);
+		} catch (IllegalArgumentException e)
+		{
+			Log.e("Tile Game Example", "Invalid tile data for level ID: " + cursor.getInt(FIELD_ID_ID)
+					+ ": " + e.getMessage());
+		}
+
+		return null;
+	}
+
+	private static Long getLevelKey(int stage, int level)
 	{
-    	SQLiteDatabase db = this.getReadableDatabase();
-    	
-    	String[] from = { _ID, STAGE, LEVEL, PLAYER_START_TILE_X, PLAYER_START_TILE_Y, TILE_DATA };
-    	String where = STAGE + " = " + stage + " AND " + LEVEL + " = " + level;
-    	
-    	Cursor cursor = db.query(TABLE_NAME, from, where, null, null, null, null);
-    	
-    	ArrayList<String> levelData = new ArrayList<String>();
-    	
-    	if (cursor != null)
-    	{
-    		while (cursor.moveToNext())
-        	{
-    			levelData.add(cursor.getString(FIELD_ID_ID));
-    			levelData.add(cursor.getString(FIELD_ID_STAGE));
-    			levelData.add(cursor.getString(FIELD_ID_LEVEL));
-    			levelData.add(cursor.getString(FIELD_ID_PLAYER_START_TILE_X));
-    			levelData.add(cursor.getString(FIELD_ID_PLAYER_START_TILE_Y));
-    			levelData.add(cursor.getString(FIELD_ID_TILE_DATA));
-        	}
-    		cursor.close();
-    	}
-    	
-    	db.close();
-    	return levelData;
+		return ((((long) stage) << 32) | (level & 0xFFFFFFFFL));
 	}
 }
@@ -2,17 +2,22 @@ package org.ruscoe.example.tilegame.data;
 
 import static android.provider.BaseColumns._ID;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import org.ruscoe.example.tilegame.TileTemplateRegistry;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
 
 /**
  * The GameTileData class represents a definition of a game
  * tile stored in the database.
  * 
+ * Game tile definitions are read from the database once, into a
+ * TileTemplateRegistry which is then served from memory.
+ * 
+ * Animated tiles list the drawable of each frame, and the time each
+ * frame is shown for in milliseconds.
+ * 
  * @author Dan Ruscoe (ruscoe.org)
  * @version 1.0
  */
@@ -24,12 +29,31 @@ public class GameTileData extends GameDAO
 	public static final String TYPE = "type";
 	public static final String DRAWABLE = "drawable";
 	public static final String VISIBLE = "visible";
+	public static final String ANIMATION_FRAMES = "animationFrames";
+	public static final String FRAME_DURATION = "frameDuration";
 	
 	public static final int FIELD_ID_ID = 0;
 	public static final int FIELD_ID_NAME = 1;
 	public static final int FIELD_ID_TYPE = 2;
 	public static final int FIELD_ID_DRAWABLE = 3;
 	public static final int FIELD_ID_VISIBLE = 4;
+	public static final int FIELD_ID_ANIMATION_FRAMES = 5;
+	public static final int FIELD_ID_FRAME_DURATION = 6;
+
+	/**
+	 * Separates the drawable resource IDs of the frames of animated tiles.
+	 */
+	public static final String ANIMATION_FRAME_SEPARATOR = ",";
+
+	private static final String QUERY_TILES_DATA = "SELECT "
+		+ _ID + ", " + NAME + ", " + TYPE + ", " + DRAWABLE + ", " + VISIBLE + ", "
+		+ ANIMATION_FRAMES + ", " + FRAME_DURATION
+		+ " FROM " + TABLE_NAME;
+
+	/**
+	 * Templates of all available game tiles, once read from the database.
+	 */
+	private static TileTemplateRegistry sTileTemplates = null;
 
 	public GameTileData(Context ctx)
 	{
@@ -37,37 +61,84 @@ public class GameTileData extends GameDAO
 	}
 
 	/**
-	 * Gets a map containing definitions for all available game tiles.
-	 * @return HashMap
+	 * Gets the templates defining all available game tiles.
+	 * @return TileTemplateRegistry
 	 */
-	public HashMap<Integer, ArrayList<Integer>> getTilesData()
+	public TileTemplateRegistry getTileTemplates()
 	{
-    	SQLiteDatabase db = this.getReadableDatabase();
+		synchronized (GameTileData.class)
+		{
+			if (sTileTemplates == null)
+			{
+				sTileTemplates = queryTileTemplates();
+			}
 
-    	String[] from = { _ID, NAME, TYPE, DRAWABLE, VISIBLE };
-    	Cursor cursor = db.query(TABLE_NAME, from, null, null, null, null, null);
+			return sTileTemplates;
+		}
+	}
 
-    	HashMap<Integer, ArrayList<Integer>> tiles = new HashMap<Integer, ArrayList<Integer>>();
+	private TileTemplateRegistry queryTileTemplates()
+	{
+		Cursor cursor = this.query(QUERY_TILES_DATA, null);
+
+		int templateCount = (cursor != null) ? cursor.getCount() : 0;
+
+		int[] tileIds = new int[templateCount];
+		String[] names = new String[templateCount];
+		int[] types = new int[templateCount];
+		int[] drawables = new int[templateCount];
+		boolean[] visible = new boolean[templateCount];
+		int[][] frameDrawables = new int[templateCount][];
+		int[] frameDurations = new int[templateCount];
 
-    	if (cursor != null)
-    	{
-    		while (cursor.moveToNext())
-        	{
-    			ArrayList<Integer> arrayList = new ArrayList<Integer>();
-    			
-    			arrayList.add(cursor.getInt(FIELD_ID_ID));
-    			arrayList.add(cursor.getInt(FIELD_ID_NAME));
-    			arrayList.add(cursor.getInt(FIELD_ID_TYPE));
-    			arrayList.add(cursor.getInt(FIELD_ID_DRAWABLE));
-    			arrayList.add(cursor.getInt(FIELD_ID_VISIBLE));
+		if (cursor != null)
+		{
+			int i = 0;
+			while (cursor.moveToNext() && (i < templateCount))
+			{
+				tileIds[i] = cursor.getInt(FIELD_ID_ID);
+				names[i] = cursor.getString(FIELD_ID_NAME);
+				types[i] = cursor.getInt(FIELD_ID_TYPE);
+				drawables[i] = cursor.getInt(FIELD_ID_DRAWABLE);
+				visible[i] = (cursor.getInt(FIELD_ID_VISIBLE) != 0);
+				frameDrawables[i] = parseAnimationFrames(cursor.getString(FIELD_ID_ANIMATION_FRAMES));
+				frameDurations[i] = cursor.getInt(FIELD_ID_FRAME_DURATION);
+				i++;
+			}
+			cursor.close();
+		}
+
+		return new TileTemplateRegistry(tileIds, names, types, drawables, visible, frameDrawables, frameDurations);
+	}
+
+	/**
+	 * Parses the animation frames of a tile.
+	 * @param String animationFrames - Drawable resource IDs separated by
+	 * 		ANIMATION_FRAME_SEPARATOR, or null for tiles that are not animated.
+	 * @return int[] - The drawable resource ID of each frame, or null if not animated.
+	 */
+	private static int[] parseAnimationFrames(String animationFrames)
+	{
+		if ((animationFrames == null) || (animationFrames.length() == 0))
+		{
+			return null;
+		}
 
-    			tiles.put(cursor.getInt(FIELD_ID_ID), arrayList);
-        	}
-    		cursor.close();
-    	}
+		String[] frames = animationFrames.split(ANIMATION_FRAME_SEPARATOR);
+		int[] frameDrawables = new int[frames.length];
 
-    	db.close();
+		try
+		{
+			for (int i = 0; i < frames.length; i++)
+			{
+				frameDrawables[i] = Integer.parseInt(frames[i].trim());
+			}
+		} catch (NumberFormatException e)
+		{
+			Log.e("Tile Game Example", "Invalid animation frames: " + animationFrames);
+			return null;
+		}
 
-    	return tiles;
+		return frameDrawables;
 	}
 }
@@ -0,0 +1,81 @@
+package org.ruscoe.example.tilegame.data;
+
+/**
+ * The LevelData class represents the definition of a single game level:
+ * its stage and level numbers, dimensions, player start tile and the
+ * tile ID of every cell.
+ * 
+ * Tile IDs are stored in row-major order and correspond to the unique
+ * IDs found in the game tile definition table. A tile ID of 0 is an
+ * empty cell.
+ * 
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class LevelData
+{
+	private final int mStage;
+	private final int mLevel;
+	private final int mColumns;
+	private final int mRows;
+	private final int mPlayerStartTileX;
+	private final int mPlayerStartTileY;
+	private final int[] mTileIds;
+
+	public LevelData(int stage, int level, int columns, int rows,
+			int playerStartTileX, int playerStartTileY, int[] tileIds)
+	{
+		if (tileIds.length != (columns * rows))
+		{
+			throw new IllegalArgumentException("Expected " + (columns * rows) + " tile IDs, found " + tileIds.length);
+		}
+
+		this.mStage = stage;
+		this.mLevel = level;
+		this.mColumns = columns;
+		this.mRows = rows;
+		this.mPlayerStartTileX = playerStartTileX;
+		this.mPlayerStartTileY = playerStartTileY;
+		this.mTileIds = tileIds;
+	}
+
+	public int getStage()
+	{
+		return this.mStage;
+	}
+
+	public int getLevel()
+	{
+		return this.mLevel;
+	}
+
+	public int getColumns()
+	{
+		return this.mColumns;
+	}
+
+	public int getRows()
+	{
+		return this.mRows;
+	}
+
+	public int getPlayerStartTileX()
+	{
+		return this.mPlayerStartTileX;
+	}
+
+	public int getPlayerStartTileY()
+	{
+		return this.mPlayerStartTileY;
+	}
+
+	/**
+	 * Gets the tile ID of every cell, in row-major order.
+	 * The returned array is not copied and must not be modified.
+	 * @return int[]
+	 */
+	public int[] getTileIds()
+	{
+		return this.mTileIds;
+	}
+}
@@ -0,0 +1,413 @@
+package org.ruscoe.example.tilegame.data;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * The LevelFormat class reads and writes compiled game levels.
+ * 
+ * A compiled level is a compact binary form of LevelData that can be
+ * loaded without creating any intermediate strings. All values are
+ * big-endian:
+ * - int magic number, "TGLV".
+ * - short format version.
+ * - int stage, int level.
+ * - int columns, int rows.
+ * - int player start tile X, int player start tile Y.
+ * - short palette size, followed by an int tile ID for each palette entry.
+ * - The cells, in row-major order, each stored as an index into the
+ * 		palette. Indexes are single bytes when the palette holds 256 entries
+ * 		or fewer, shorts otherwise.
+ * 
+ * LevelFormat also converts the text tile data levels are defined in,
+ * as stored by version 1 of the game level table, into LevelData.
+ * 
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public final class LevelFormat
+{
+	public static final int MAGIC = 0x54474C56;
+	public static final int VERSION = 1;
+
+	/**
+	 * Separates the rows of level tile data in the text format.
+	 */
+	public static final String TILE_DATA_LINE_BREAK = "//";
+
+	static final int MAX_BYTE_PALETTE_SIZE = 256;
+	static final int MAX_PALETTE_SIZE = 65536;
+
+	private LevelFormat()
+	{
+	}
+
+	/**
+	 * Reads a compiled level from the current position of a buffer.
+	 * The buffer position is left after the end of the level.
+	 * @param ByteBuffer buffer
+	 * @return LevelData
+	 * @throws IOException - If the buffer does not contain a valid compiled level.
+	 */
+	public static LevelData read(ByteBuffer buffer) throws IOException
+	{
+		LevelReader levelReader = new LevelReader(buffer);
+		LevelData levelData = levelReader.readLevelData();
+
+		buffer.position(levelReader.getEndPosition());
+
+		return levelData;
+	}
+
+	/**
+	 * Writes a level in compiled form.
+	 * @param LevelData levelData
+	 * @param OutputStream outputStream
+	 * @throws IllegalArgumentException - If the level uses more than
+	 * 		MAX_PALETTE_SIZE tile IDs. Nothing is written to the stream.
+	 * @throws IOException
+	 */
+	public static void write(LevelData levelData, OutputStream outputStream) throws IOException
+	{
+		int[] tileIds = levelData.getTileIds();
+
+		// Build the palette of distinct tile IDs.
+		Palette palette = new Palette();
+		for (int cell = 0; cell < tileIds.length; cell++)
+		{
+			if ((cell == 0) || (tileIds[cell] != tileIds[cell - 1]))
+			{
+				palette.add(tileIds[cell]);
+			}
+		}
+
+		DataOutputStream out = new DataOutputStream(outputStream);
+
+		writeHeader(out, levelData.getStage(), levelData.getLevel(), levelData.getColumns(), levelData.getRows(),
+				levelData.getPlayerStartTileX(), levelData.getPlayerStartTileY(), palette);
+
+		// Replace each run of a tile ID with its palette index.
+		CellWriter cellWriter = new CellWriter(out, levelData.getColumns(), palette.getCellSize());
+
+		int cell = 0;
+		while (cell < tileIds.length)
+		{
+			int runLength = 1;
+			while (((cell + runLength) < tileIds.length) && (tileIds[cell + runLength] == tileIds[cell]))
+			{
+				runLength++;
+			}
+
+			cellWriter.write(palette.getIndex(tileIds[cell]), runLength);
+
+			cell += runLength;
+		}
+
+		out.flush();
+	}
+
+	/**
+	 * Writes a level in compiled form, directly from its run-length encoded
+	 * tile IDs, as stored in the game level table. The tile IDs are never
+	 * decoded into a whole level: the palette is built from the runs, then
+	 * the cells are written a row at a time.
+	 * @param int stage
+	 * @param int level
+	 * @param int columns
+	 * @param int rows
+	 * @param int playerStartTileX
+	 * @param int playerStartTileY
+	 * @param byte[] tiles - The tile IDs, encoded by TileRunLength.
+	 * @param OutputStream outputStream
+	 * @throws IllegalArgumentException - If the tile IDs are not valid for the
+	 * 		level dimensions, or more than MAX_PALETTE_SIZE tile IDs are used.
+	 * 		Nothing is written to the stream.
+	 * @throws IOException
+	 */
+	public static void write(int stage, int level, int columns, int rows,
+			int playerStartTileX, int playerStartTileY, byte[] tiles, OutputStream outputStream) throws IOException
+	{
+		if ((columns < 0) || (rows < 0) || (((long) columns * rows) > Integer.MAX_VALUE))
+		{
+			throw new IllegalArgumentException("Invalid level dimensions: " + columns + "x" + rows);
+		}
+
+		int cellCount = (columns * rows);
+
+		// Check the runs and build the palette of distinct tile IDs,
+		// before anything is written.
+		Palette palette = new Palette();
+		TileRunLength.RunReader runs = new TileRunLength.RunReader(tiles);
+
+		int cell = 0;
+		while (runs.next())
+		{
+			if (runs.getRunLength() > (cellCount - cell))
+			{
+				throw new IllegalArgumentException("Invalid run length in level tile data: " + runs.getRunLength());
+			}
+
+			palette.add(runs.getTileId());
+
+			cell += runs.getRunLength();
+		}
+
+		if (cell != cellCount)
+		{
+			throw new IllegalArgumentException("Expected " + cellCount + " cells in level tile data, found " + cell);
+		}
+
+		DataOutputStream out = new DataOutputStream(outputStream);
+
+		writeHeader(out, stage, level, columns, rows, playerStartTileX, playerStartTileY, palette);
+
+		CellWriter cellWriter = new CellWriter(out, columns, palette.getCellSize());
+
+		runs.reset();
+		while (runs.next())
+		{
+			cellWriter.write(palette.getIndex(runs.getTileId()), runs.getRunLength());
+		}
+
+		out.flush();
+	}
+
+	private static void writeHeader(DataOutputStream out, int stage, int level, int columns, int rows,
+			int playerStartTileX, int playerStartTileY, Palette palette) throws IOException
+	{
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeInt(stage);
+		out.writeInt(level);
+		out.writeInt(columns);
+		out.writeInt(rows);
+		out.writeInt(playerStartTileX);
+		out.writeInt(playerStartTileY);
+
+		// A palette of 65536 entries is stored as 0.
+		out.writeShort(palette.getSize());
+		for (int i = 0; i < palette.getSize(); i++)
+		{
+			out.writeInt(palette.getTileId(i));
+		}
+	}
+
+	/**
+	 * The distinct tile IDs of a level, in the order first found.
+	 */
+	private static final class Palette
+	{
+		private final HashMap<Integer, Integer> mIndexes = new HashMap<Integer, Integer>();
+		private int[] mTileIds = new int[16];
+		private int mSize = 0;
+
+		/**
+		 * Adds a tile ID, if not already in the palette.
+		 * @param int tileId
+		 * @throws IllegalArgumentException - If the palette is full.
+		 */
+		void add(int tileId)
+		{
+			if (this.mIndexes.containsKey(tileId))
+			{
+				return;
+			}
+
+			if (this.mSize == MAX_PALETTE_SIZE)
+			{
+				throw new IllegalArgumentException("Level uses more than " + MAX_PALETTE_SIZE + " tile IDs");
+			}
+
+			if (this.mSize == this.mTileIds.length)
+			{
+				int[] tileIds = new int[this.mSize * 2];
+				System.arraycopy(this.mTileIds, 0, tileIds, 0, this.mSize);
+				this.mTileIds = tileIds;
+			}
+
+			this.mIndexes.put(tileId, this.mSize);
+			this.mTileIds[this.mSize++] = tileId;
+		}
+
+		int getSize()
+		{
+			return this.mSize;
+		}
+
+		int getTileId(int index)
+		{
+			return this.mTileIds[index];
+		}
+
+		int getIndex(int tileId)
+		{
+			return this.mIndexes.get(tileId);
+		}
+
+		/**
+		 * Gets the size of each cell's palette index, in bytes.
+		 * @return int
+		 */
+		int getCellSize()
+		{
+			return ((this.mSize <= MAX_BYTE_PALETTE_SIZE) ? 1 : 2);
+		}
+	}
+
+	/**
+	 * Writes the palette indexes of cells through a buffer holding a
+	 * single row, so the cells of a level are never held whole.
+	 */
+	private static final class CellWriter
+	{
+		private final OutputStream mOut;
+		private final byte[] mRow;
+		private final int mCellSize;
+		private int mPosition = 0;
+
+		CellWriter(OutputStream out, int columns, int cellSize)
+		{
+			this.mOut = out;
+			this.mRow = new byte[columns * cellSize];
+			this.mCellSize = cellSize;
+		}
+
+		/**
+		 * Writes a run of cells with the same palette index.
+		 * @param int index
+		 * @param int count
+		 * @throws IOException
+		 */
+		void write(int index, int count) throws IOException
+		{
+			byte high = (byte) (index >>> 8);
+			byte low = (byte) index;
+
+			for (int i = 0; i < count; i++)
+			{
+				if (this.mCellSize == 2)
+				{
+					this.mRow[this.mPosition++] = high;
+				}
+				this.mRow[this.mPosition++] = low;
+
+				if (this.mPosition == this.mRow.length)
+				{
+					this.mOut.write(this.mRow);
+					this.mPosition = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Converts level tile data in the text format used to define levels
+	 * (rows of comma-delimited tile IDs separated by
+	 * TILE_DATA_LINE_BREAK) into LevelData.
+	 * 
+	 * The text is scanned in place; no strings are created per row or tile.
+	 * Rows shorter than the longest row are padded with empty cells.
+	 * @param int stage
+	 * @param int level
+	 * @param int playerStartTileX
+	 * @param int playerStartTileY
+	 * @param String tileData
+	 * @return LevelData
+	 */
+	public static LevelData fromTileData(int stage, int level,
+			int playerStartTileX, int playerStartTileY, String tileData)
+	{
+		String lineBreak = TILE_DATA_LINE_BREAK;
+		int length = tileData.length();
+
+		// First pass: count the rows and the cells in the longest row.
+		int rows = 0;
+		int columns = 0;
+		int rowCells = 0;
+		boolean rowStarted = false;
+
+		for (int i = 0; i < length; i++)
+		{
+			char c = tileData.charAt(i);
+
+			if (tileData.startsWith(lineBreak, i))
+			{
+				if (rowStarted)
+				{
+					rowCells++;
+				}
+
+				rows++;
+				columns = Math.max(columns, rowCells);
+				rowCells = 0;
+				rowStarted = false;
+				i += (lineBreak.length() - 1);
+			}
+			else if (c == ',')
+			{
+				rowCells++;
+			}
+			else if (!Character.isWhitespace(c))
+			{
+				rowStarted = true;
+			}
+		}
+
+		if (rowStarted || (rowCells > 0))
+		{
+			rows++;
+			columns = Math.max(columns, (rowStarted ? (rowCells + 1) : rowCells));
+		}
+
+		// Second pass: read the tile IDs.
+		int[] tileIds = new int[columns * rows];
+		int row = 0;
+		int column = 0;
+		int tileId = 0;
+		rowStarted = false;
+
+		for (int i = 0; i < length; i++)
+		{
+			char c = tileData.charAt(i);
+
+			if (tileData.startsWith(lineBreak, i))
+			{
+				if (rowStarted)
+				{
+					tileIds[(row * columns) + column] = tileId;
+				}
+
+				row++;
+				column = 0;
+				tileId = 0;
+				rowStarted = false;
+				i += (lineBreak.length() - 1);
+			}
+			else if (c == ',')
+			{
+				tileIds[(row * columns) + column] = tileId;
+				column++;
+				tileId = 0;
+			}
+			else if ((c >= '0') && (c <= '9'))
+			{
+				tileId = ((tileId * 10) + (c - '0'));
+				rowStarted = true;
+			}
+			else if (!Character.isWhitespace(c))
+			{
+				throw new IllegalArgumentException("Invalid character in level tile data: " + c);
+			}
+		}
+
+		if (rowStarted)
+		{
+			tileIds[(row * columns) + column] = tileId;
+		}
+
+		return new LevelData(stage, level, columns, rows, playerStartTileX, playerStartTileY, tileIds);
+	}
+}
@@ -0,0 +1,368 @@
+package org.ruscoe.example.tilegame.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The LevelPack class provides access to a level pack file, a single file
+ * holding many compiled game levels.
+ * 
+ * The file begins with an index table, followed by each level in the
+ * compiled form written by LevelFormat. All values are big-endian:
+ * - int magic number, "TGLP".
+ * - short format version.
+ * - int level count.
+ * - An index entry for each level, sorted by stage then level:
+ * 		int stage, int level, int offset of the compiled level, int length.
+ * - Unused index entries, where the writer reserved room for more levels.
+ * - The compiled levels.
+ * 
+ * The pack is opened by memory-mapping the file, so opening it costs the
+ * same regardless of how many levels it holds. Levels are found by a
+ * binary search of the mapped index and read directly from the mapped
+ * region when requested, either whole or a region at a time.
+ * 
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class LevelPack
+{
+	public static final int MAGIC = 0x54474C50;
+	public static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 10;
+	private static final int INDEX_ENTRY_SIZE = 16;
+
+	private final ByteBuffer mBuffer;
+	private final int mLevelCount;
+
+	private LevelPack(ByteBuffer buffer) throws IOException
+	{
+		if ((buffer.capacity() < HEADER_SIZE) || (buffer.getInt(0) != MAGIC))
+		{
+			throw new IOException("Not a level pack");
+		}
+
+		int version = buffer.getShort(4);
+		if (version != VERSION)
+		{
+			throw new IOException("Unsupported level pack version: " + version);
+		}
+
+		this.mLevelCount = buffer.getInt(6);
+
+		if ((this.mLevelCount < 0)
+				|| (buffer.capacity() < (HEADER_SIZE + ((long) this.mLevelCount * INDEX_ENTRY_SIZE))))
+		{
+			throw new IOException("Level pack index is truncated");
+		}
+
+		this.mBuffer = buffer;
+	}
+
+	/**
+	 * Opens a level pack file by memory-mapping it.
+	 * @param File packFile
+	 * @return LevelPack
+	 * @throws IOException - If the file can't be mapped or is not a valid level pack.
+	 */
+	public static LevelPack open(File packFile) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(packFile, "r");
+
+		try
+		{
+			FileChannel channel = file.getChannel();
+
+			// The mapping remains valid after the file is closed.
+			return new LevelPack(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally
+		{
+			file.close();
+		}
+	}
+
+	/**
+	 * Gets the number of levels in the pack.
+	 * @return int
+	 */
+	public int getLevelCount()
+	{
+		return this.mLevelCount;
+	}
+
+	/**
+	 * Reads a level from the pack.
+	 * @param int stage - The game stage.
+	 * @param int level - The game level, relative to the stage.
+	 * @return LevelData - The level data, or null if the pack does not contain the level.
+	 * @throws IOException - If the compiled level is not valid.
+	 */
+	public LevelData getLevelData(int stage, int level) throws IOException
+	{
+		LevelReader levelReader = getLevelReader(stage, level);
+
+		if (levelReader == null)
+		{
+			return null;
+		}
+
+		return levelReader.readLevelData();
+	}
+
+	/**
+	 * Opens a level in the pack for reading a region at a time.
+	 * @param int stage - The game stage.
+	 * @param int level - The game level, relative to the stage.
+	 * @return LevelReader - The level reader, or null if the pack does not contain the level.
+	 * @throws IOException - If the compiled level is not valid.
+	 */
+	public LevelReader getLevelReader(int stage, int level) throws IOException
+	{
+		int entry = findIndexEntry(stage, level);
+
+		if (entry < 0)
+		{
+			return null;
+		}
+
+		int offset = this.mBuffer.getInt(entry + 8);
+		int length = this.mBuffer.getInt(entry + 12);
+
+		if ((offset < 0) || (length < 0) || (((long) offset + length) > this.mBuffer.capacity()))
+		{
+			throw new IOException("Level pack entry is out of range");
+		}
+
+		// Each reader uses its own view of the mapped region, so levels may be
+		// read from several threads at once.
+		ByteBuffer levelBuffer = this.mBuffer.duplicate();
+		levelBuffer.limit(offset + length);
+		levelBuffer.position(offset);
+
+		return new LevelReader(levelBuffer);
+	}
+
+	/**
+	 * Finds the index entry of a level by binary search.
+	 * @param int stage
+	 * @param int level
+	 * @return int - The position of the index entry, or -1 if not found.
+	 */
+	private int findIndexEntry(int stage, int level)
+	{
+		int low = 0;
+		int high = (this.mLevelCount - 1);
+
+		while (low <= high)
+		{
+			int middle = ((low + high) >>> 1);
+			int entry = (HEADER_SIZE + (middle * INDEX_ENTRY_SIZE));
+
+			int comparison = compare(this.mBuffer.getInt(entry), this.mBuffer.getInt(entry + 4), stage, level);
+
+			if (comparison < 0)
+			{
+				low = (middle + 1);
+			}
+			else if (comparison > 0)
+			{
+				high = (middle - 1);
+			}
+			else
+			{
+				return entry;
+			}
+		}
+
+		return -1;
+	}
+
+	private static int compare(int stageA, int levelA, int stageB, int levelB)
+	{
+		if (stageA != stageB)
+		{
+			return ((stageA < stageB) ? -1 : 1);
+		}
+
+		if (levelA != levelB)
+		{
+			return ((levelA < levelB) ? -1 : 1);
+		}
+
+		return 0;
+	}
+
+	/**
+	 * The Writer class writes a level pack file a level at a time, so only
+	 * the level being written needs to be in memory.
+	 * 
+	 * Room for the index is reserved at the start of the file for the
+	 * largest number of levels the pack may hold, and the index written
+	 * into it once every level has been written. Levels must be written
+	 * in order of stage, then level.
+	 */
+	public static class Writer
+	{
+		private final File mPackFile;
+		private final DataOutputStream mOut;
+
+		/**
+		 * The stage, level, offset and length of each level written.
+		 */
+		private final int[] mIndex;
+		private int mLevelCount = 0;
+
+		/**
+		 * The offset of the level being written, or -1 between levels.
+		 */
+		private int mLevelOffset = -1;
+
+		private boolean mClosed = false;
+
+		/**
+		 * Starts writing a level pack file.
+		 * @param File packFile
+		 * @param int maxLevelCount - The largest number of levels the pack will hold.
+		 * @throws IOException
+		 */
+		public Writer(File packFile, int maxLevelCount) throws IOException
+		{
+			if (maxLevelCount < 0)
+			{
+				throw new IllegalArgumentException("Invalid level count: " + maxLevelCount);
+			}
+
+			this.mPackFile = packFile;
+			this.mIndex = new int[maxLevelCount * (INDEX_ENTRY_SIZE / 4)];
+			this.mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(packFile)));
+
+			// Reserve room for the header and index.
+			for (int i = 0; i < (HEADER_SIZE + (maxLevelCount * INDEX_ENTRY_SIZE)); i++)
+			{
+				this.mOut.writeByte(0);
+			}
+		}
+
+		/**
+		 * Starts writing a level.
+		 * @param int stage - The game stage.
+		 * @param int level - The game level, relative to the stage.
+		 * @return OutputStream - The stream to write the compiled level to,
+		 * 		with LevelFormat, before calling endLevel.
+		 * @throws IOException - If the level is not after the last level written,
+		 * 		or the pack is full.
+		 */
+		public OutputStream startLevel(int stage, int level) throws IOException
+		{
+			if (this.mLevelOffset >= 0)
+			{
+				throw new IllegalStateException("Level not ended");
+			}
+
+			int entry = (this.mLevelCount * (INDEX_ENTRY_SIZE / 4));
+
+			if (entry == this.mIndex.length)
+			{
+				throw new IOException("Level pack holds at most " + this.mLevelCount + " levels");
+			}
+
+			if ((this.mLevelCount > 0)
+					&& (compare(this.mIndex[entry - 4], this.mIndex[entry - 3], stage, level) >= 0))
+			{
+				throw new IOException("Level out of order or duplicated: stage " + stage + ", level " + level);
+			}
+
+			this.mIndex[entry] = stage;
+			this.mIndex[entry + 1] = level;
+			this.mLevelOffset = this.mOut.size();
+
+			return this.mOut;
+		}
+
+		/**
+		 * Ends the level started by startLevel.
+		 */
+		public void endLevel()
+		{
+			if (this.mLevelOffset < 0)
+			{
+				throw new IllegalStateException("Level not started");
+			}
+
+			int entry = (this.mLevelCount * (INDEX_ENTRY_SIZE / 4));
+
+			this.mIndex[entry + 2] = this.mLevelOffset;
+			this.mIndex[entry + 3] = (this.mOut.size() - this.mLevelOffset);
+
+			this.mLevelCount++;
+			this.mLevelOffset = -1;
+		}
+
+		/**
+		 * Leaves out the level started by startLevel, which must not have had
+		 * anything written to it.
+		 */
+		public void cancelLevel()
+		{
+			if ((this.mLevelOffset < 0) || (this.mOut.size() != this.mLevelOffset))
+			{
+				throw new IllegalStateException("No level to cancel");
+			}
+
+			this.mLevelOffset = -1;
+		}
+
+		/**
+		 * Writes the index of the levels written, and closes the file.
+		 * @throws IOException
+		 */
+		public void finish() throws IOException
+		{
+			if (this.mLevelOffset >= 0)
+			{
+				throw new IllegalStateException("Level not ended");
+			}
+
+			close();
+
+			RandomAccessFile file = new RandomAccessFile(this.mPackFile, "rw");
+
+			try
+			{
+				file.writeInt(MAGIC);
+				file.writeShort(VERSION);
+				file.writeInt(this.mLevelCount);
+
+				ByteBuffer index = ByteBuffer.allocate(this.mLevelCount * INDEX_ENTRY_SIZE);
+				index.asIntBuffer().put(this.mIndex, 0, (this.mLevelCount * (INDEX_ENTRY_SIZE / 4)));
+
+				file.write(index.array());
+			} finally
+			{
+				file.close();
+			}
+		}
+
+		/**
+		 * Closes the file. A pack not finished is left without an index,
+		 * and so is not a valid level pack.
+		 * @throws IOException
+		 */
+		public void close() throws IOException
+		{
+			if (!this.mClosed)
+			{
+				this.mClosed = true;
+				this.mOut.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package org.ruscoe.example.tilegame.data;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The LevelReader class reads the tiles of a compiled level in place,
+ * without loading the whole level.
+ * 
+ * The cells of a compiled level are stored as fixed-size palette
+ * indexes, so the tiles of any rectangular region of the level can be
+ * read directly from their position in the buffer. This allows levels far
+ * larger than the screen to be loaded a region at a time.
+ * 
+ * See LevelFormat for a description of the compiled form.
+ * 
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public class LevelReader
+{
+	private final ByteBuffer mBuffer;
+
+	private final int mStage;
+	private final int mLevel;
+	private final int mColumns;
+	private final int mRows;
+	private final int mPlayerStartTileX;
+	private final int mPlayerStartTileY;
+
+	private final int[] mPalette;
+	private final int mCellsPosition;
+	private final int mCellSize;
+
+	/**
+	 * Reads the header of a compiled level at the current position of
+	 * a buffer. The buffer itself is not modified.
+	 * @param ByteBuffer buffer
+	 * @throws IOException - If the buffer does not contain a valid compiled level.
+	 */
+	public LevelReader(ByteBuffer buffer) throws IOException
+	{
+		this.mBuffer = buffer.duplicate();
+
+		try
+		{
+			if (this.mBuffer.getInt() != LevelFormat.MAGIC)
+			{
+				throw new IOException("Not a compiled level");
+			}
+
+			int version = this.mBuffer.getShort();
+			if (version != LevelFormat.VERSION)
+			{
+				throw new IOException("Unsupported compiled level version: " + version);
+			}
+
+			this.mStage = this.mBuffer.getInt();
+			this.mLevel = this.mBuffer.getInt();
+			this.mColumns = this.mBuffer.getInt();
+			this.mRows = this.mBuffer.getInt();
+			this.mPlayerStartTileX = this.mBuffer.getInt();
+			this.mPlayerStartTileY = this.mBuffer.getInt();
+
+			if ((this.mColumns < 0) || (this.mRows < 0) || ((long) this.mColumns * this.mRows > Integer.MAX_VALUE))
+			{
+				throw new IOException("Invalid level dimensions: " + this.mColumns + "x" + this.mRows);
+			}
+
+			int paletteSize = (this.mBuffer.getShort() & 0xFFFF);
+			if (paletteSize == 0)
+			{
+				paletteSize = LevelFormat.MAX_PALETTE_SIZE;
+			}
+
+			this.mPalette = new int[paletteSize];
+			for (int i = 0; i < paletteSize; i++)
+			{
+				this.mPalette[i] = this.mBuffer.getInt();
+			}
+		} catch (BufferUnderflowException e)
+		{
+			throw new IOException("Compiled level is truncated");
+		}
+
+		this.mCellSize = ((this.mPalette.length <= LevelFormat.MAX_BYTE_PALETTE_SIZE) ? 1 : 2);
+		this.mCellsPosition = this.mBuffer.position();
+
+		if ((this.mBuffer.limit() - this.mCellsPosition) < ((long) this.mColumns * this.mRows * this.mCellSize))
+		{
+			throw new IOException("Compiled level is truncated");
+		}
+	}
+
+	public int getStage()
+	{
+		return this.mStage;
+	}
+
+	public int getLevel()
+	{
+		return this.mLevel;
+	}
+
+	public int getColumns()
+	{
+		return this.mColumns;
+	}
+
+	public int getRows()
+	{
+		return this.mRows;
+	}
+
+	public int getPlayerStartTileX()
+	{
+		return this.mPlayerStartTileX;
+	}
+
+	public int getPlayerStartTileY()
+	{
+		return this.mPlayerStartTileY;
+	}
+
+	/**
+	 * Gets the position in the buffer just after the end of the level.
+	 * @return int
+	 */
+	public int getEndPosition()
+	{
+		return (this.mCellsPosition + (this.mColumns * this.mRows * this.mCellSize));
+	}
+
+	/**
+	 * Reads the tile IDs of a rectangular region of the level. Only the
+	 * cells of the region are read from the buffer.
+	 * @param int column - The first column of the region.
+	 * @param int row - The first row of the region.
+	 * @param int width - The number of columns in the region.
+	 * @param int height - The number of rows in the region.
+	 * @param int[] tileIds - Filled with the tile ID of each cell of the region,
+	 * 		in row-major order. Must hold at least width * height cells.
+	 * @throws IOException - If a cell refers to a missing palette entry.
+	 */
+	public void readTiles(int column, int row, int width, int height, int[] tileIds) throws IOException
+	{
+		if ((column < 0) || (row < 0) || (width < 0) || (height < 0)
+				|| ((column + width) > this.mColumns) || ((row + height) > this.mRows))
+		{
+			throw new IllegalArgumentException("Region outside level: " + column + "," + row
+					+ " " + width + "x" + height);
+		}
+
+		try
+		{
+			int i = 0;
+
+			for (int regionRow = row; regionRow < (row + height); regionRow++)
+			{
+				int position = (this.mCellsPosition
+						+ ((((regionRow * this.mColumns) + column)) * this.mCellSize));
+
+				if (this.mCellSize == 1)
+				{
+					for (int regionColumn = 0; regionColumn < width; regionColumn++, position++)
+					{
+						tileIds[i++] = this.mPalette[this.mBuffer.get(position) & 0xFF];
+					}
+				}
+				else
+				{
+					for (int regionColumn = 0; regionColumn < width; regionColumn++, position += 2)
+					{
+						tileIds[i++] = this.mPalette[this.mBuffer.getShort(position) & 0xFFFF];
+					}
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e)
+		{
+			throw new IOException("Compiled level refers to a missing palette entry");
+		}
+	}
+
+	/**
+	 * Reads the whole level.
+	 * @return LevelData
+	 * @throws IOException - If a cell refers to a missing palette entry.
+	 */
+	public LevelData readLevelData() throws IOException
+	{
+		int[] tileIds = new int[this.mColumns * this.mRows];
+
+		readTiles(0, 0, this.mColumns, this.mRows, tileIds);
+
+		return new LevelData(this.mStage, this.mLevel, this.mColumns, this.mRows,
+				this.mPlayerStartTileX, this.mPlayerStartTileY, tileIds);
+	}
+}
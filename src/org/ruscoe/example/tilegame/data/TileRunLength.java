@@ -0,0 +1,212 @@
+package org.ruscoe.example.tilegame.data;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * The TileRunLength class run-length encodes the tile IDs of a level,
+ * as stored in the tiles column of the game level table.
+ *
+ * The cells are stored in row-major order as a sequence of runs of the
+ * same tile ID. Each run is the run length followed by the tile ID, both
+ * written as unsigned variable-length integers: seven bits per byte,
+ * least significant first, with the high bit set on every byte but the
+ * last. Levels made mostly of empty cells or repeated walls encode to
+ * a few bytes per run rather than a few bytes per cell.
+ *
+ * @author Dan Ruscoe (ruscoe.org)
+ * @version 1.0
+ */
+public final class TileRunLength
+{
+	private TileRunLength()
+	{
+	}
+
+	/**
+	 * Encodes the tile IDs of a level.
+	 * @param int[] tileIds - The tile ID of every cell. IDs must not be negative.
+	 * @return byte[]
+	 */
+	public static byte[] encode(int[] tileIds)
+	{
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		int cell = 0;
+		while (cell < tileIds.length)
+		{
+			int tileId = tileIds[cell];
+
+			if (tileId < 0)
+			{
+				throw new IllegalArgumentException("Invalid tile ID: " + tileId);
+			}
+
+			int runLength = 1;
+			while (((cell + runLength) < tileIds.length) && (tileIds[cell + runLength] == tileId))
+			{
+				runLength++;
+			}
+
+			writeVarInt(outputStream, runLength);
+			writeVarInt(outputStream, tileId);
+
+			cell += runLength;
+		}
+
+		return outputStream.toByteArray();
+	}
+
+	/**
+	 * Decodes the tile IDs of a level.
+	 * @param byte[] data - The encoded tile IDs.
+	 * @param int cellCount - The number of cells in the level.
+	 * @return int[] - The tile ID of every cell.
+	 * @throws IllegalArgumentException - If the data does not hold exactly cellCount cells.
+	 */
+	public static int[] decode(byte[] data, int cellCount)
+	{
+		int[] tileIds = new int[cellCount];
+
+		int cell = 0;
+		RunReader runs = new RunReader(data);
+
+		while (runs.next())
+		{
+			int runLength = runs.getRunLength();
+			int tileId = runs.getTileId();
+
+			if (runLength > (cellCount - cell))
+			{
+				throw new IllegalArgumentException("Invalid run length in level tile data: " + runLength);
+			}
+
+			// New arrays are already filled with empty cells.
+			if (tileId != 0)
+			{
+				for (int i = cell; i < (cell + runLength); i++)
+				{
+					tileIds[i] = tileId;
+				}
+			}
+
+			cell += runLength;
+		}
+
+		if (cell != cellCount)
+		{
+			throw new IllegalArgumentException("Expected " + cellCount + " cells in level tile data, found " + cell);
+		}
+
+		return tileIds;
+	}
+
+	/**
+	 * The RunReader class reads encoded tile IDs a run at a time, without
+	 * decoding them into cells.
+	 */
+	public static final class RunReader
+	{
+		private final byte[] mData;
+		private final int[] mPosition = { 0 };
+
+		private int mRunLength = 0;
+		private int mTileId = 0;
+
+		/**
+		 * @param byte[] data - The encoded tile IDs.
+		 */
+		public RunReader(byte[] data)
+		{
+			this.mData = data;
+		}
+
+		/**
+		 * Reads the next run.
+		 * @return boolean - true if a run was read, false at the end of the data.
+		 * @throws IllegalArgumentException - If the run is not valid.
+		 */
+		public boolean next()
+		{
+			if (this.mPosition[0] >= this.mData.length)
+			{
+				return false;
+			}
+
+			this.mRunLength = readVarInt(this.mData, this.mPosition);
+			this.mTileId = readVarInt(this.mData, this.mPosition);
+
+			if (this.mRunLength <= 0)
+			{
+				throw new IllegalArgumentException("Invalid run length in level tile data: " + this.mRunLength);
+			}
+
+			return true;
+		}
+
+		/**
+		 * Goes back to before the first run.
+		 */
+		public void reset()
+		{
+			this.mPosition[0] = 0;
+		}
+
+		/**
+		 * Gets the number of cells in the run last read.
+		 * @return int
+		 */
+		public int getRunLength()
+		{
+			return this.mRunLength;
+		}
+
+		/**
+		 * Gets the tile ID of the run last read.
+		 * @return int
+		 */
+		public int getTileId()
+		{
+			return this.mTileId;
+		}
+	}
+
+	private static void writeVarInt(ByteArrayOutputStream outputStream, int value)
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			outputStream.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+
+		outputStream.write(value);
+	}
+
+	/**
+	 * Reads a variable-length integer.
+	 * @param byte[] data
+	 * @param int[] position - The position to read from, advanced past the integer.
+	 * @return int
+	 */
+	private static int readVarInt(byte[] data, int[] position)
+	{
+		int value = 0;
+
+		for (int shift = 0; shift < 32; shift += 7)
+		{
+			if (position[0] >= data.length)
+			{
+				throw new IllegalArgumentException("Truncated level tile data");
+			}
+
+			int b = data[position[0]++];
+			value |= ((b & 0x7F) << shift);
+
+			if ((b & 0x80) == 0)
+			{
+				return value;
+			}
+		}
+
+		throw new IllegalArgumentException("Invalid integer in level tile data");
+	}
+}